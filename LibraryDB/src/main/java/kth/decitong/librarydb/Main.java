@@ -1,10 +1,34 @@
 package kth.decitong.librarydb;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import kth.decitong.librarydb.model.BooksDbException;
 import kth.decitong.librarydb.model.BooksDbImpl;
+import kth.decitong.librarydb.model.CacheWarmer;
+import kth.decitong.librarydb.model.CachingBooksDb;
+import kth.decitong.librarydb.model.CatalogIndexes;
+import kth.decitong.librarydb.model.BooksDbInterface;
+import kth.decitong.librarydb.model.QueryCache;
+import kth.decitong.librarydb.model.QueryHistory;
+import kth.decitong.librarydb.model.ResilientBooksDb;
+import kth.decitong.librarydb.model.RoutingBooksDb;
+import kth.decitong.librarydb.model.SearchMode;
+import kth.decitong.librarydb.model.ShardedBooksDb;
+import kth.decitong.librarydb.model.UniversalSearch;
+import kth.decitong.librarydb.model.WriteBehindBooksDb;
+import kth.decitong.librarydb.server.RemoteBooksDb;
 import kth.decitong.librarydb.view.BooksPane;
+import kth.decitong.librarydb.view.Controller;
+import kth.decitong.librarydb.view.FxResponsivenessMonitor;
+import kth.decitong.librarydb.view.StartupProfile;
 
 /**
  * Application start up.
@@ -12,22 +36,171 @@ import kth.decitong.librarydb.view.BooksPane;
  * @author anderslm@kth.se
  */
 public class Main extends Application {
+    /**
+     * Whether to load the JDBC driver as the process starts and connect while the
+     * main window is being shown, instead of when the user asks to.
+     */
+    private static final boolean FAST_STARTUP = Boolean.getBoolean("librarydb.fastStartup");
 
     @Override
     public void start(Stage primaryStage) {
 
-        BooksDbImpl booksDb = new BooksDbImpl();
-        BooksPane root = new BooksPane(booksDb);
+        // The interactive connection and the warm-up connection share one cache, so the
+        // warm-up fills it for the user; the max age bounds how stale a cached result is
+        // for other clients' changes. The warm-up renews the genre and rating searches
+        // at half the max age, so they are warm whenever the user first clicks.
+        long cacheMaxAge = Long.getLong("librarydb.cacheMaxAgeMillis", 30_000);
+        QueryCache cache = new QueryCache(1000, cacheMaxAge);
+        BooksDbInterface booksDb = new WriteBehindBooksDb(
+                new CachingBooksDb(resilientBooksDb(), cache));
+        UniversalSearch universalSearch = new UniversalSearch(Main::resilientBooksDb);
+        // The warm-up reads the history of earlier sessions on its own thread.
+        QueryHistory history = new QueryHistory();
+        CacheWarmer cacheWarmer = new CacheWarmer(
+                () -> CachingBooksDb.filling(resilientBooksDb(), cache),
+                history, 50, cacheMaxAge / 2);
+        BooksPane root = new BooksPane(booksDb, universalSearch, cacheWarmer);
         Scene scene = new Scene(root, 800, 600);
 
         primaryStage.setTitle("Books Database Client");
         root.setupCloseRequestHandler(primaryStage);
 
+        // Run with -Dlibrarydb.startupBenchmark=<title> to connect, search for the
+        // title and exit once the result is shown; see StartupBenchmark.
+        String benchmarkQuery = System.getProperty("librarydb.startupBenchmark");
+        if (benchmarkQuery != null) {
+            StartupProfile.afterFirstSearch(() -> {
+                System.out.println(StartupProfile.report());
+                System.exit(0);
+            });
+        }
+        CompletableFuture<Boolean> connected = FAST_STARTUP ? Controller.connectOnStartup() : null;
+        if (connected != null && benchmarkQuery != null) {
+            searchWhenConnected(connected, root, benchmarkQuery);
+        }
+        scene.addPostLayoutPulseListener(new Runnable() {
+            private boolean firstFrameDone;
+
+            @Override
+            public void run() {
+                // Removed later, as the listeners are being iterated over right now.
+                Platform.runLater(() -> scene.removePostLayoutPulseListener(this));
+                if (firstFrameDone) {
+                    return;
+                }
+                firstFrameDone = true;
+                StartupProfile.firstFrame();
+                if (FAST_STARTUP) {
+                    // Setting up its flight recorder event takes time, so not before the first
+                    // frame, and its pulse listeners are added after this pulse.
+                    Platform.runLater(() -> startResponsivenessMonitor(scene));
+                }
+                if (benchmarkQuery != null && !FAST_STARTUP) {
+                    searchWhenConnected(Controller.connectOnStartup(), root, benchmarkQuery);
+                }
+            }
+        });
+
         primaryStage.setScene(scene);
         primaryStage.show();
+
+        if (!FAST_STARTUP) {
+            startResponsivenessMonitor(scene);
+        }
+    }
+
+    /**
+     * Stalls are recorded while a flight recording runs, e.g. with
+     * -XX:StartFlightRecording; run with -Dlibrarydb.printStalls=true to also print them.
+     */
+    private static void startResponsivenessMonitor(Scene scene) {
+        new FxResponsivenessMonitor(scene, Long.getLong("librarydb.stallThresholdMillis", 200),
+                Boolean.getBoolean("librarydb.printStalls")).start();
+    }
+
+    private static void searchWhenConnected(CompletableFuture<Boolean> connected, BooksPane root, String query) {
+        connected.thenAccept(ok -> {
+            if (!ok) {
+                System.out.println("Startup benchmark: connect failed");
+                System.exit(1);
+            }
+            Platform.runLater(() -> root.search(query, SearchMode.Title));
+        });
+    }
+
+    /**
+     * A ResilientBooksDb over createBooksDb. The databases it creates to reconnect
+     * share their in-memory indexes with the ones they replace, so a reconnect does
+     * not load them again.
+     */
+    private static ResilientBooksDb resilientBooksDb() {
+        Map<String, CatalogIndexes> indexes = new ConcurrentHashMap<>();
+        return new ResilientBooksDb(() -> createBooksDb(indexes));
+    }
+
+    /**
+     * Create the database access object from system properties. Without properties a
+     * single MySQL server on localhost is used. Setting librarydb.server to the URL of a
+     * CatalogServer makes the client go through that server instead. Setting
+     * librarydb.replicas to a comma separated list of host:port routes searches to those
+     * read replicas and writes to librarydb.primary (default localhost:3306);
+     * librarydb.readYourWritesMillis sets how long after a write reads stay on the primary.
+     * Setting librarydb.shards to a comma separated list of host:port spreads the
+     * catalog over those MySQL servers instead, in the order given.
+     *
+     * @param indexes in-memory indexes per MySQL server address, shared by the
+     *                databases created with the same map
+     */
+    static BooksDbInterface createBooksDb(Map<String, CatalogIndexes> indexes) {
+        String server = System.getProperty("librarydb.server", "").trim();
+        if (!server.isEmpty()) {
+            return new RemoteBooksDb(server);
+        }
+        String shardList = System.getProperty("librarydb.shards", "").trim();
+        if (!shardList.isEmpty()) {
+            List<BooksDbImpl> shards = new ArrayList<>();
+            for (String address : shardList.split(",")) {
+                shards.add(createMySqlDb(address.trim(), indexes));
+            }
+            return new ShardedBooksDb(shards);
+        }
+        BooksDbImpl primary = createMySqlDb(System.getProperty("librarydb.primary", "localhost:3306"), indexes);
+        String replicaList = System.getProperty("librarydb.replicas", "").trim();
+        if (replicaList.isEmpty()) {
+            return primary;
+        }
+        List<Supplier<BooksDbInterface>> replicas = new ArrayList<>();
+        for (String address : replicaList.split(",")) {
+            String replica = address.trim();
+            replicas.add(() -> createMySqlDb(replica, indexes));
+        }
+        long readYourWrites = Long.getLong("librarydb.readYourWritesMillis", 2000);
+        return new RoutingBooksDb(primary, replicas, readYourWrites);
+    }
+
+    private static BooksDbImpl createMySqlDb(String address, Map<String, CatalogIndexes> indexes) {
+        CatalogIndexes shared = indexes.computeIfAbsent(address, a -> new CatalogIndexes());
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            return new BooksDbImpl(address, 3306, shared);
+        }
+        return new BooksDbImpl(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)), shared);
     }
 
     public static void main(String[] args) {
+        StartupProfile.launched();
+        if (FAST_STARTUP && System.getProperty("librarydb.server", "").isBlank()) {
+            // Load the JDBC driver while the FX toolkit starts, so the connect does not have to.
+            Thread preload = new Thread(() -> {
+                try {
+                    BooksDbImpl.loadDriver();
+                } catch (BooksDbException e) {
+                    // The connect loads it again and reports the failure.
+                }
+            }, "driver-preload");
+            preload.setDaemon(true);
+            preload.start();
+        }
         launch(args);
     }
 }
@@ -0,0 +1,209 @@
+package kth.decitong.librarydb.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Client side cache of all authors, for picking authors without querying the
+ * database each time.
+ * <p>
+ * The first refresh loads every author. Later refreshes only fetch authors with a
+ * higher id than any already cached, and a full reload is done once the cache is
+ * old enough to have missed authors added by other clients with lower ids.
+ * Authors are indexed by lower case first and last name in sorted maps, so the
+ * authors whose first or last name starts with a prefix are found without a scan.
+ */
+public class AuthorDirectory {
+    private static final long FULL_RELOAD_NANOS = 10 * 60 * 1_000_000_000L;
+
+    private final BooksDbInterface booksDb;
+    private final Map<Integer, Author> byId = new HashMap<>();
+    /** Keyed by "last\0first\0id", which is also the display order. */
+    private final NavigableMap<String, Author> byLastName = new TreeMap<>();
+    /** Keyed by "first\0id". */
+    private final NavigableMap<String, Author> byFirstName = new TreeMap<>();
+    private int maxId = Integer.MIN_VALUE;
+    private long loadedAt;
+    private boolean loaded;
+
+    /**
+     * One page of a filtered author list.
+     */
+    public static class Page {
+        private final List<Author> authors;
+        private final int offset;
+        private final int total;
+
+        Page(List<Author> authors, int offset, int total) {
+            this.authors = authors;
+            this.offset = offset;
+            this.total = total;
+        }
+
+        public List<Author> getAuthors() { return authors; }
+
+        /** @return index of the first author on this page among all matches */
+        public int getOffset() { return offset; }
+
+        /** @return number of authors matching the filter */
+        public int getTotal() { return total; }
+    }
+
+    public AuthorDirectory(BooksDbInterface booksDb) {
+        this.booksDb = booksDb;
+    }
+
+    /**
+     * Bring the cache up to date: a full load the first time and when the cache is
+     * old, otherwise only the authors added with higher ids. Call this off the FX
+     * thread; lookups keep working on the old contents meanwhile.
+     */
+    public void refresh() throws BooksDbException {
+        boolean full;
+        int after;
+        synchronized (this) {
+            full = !loaded || System.nanoTime() - loadedAt > FULL_RELOAD_NANOS;
+            after = maxId;
+        }
+        if (full) {
+            List<Author> authors = booksDb.getAllAuthors();
+            synchronized (this) {
+                byId.clear();
+                byLastName.clear();
+                byFirstName.clear();
+                maxId = Integer.MIN_VALUE;
+                authors.forEach(this::index);
+                loaded = true;
+                loadedAt = System.nanoTime();
+            }
+        } else {
+            List<Author> authors = booksDb.getAuthorsAfter(after);
+            synchronized (this) {
+                authors.forEach(this::index);
+            }
+        }
+    }
+
+    /**
+     * Add an author this client has just stored.
+     */
+    public synchronized void added(Author author) {
+        index(author);
+    }
+
+    private void index(Author author) {
+        Author old = byId.put(author.getAuthorID(), author);
+        if (old != null) {
+            byLastName.remove(lastNameKey(old));
+            byFirstName.remove(firstNameKey(old));
+        }
+        byLastName.put(lastNameKey(author), author);
+        byFirstName.put(firstNameKey(author), author);
+        maxId = Math.max(maxId, author.getAuthorID());
+    }
+
+    private static String lastNameKey(Author author) {
+        return normalize(author.getLastName()) + '\0' + normalize(author.getFirstName()) + '\0' + author.getAuthorID();
+    }
+
+    private static String firstNameKey(Author author) {
+        return normalize(author.getFirstName()) + '\0' + author.getAuthorID();
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * Find the authors matching a filter, sorted by last name. An author matches if
+     * the first word of the filter starts their first or last name and the other
+     * words occur in their full name. A number matches the author with that id.
+     *
+     * @param filter text typed by the user, empty for all authors
+     * @param offset index of the first match to return
+     * @param limit  max number of authors to return
+     */
+    public synchronized Page find(String filter, int offset, int limit) {
+        String[] words = normalize(filter).split("\\s+");
+        if (words[0].isEmpty()) {
+            List<Author> page = new ArrayList<>(limit);
+            int skipped = 0;
+            for (Author author : byLastName.values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                if (skipped++ >= offset) {
+                    page.add(author);
+                }
+            }
+            return new Page(page, offset, byLastName.size());
+        }
+
+        String prefix = words[0];
+        String end = prefix + Character.MAX_VALUE;
+        // Last name matches come sorted from the index; the rest are few and sorted here.
+        List<Author> byLast = new ArrayList<>(byLastName.subMap(prefix, true, end, false).values());
+        List<Map.Entry<String, Author>> others = new ArrayList<>();
+        for (Author author : byFirstName.subMap(prefix, true, end, false).values()) {
+            if (!normalize(author.getLastName()).startsWith(prefix)) {
+                others.add(Map.entry(lastNameKey(author), author));
+            }
+        }
+        if (words.length == 1 && words[0].chars().allMatch(Character::isDigit) && words[0].length() < 10) {
+            Author author = byId.get(Integer.parseInt(words[0]));
+            if (author != null && !normalize(author.getLastName()).startsWith(prefix)
+                    && !normalize(author.getFirstName()).startsWith(prefix)) {
+                others.add(Map.entry(lastNameKey(author), author));
+            }
+        }
+        others.sort(Map.Entry.comparingByKey());
+
+        List<Author> matches = new ArrayList<>(byLast.size() + others.size());
+        int l = 0;
+        int o = 0;
+        while (l < byLast.size() || o < others.size()) {
+            Author author;
+            if (o == others.size() || l < byLast.size()
+                    && lastNameKey(byLast.get(l)).compareTo(others.get(o).getKey()) < 0) {
+                author = byLast.get(l++);
+            } else {
+                author = others.get(o++).getValue();
+            }
+            if (matchesRest(author, words)) {
+                matches.add(author);
+            }
+        }
+        int from = Math.min(offset, matches.size());
+        int to = Math.min(from + limit, matches.size());
+        return new Page(new ArrayList<>(matches.subList(from, to)), from, matches.size());
+    }
+
+    /**
+     * @return whether every word of the filter after the first occurs in the author's name
+     */
+    private static boolean matchesRest(Author author, String[] words) {
+        if (words.length == 1) {
+            return true;
+        }
+        String name = normalize(author.getFirstName()) + " " + normalize(author.getLastName());
+        for (int i = 1; i < words.length; i++) {
+            if (!name.contains(words[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
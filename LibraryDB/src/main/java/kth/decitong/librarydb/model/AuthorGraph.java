@@ -0,0 +1,360 @@
+package kth.decitong.librarydb.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of the AuthorOfBook table, for going from an author to their books
+ * and co-authors without a join per step.
+ * <p>
+ * Authors and books are numbered densely in id order, and both directions of the
+ * relation are kept in compressed sparse row form: the books of author a are
+ * bookOfAuthor[authorStart[a] .. authorStart[a + 1]), and likewise the authors of a
+ * book. Walking the co-author network is then plain array reads, a breadth-first
+ * search over authors through their books.
+ * <p>
+ * Links added and books removed after the arrays were built are kept beside them:
+ * new authors and books are numbered after the ones in the arrays, added links are
+ * listed per author and per book, and removed books are marked and skipped. Once
+ * there are many such changes the arrays are built again from the graph as it is,
+ * without going to the database.
+ */
+class AuthorGraph {
+    private static final int[] NO_IDS = new int[0];
+    /** Changes kept beside the arrays before they are built again, at least. */
+    private static final int MIN_CHANGES_BEFORE_COMPACT = 1024;
+
+    /** Sorted author ids; an author's number is its index here. */
+    private int[] authorIds;
+    private Author[] authors;
+    private int[] authorStart;
+    /** Book numbers, ascending per author. */
+    private int[] bookOfAuthor;
+    /** Sorted book ids; a book's number is its index here. */
+    private int[] bookIds;
+    private int[] bookStart;
+    /** Author numbers, ascending per book. */
+    private int[] authorOfBook;
+
+    // Changes since the arrays were built.
+    private final List<Author> addedAuthors = new ArrayList<>();
+    private final Map<Integer, Integer> addedAuthorNumbers = new HashMap<>();
+    private final List<Integer> addedBookIds = new ArrayList<>();
+    private final Map<Integer, Integer> addedBookNumbers = new HashMap<>();
+    private final Map<Integer, int[]> addedBooksOf = new HashMap<>();
+    private final Map<Integer, int[]> addedAuthorsOf = new HashMap<>();
+    private final BitSet removedBooks = new BitSet();
+    private int changes;
+
+    /**
+     * Collects authors and links in any order. Links to authors that were not added
+     * are left out.
+     */
+    static class Builder {
+        private final List<Author> authors = new ArrayList<>();
+        private int[] linkAuthorIds = new int[64];
+        private int[] linkBookIds = new int[64];
+        private int links;
+
+        Builder addAuthor(Author author) {
+            authors.add(author);
+            return this;
+        }
+
+        Builder addLink(int authorId, int bookId) {
+            if (links == linkAuthorIds.length) {
+                linkAuthorIds = Arrays.copyOf(linkAuthorIds, links * 2);
+                linkBookIds = Arrays.copyOf(linkBookIds, links * 2);
+            }
+            linkAuthorIds[links] = authorId;
+            linkBookIds[links] = bookId;
+            links++;
+            return this;
+        }
+
+        AuthorGraph build() {
+            return new AuthorGraph(this);
+        }
+    }
+
+    private AuthorGraph(Builder builder) {
+        index(builder);
+    }
+
+    private void index(Builder builder) {
+        List<Author> sorted = new ArrayList<>(builder.authors);
+        sorted.sort((a, b) -> Integer.compare(a.getAuthorID(), b.getAuthorID()));
+        authors = sorted.toArray(new Author[0]);
+        authorIds = new int[authors.length];
+        for (int i = 0; i < authors.length; i++) {
+            authorIds[i] = authors[i].getAuthorID();
+        }
+
+        // Number the links' ends, dropping links to unknown authors.
+        int[] linkAuthors = new int[builder.links];
+        int[] linkBooks = new int[builder.links];
+        int links = 0;
+        for (int i = 0; i < builder.links; i++) {
+            int author = Arrays.binarySearch(authorIds, builder.linkAuthorIds[i]);
+            if (author >= 0) {
+                linkAuthors[links] = author;
+                linkBooks[links] = builder.linkBookIds[i];
+                links++;
+            }
+        }
+        bookIds = Arrays.stream(linkBooks, 0, links).sorted().distinct().toArray();
+        for (int i = 0; i < links; i++) {
+            linkBooks[i] = Arrays.binarySearch(bookIds, linkBooks[i]);
+        }
+
+        authorStart = new int[authorIds.length + 1];
+        bookOfAuthor = new int[links];
+        fill(linkAuthors, linkBooks, links, authorStart, bookOfAuthor);
+        bookStart = new int[bookIds.length + 1];
+        authorOfBook = new int[links];
+        fill(linkBooks, linkAuthors, links, bookStart, authorOfBook);
+
+        addedAuthors.clear();
+        addedAuthorNumbers.clear();
+        addedBookIds.clear();
+        addedBookNumbers.clear();
+        addedBooksOf.clear();
+        addedAuthorsOf.clear();
+        removedBooks.clear();
+        changes = 0;
+    }
+
+    /**
+     * Counting sort of the links by their from end into start and to, with each
+     * row's entries sorted and duplicates left in place.
+     */
+    private static void fill(int[] from, int[] target, int links, int[] start, int[] to) {
+        for (int i = 0; i < links; i++) {
+            start[from[i] + 1]++;
+        }
+        for (int i = 1; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        int[] next = Arrays.copyOf(start, start.length - 1);
+        for (int i = 0; i < links; i++) {
+            to[next[from[i]]++] = target[i];
+        }
+        for (int row = 0; row + 1 < start.length; row++) {
+            Arrays.sort(to, start[row], start[row + 1]);
+        }
+    }
+
+    /**
+     * Record that the author wrote the book.
+     */
+    synchronized void addLink(Author author, int bookId) {
+        int a = authorNumber(author.getAuthorID());
+        if (a < 0) {
+            a = authors.length + addedAuthors.size();
+            addedAuthors.add(new Author(author.getAuthorID(), author.getFirstName(), author.getLastName(),
+                    author.getBirthDate()));
+            addedAuthorNumbers.put(author.getAuthorID(), a);
+        }
+        int b = bookNumber(bookId);
+        if (b < 0) {
+            // A new book, or a new one with the id of a removed book.
+            b = bookIds.length + addedBookIds.size();
+            addedBookIds.add(bookId);
+            addedBookNumbers.put(bookId, b);
+        }
+        append(addedBooksOf, a, b);
+        append(addedAuthorsOf, b, a);
+        changed();
+    }
+
+    /**
+     * Forget a deleted book and its links.
+     */
+    synchronized void removeBook(int bookId) {
+        int b = bookNumber(bookId);
+        if (b >= 0) {
+            removedBooks.set(b);
+            changed();
+        }
+    }
+
+    private static void append(Map<Integer, int[]> lists, int key, int value) {
+        int[] list = lists.get(key);
+        list = list == null ? new int[1] : Arrays.copyOf(list, list.length + 1);
+        list[list.length - 1] = value;
+        lists.put(key, list);
+    }
+
+    private void changed() {
+        changes++;
+        if (changes >= Math.max(MIN_CHANGES_BEFORE_COMPACT, bookOfAuthor.length / 4)) {
+            Builder builder = new Builder();
+            int authorCount = authors.length + addedAuthors.size();
+            for (int a = 0; a < authorCount; a++) {
+                builder.addAuthor(author(a));
+                for (int bookId : liveBooksOf(a)) {
+                    builder.addLink(author(a).getAuthorID(), bookId);
+                }
+            }
+            index(builder);
+        }
+    }
+
+    /**
+     * @return the author's number, or -1 if the author has no books
+     */
+    private int authorNumber(int authorId) {
+        int author = Arrays.binarySearch(authorIds, authorId);
+        return author >= 0 ? author : addedAuthorNumbers.getOrDefault(authorId, -1);
+    }
+
+    /**
+     * @return the book's number, or -1 if the book has no authors or was removed
+     */
+    private int bookNumber(int bookId) {
+        Integer added = addedBookNumbers.get(bookId);
+        int book = added != null ? added : Arrays.binarySearch(bookIds, bookId);
+        return book >= 0 && !removedBooks.get(book) ? book : -1;
+    }
+
+    private Author author(int number) {
+        return number < authors.length ? authors[number] : addedAuthors.get(number - authors.length);
+    }
+
+    private int bookId(int number) {
+        return number < bookIds.length ? bookIds[number] : addedBookIds.get(number - bookIds.length);
+    }
+
+    synchronized int authorCount() {
+        return authors.length + addedAuthors.size();
+    }
+
+    synchronized int linkCount() {
+        int links = 0;
+        for (int a = 0; a < authors.length + addedAuthors.size(); a++) {
+            links += liveBooksOf(a).length;
+        }
+        return links;
+    }
+
+    /**
+     * @return ids of the author's books, ascending; empty for an unknown author
+     */
+    synchronized int[] booksOf(int authorId) {
+        int author = authorNumber(authorId);
+        return author < 0 ? NO_IDS : liveBooksOf(author);
+    }
+
+    /**
+     * @return ids of the books of the author with this number, ascending and distinct
+     */
+    private int[] liveBooksOf(int author) {
+        int from = author < authors.length ? authorStart[author] : 0;
+        int to = author < authors.length ? authorStart[author + 1] : 0;
+        int[] added = addedBooksOf.getOrDefault(author, NO_IDS);
+        int[] ids = new int[to - from + added.length];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (!removedBooks.get(bookOfAuthor[i])) {
+                ids[n++] = bookIds[bookOfAuthor[i]];
+            }
+        }
+        for (int book : added) {
+            if (!removedBooks.get(book)) {
+                ids[n++] = bookId(book);
+            }
+        }
+        return Arrays.stream(ids, 0, n).sorted().distinct().toArray();
+    }
+
+    /**
+     * Breadth-first search of the co-author network.
+     *
+     * @param authorId where to start
+     * @param depth    max number of steps from the author
+     * @return one list per step, the first holding the co-authors, each ordered by last
+     *         name; fewer than depth lists if the network ends sooner
+     */
+    synchronized List<List<Author>> coAuthors(int authorId, int depth) {
+        List<List<Author>> layers = new ArrayList<>();
+        int start = authorNumber(authorId);
+        if (start < 0 || depth < 1) {
+            return layers;
+        }
+        boolean[] seen = new boolean[authors.length + addedAuthors.size()];
+        seen[start] = true;
+        Layer frontier = new Layer();
+        frontier.add(start);
+        Layer next = new Layer();
+        while (layers.size() < depth) {
+            next.size = 0;
+            for (int f = 0; f < frontier.size; f++) {
+                int author = frontier.items[f];
+                if (author < authors.length) {
+                    for (int i = authorStart[author]; i < authorStart[author + 1]; i++) {
+                        addCoAuthors(bookOfAuthor[i], seen, next);
+                    }
+                }
+                for (int book : addedBooksOf.getOrDefault(author, NO_IDS)) {
+                    addCoAuthors(book, seen, next);
+                }
+            }
+            if (next.size == 0) {
+                break;
+            }
+            List<Author> layer = new ArrayList<>(next.size);
+            for (int i = 0; i < next.size; i++) {
+                Author author = author(next.items[i]);
+                layer.add(new Author(author.getAuthorID(), author.getFirstName(), author.getLastName(),
+                        author.getBirthDate()));
+            }
+            layer.sort(null);
+            layers.add(layer);
+            Layer swap = frontier;
+            frontier = next;
+            next = swap;
+        }
+        return layers;
+    }
+
+    /**
+     * Add the authors of a book that have not been seen to the next layer.
+     */
+    private void addCoAuthors(int book, boolean[] seen, Layer next) {
+        if (removedBooks.get(book)) {
+            return;
+        }
+        if (book < bookIds.length) {
+            for (int j = bookStart[book]; j < bookStart[book + 1]; j++) {
+                addUnseen(authorOfBook[j], seen, next);
+            }
+        }
+        for (int coAuthor : addedAuthorsOf.getOrDefault(book, NO_IDS)) {
+            addUnseen(coAuthor, seen, next);
+        }
+    }
+
+    private static void addUnseen(int author, boolean[] seen, Layer next) {
+        if (!seen[author]) {
+            seen[author] = true;
+            next.add(author);
+        }
+    }
+
+    /** Author numbers of one step of the search. */
+    private static class Layer {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int author) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = author;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package kth.decitong.librarydb.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A Burkhard-Keller tree over words, answering "all words within edit distance k"
+ * without comparing the query to every word. Each child edge is labelled with the
+ * Levenshtein distance between parent and child, and the triangle inequality limits
+ * the search to edges labelled d-k..d+k, where d is the distance to the parent.
+ * <p>
+ * Not thread safe, FuzzyIndex guards access.
+ */
+class BkTree {
+    private Node root;
+    private int size;
+
+    private static class Node {
+        private final String word;
+        private int[] distances = new int[0];
+        private Node[] children = new Node[0];
+
+        Node(String word) {
+            this.word = word;
+        }
+
+        Node child(int distance) {
+            for (int i = 0; i < distances.length; i++) {
+                if (distances[i] == distance) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            int n = distances.length;
+            distances = Arrays.copyOf(distances, n + 1);
+            children = Arrays.copyOf(children, n + 1);
+            distances[n] = distance;
+            children[n] = child;
+        }
+    }
+
+    /**
+     * A word found by a search together with its distance to the query.
+     */
+    static class Match {
+        final String word;
+        final int distance;
+
+        Match(String word, int distance) {
+            this.word = word;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * @return false if the word was already in the tree
+     */
+    boolean add(String word) {
+        if (root == null) {
+            root = new Node(word);
+            size++;
+            return true;
+        }
+        Node node = root;
+        while (true) {
+            int d = distance(word, node.word);
+            if (d == 0) {
+                return false;
+            }
+            Node child = node.child(d);
+            if (child == null) {
+                node.addChild(d, new Node(word));
+                size++;
+                return true;
+            }
+            node = child;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    List<Match> search(String query, int maxDistance) {
+        List<Match> matches = new ArrayList<>();
+        if (root == null) {
+            return matches;
+        }
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int d = distance(query, node.word);
+            if (d <= maxDistance) {
+                matches.add(new Match(node.word, d));
+            }
+            for (int i = 0; i < node.distances.length; i++) {
+                if (Math.abs(node.distances[i] - d) <= maxDistance) {
+                    pending.push(node.children[i]);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Levenshtein distance using two rows of the dynamic programming table.
+     */
+    static int distance(String a, String b) {
+        int n = b.length();
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        for (int j = 0; j <= n; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= n; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[n];
+    }
+}
@@ -58,9 +58,21 @@ public class Book implements Comparable<Book>{
         }
     }
 
-    private boolean checkISBN(String isbn) {
-        String regex = "\\d{10}|\\d{13}";
-        return isbn.matches(regex);
+    /**
+     * @return whether the ISBN is 10 or 13 digits; checked by hand, since this runs
+     *         for every book read and String.matches compiles its regex on each call
+     */
+    private static boolean checkISBN(String isbn) {
+        if (isbn == null || isbn.length() != 10 && isbn.length() != 13) {
+            return false;
+        }
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
     private boolean checkRating(int rating){
@@ -0,0 +1,529 @@
+package kth.decitong.librarydb.model;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A search result stored by column instead of as Book objects, for results too
+ * large to hold as one object graph per book.
+ * <p>
+ * Ids, ratings, genres and dates (as epoch days) are kept in primitive arrays, and
+ * ISBNs and titles are UTF-8 encoded back to back into one byte array addressed by
+ * offsets, author names into another. Each distinct author is stored once, and the authors of row i are
+ * {@code authorRefs[authorStart[i]]} up to {@code authorRefs[authorStart[i + 1]]}
+ * (compressed sparse rows). A row costs a few dozen bytes plus its text, against
+ * several hundred for a Book with its Date, author list and strings.
+ * <p>
+ * Books are only created when asked for, one row at a time, e.g. by the rows of a
+ * table that are on screen. A batch is immutable.
+ */
+public final class BookBatch {
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final Genre[] GENRES = Genre.values();
+
+    private final int size;
+    private final int[] bookIds;
+    private final byte[] ratings;
+    private final byte[] genres;
+    private final int[] published;
+    /** ISBN of row i is heap[text[2i]..text[2i+1]), title is heap[text[2i+1]..text[2i+2]). */
+    private final int[] text;
+    private final int[] authorStart;
+    private final int[] authorRefs;
+    private final int authorCount;
+    private final int[] authorIds;
+    private final int[] birthDates;
+    /** First name of author k is nameHeap[names[2k]..names[2k+1]), last name nameHeap[names[2k+1]..names[2k+2]). */
+    private final int[] names;
+    private final byte[] heap;
+    private final byte[] nameHeap;
+
+    private BookBatch(Builder builder, byte[] ratings) {
+        size = builder.size;
+        bookIds = builder.bookIds;
+        this.ratings = ratings;
+        genres = builder.genres;
+        published = builder.published;
+        text = builder.text;
+        authorStart = builder.authorStart;
+        authorRefs = builder.authorRefs;
+        authorCount = builder.authorCount;
+        authorIds = builder.authorIds;
+        birthDates = builder.birthDates;
+        names = builder.names;
+        heap = builder.heap;
+        nameHeap = builder.nameHeap;
+    }
+
+    private BookBatch(BookBatch batch, byte[] ratings) {
+        size = batch.size;
+        bookIds = batch.bookIds;
+        this.ratings = ratings;
+        genres = batch.genres;
+        published = batch.published;
+        text = batch.text;
+        authorStart = batch.authorStart;
+        authorRefs = batch.authorRefs;
+        authorCount = batch.authorCount;
+        authorIds = batch.authorIds;
+        birthDates = batch.birthDates;
+        names = batch.names;
+        heap = batch.heap;
+        nameHeap = batch.nameHeap;
+    }
+
+    /**
+     * Read a batch from a result set with the columns bookID, isbn, title, published,
+     * rating, genre, authorID, firstName, lastName and birthDate, one row per author
+     * of a book (author columns null for a book without authors), ordered by bookID.
+     * Column indexes are looked up once, not per row.
+     */
+    static BookBatch read(ResultSet rs) throws SQLException {
+        int bookIdCol = rs.findColumn("bookID");
+        int isbnCol = rs.findColumn("isbn");
+        int titleCol = rs.findColumn("title");
+        int publishedCol = rs.findColumn("published");
+        int ratingCol = rs.findColumn("rating");
+        int genreCol = rs.findColumn("genre");
+        int authorIdCol = rs.findColumn("authorID");
+        int firstNameCol = rs.findColumn("firstName");
+        int lastNameCol = rs.findColumn("lastName");
+        int birthDateCol = rs.findColumn("birthDate");
+
+        Builder builder = new Builder(64);
+        int lastBookId = 0;
+        boolean first = true;
+        while (rs.next()) {
+            int bookId = rs.getInt(bookIdCol);
+            if (first || bookId != lastBookId) {
+                String genre = rs.getString(genreCol);
+                builder.addBook(bookId, rs.getString(isbnCol), rs.getString(titleCol),
+                        epochDay(rs.getDate(publishedCol)), rs.getInt(ratingCol),
+                        BookRowMapper.genre(genre));
+                lastBookId = bookId;
+                first = false;
+            }
+            int authorId = rs.getInt(authorIdCol);
+            if (!rs.wasNull()) {
+                builder.addAuthor(authorId, rs.getString(firstNameCol), rs.getString(lastNameCol),
+                        epochDay(rs.getDate(birthDateCol)));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Pack books that are already in memory, e.g. from a database that only returns
+     * lists.
+     */
+    public static BookBatch of(Collection<Book> books) {
+        Builder builder = new Builder(books.size());
+        for (Book book : books) {
+            builder.addBook(book.getBookId(), book.getIsbn(), book.getTitle(), epochDay(book.getPublished()),
+                    book.getRating(), book.getGenre());
+            for (Author author : book.getAuthors()) {
+                builder.addAuthor(author.getAuthorID(), author.getFirstName(), author.getLastName(),
+                        epochDay(author.getBirthDate()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Merge batches that are each ordered by book id, e.g. from several shards, into
+     * one batch ordered by book id.
+     */
+    public static BookBatch merge(List<BookBatch> batches) {
+        int total = 0;
+        for (BookBatch batch : batches) {
+            total += batch.size;
+        }
+        Builder builder = new Builder(total);
+        int[] next = new int[batches.size()];
+        for (int n = 0; n < total; n++) {
+            int from = -1;
+            for (int b = 0; b < batches.size(); b++) {
+                if (next[b] < batches.get(b).size && (from < 0
+                        || batches.get(b).bookIds[next[b]] < batches.get(from).bookIds[next[from]])) {
+                    from = b;
+                }
+            }
+            batches.get(from).copyRow(next[from]++, builder);
+        }
+        return builder.build();
+    }
+
+    private void copyRow(int row, Builder builder) {
+        builder.addBook(bookIds[row], getIsbn(row), getTitle(row), published[row], ratings[row], getGenre(row));
+        for (int i = authorStart[row]; i < authorStart[row + 1]; i++) {
+            int k = authorRefs[i];
+            builder.addAuthor(authorIds[k], name(names[2 * k], names[2 * k + 1]),
+                    name(names[2 * k + 1], names[2 * k + 2]), birthDates[k]);
+        }
+    }
+
+    /**
+     * Search a database through its list-returning methods and pack the result.
+     *
+     * @param mode Title, Author, Genre, Rating or ISBN
+     */
+    public static BookBatch search(BooksDbInterface db, SearchMode mode, String query) throws BooksDbException {
+        switch (mode) {
+            case Title:
+                return of(db.searchBooksByTitle(query));
+            case Author:
+                return of(db.searchBooksByAuthor(query));
+            case Genre:
+                return of(db.searchBooksByGenre(query));
+            case Rating:
+                return of(db.searchBooksByRating(parseRating(query)));
+            case ISBN:
+                return of(db.searchBooksByISBN(query));
+            default:
+                throw new IllegalArgumentException("No batch search by " + mode);
+        }
+    }
+
+    static int parseRating(String query) throws BooksDbException {
+        try {
+            return Integer.parseInt(query.trim());
+        } catch (NumberFormatException e) {
+            throw new BooksDbException("Invalid rating: " + query, e);
+        }
+    }
+
+    static int epochDay(java.util.Date date) {
+        if (date == null) {
+            return NO_DATE;
+        }
+        Date sqlDate = date instanceof Date d ? d : new Date(date.getTime());
+        return (int) sqlDate.toLocalDate().toEpochDay();
+    }
+
+    private static Date toDate(int epochDay) {
+        return epochDay == NO_DATE ? null : Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getBookId(int row) {
+        return bookIds[row];
+    }
+
+    public int getRating(int row) {
+        return ratings[row];
+    }
+
+    public Genre getGenre(int row) {
+        return genres[row] < 0 ? null : GENRES[genres[row]];
+    }
+
+    /**
+     * @return publishing date as days since 1970-01-01, or Integer.MIN_VALUE if unknown
+     */
+    public int getPublishedEpochDay(int row) {
+        return published[row];
+    }
+
+    public String getIsbn(int row) {
+        return string(text[2 * row], text[2 * row + 1]);
+    }
+
+    public String getTitle(int row) {
+        return string(text[2 * row + 1], text[2 * row + 2]);
+    }
+
+    public int getAuthorCount(int row) {
+        return authorStart[row + 1] - authorStart[row];
+    }
+
+    private String string(int from, int to) {
+        return new String(heap, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private String name(int from, int to) {
+        return new String(nameHeap, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the book in the given row, with its authors; a new object on each call
+     */
+    public Book getBook(int row) {
+        Book book = new Book(bookIds[row], getIsbn(row), getTitle(row), toDate(published[row]),
+                ratings[row], getGenre(row));
+        for (int i = authorStart[row]; i < authorStart[row + 1]; i++) {
+            int k = authorRefs[i];
+            book.addAuthors(new Author(authorIds[k], name(names[2 * k], names[2 * k + 1]),
+                    name(names[2 * k + 1], names[2 * k + 2]), toDate(birthDates[k])));
+        }
+        return book;
+    }
+
+    /**
+     * @return a batch with new ratings for some books; only the rating column is copied
+     */
+    public BookBatch withRatings(Map<Integer, Integer> newRatings) {
+        byte[] copy = null;
+        for (int row = 0; row < size; row++) {
+            Integer rating = newRatings.get(bookIds[row]);
+            if (rating != null && rating != ratings[row]) {
+                if (copy == null) {
+                    copy = Arrays.copyOf(ratings, size);
+                }
+                copy[row] = (byte) rating.intValue();
+            }
+        }
+        return copy == null ? this : new BookBatch(this, copy);
+    }
+
+    /**
+     * @return approximate heap use of this batch in bytes
+     */
+    public long estimatedBytes() {
+        long arrays = 4L * (bookIds.length + published.length + text.length + authorStart.length
+                + authorRefs.length + authorIds.length + birthDates.length + names.length)
+                + ratings.length + genres.length + heap.length + nameHeap.length;
+        return arrays + 14 * 16 + 64;
+    }
+
+    /**
+     * @return a modifiable list over the batch that creates each Book the first time
+     *         it is read and keeps it, so only books that are looked at are created
+     */
+    public List<Book> asList() {
+        return new BookList(this);
+    }
+
+    private static class BookList extends AbstractList<Book> implements RandomAccess {
+        private final BookBatch batch;
+        /** Batch row of each element, or -1 for a book added to the list. */
+        private int[] rows;
+        private Book[] books;
+        private int size;
+
+        BookList(BookBatch batch) {
+            this.batch = batch;
+            size = batch.size;
+            rows = new int[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = i;
+            }
+            books = new Book[size];
+        }
+
+        @Override
+        public Book get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            Book book = books[index];
+            if (book == null) {
+                book = batch.getBook(rows[index]);
+                books[index] = book;
+            }
+            return book;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Book set(int index, Book book) {
+            Book old = get(index);
+            books[index] = book;
+            rows[index] = -1;
+            return old;
+        }
+
+        @Override
+        public void add(int index, Book book) {
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            if (size == rows.length) {
+                int capacity = Math.max(8, size * 2);
+                rows = Arrays.copyOf(rows, capacity);
+                books = Arrays.copyOf(books, capacity);
+            }
+            System.arraycopy(rows, index, rows, index + 1, size - index);
+            System.arraycopy(books, index, books, index + 1, size - index);
+            rows[index] = -1;
+            books[index] = book;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Book remove(int index) {
+            Book old = get(index);
+            System.arraycopy(rows, index + 1, rows, index, size - index - 1);
+            System.arraycopy(books, index + 1, books, index, size - index - 1);
+            size--;
+            books[size] = null;
+            modCount++;
+            return old;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            System.arraycopy(rows, toIndex, rows, fromIndex, size - toIndex);
+            System.arraycopy(books, toIndex, books, fromIndex, size - toIndex);
+            int newSize = size - (toIndex - fromIndex);
+            Arrays.fill(books, newSize, size, null);
+            size = newSize;
+            modCount++;
+        }
+    }
+
+    /**
+     * Collects rows for a batch. Books are added in order; authors are added after
+     * the book they belong to.
+     */
+    public static class Builder {
+        private int size;
+        private int[] bookIds;
+        private byte[] ratings;
+        private byte[] genres;
+        private int[] published;
+        private int[] text;
+        private int[] authorStart;
+        private int[] authorRefs = new int[16];
+        private int links;
+        private int authorCount;
+        private int[] authorIds = new int[16];
+        private int[] birthDates = new int[16];
+        private int[] names = new int[33];
+        private byte[] heap = new byte[1024];
+        private int heapSize;
+        private byte[] nameHeap = new byte[256];
+        private int nameHeapSize;
+        private final Map<Integer, Integer> authorIndex = new HashMap<>();
+
+        public Builder(int expectedBooks) {
+            int capacity = Math.max(expectedBooks, 8);
+            bookIds = new int[capacity];
+            ratings = new byte[capacity];
+            genres = new byte[capacity];
+            published = new int[capacity];
+            text = new int[2 * capacity + 1];
+            authorStart = new int[capacity + 1];
+        }
+
+        /**
+         * @param published publishing date as an epoch day, or Integer.MIN_VALUE if unknown
+         */
+        public void addBook(int bookId, String isbn, String title, int published, int rating, Genre genre) {
+            if (size == bookIds.length) {
+                int capacity = size * 2;
+                bookIds = Arrays.copyOf(bookIds, capacity);
+                ratings = Arrays.copyOf(ratings, capacity);
+                genres = Arrays.copyOf(genres, capacity);
+                this.published = Arrays.copyOf(this.published, capacity);
+                text = Arrays.copyOf(text, 2 * capacity + 1);
+                authorStart = Arrays.copyOf(authorStart, capacity + 1);
+            }
+            bookIds[size] = bookId;
+            ratings[size] = (byte) rating;
+            genres[size] = (byte) (genre == null ? -1 : genre.ordinal());
+            this.published[size] = published;
+            text[2 * size] = heapSize;
+            appendText(isbn);
+            text[2 * size + 1] = heapSize;
+            appendText(title);
+            text[2 * size + 2] = heapSize;
+            authorStart[size] = links;
+            size++;
+            authorStart[size] = links;
+        }
+
+        /**
+         * Add an author of the book added last.
+         *
+         * @param birthDate birth date as an epoch day, or Integer.MIN_VALUE if unknown
+         */
+        public void addAuthor(int authorId, String firstName, String lastName, int birthDate) {
+            Integer k = authorIndex.get(authorId);
+            if (k == null) {
+                k = authorCount;
+                if (authorCount == authorIds.length) {
+                    authorIds = Arrays.copyOf(authorIds, authorCount * 2);
+                    birthDates = Arrays.copyOf(birthDates, authorCount * 2);
+                    names = Arrays.copyOf(names, authorCount * 4 + 1);
+                }
+                authorIds[k] = authorId;
+                birthDates[k] = birthDate;
+                names[2 * k] = nameHeapSize;
+                appendName(firstName);
+                names[2 * k + 1] = nameHeapSize;
+                appendName(lastName);
+                names[2 * k + 2] = nameHeapSize;
+                authorIndex.put(authorId, k);
+                authorCount++;
+            }
+            if (links == authorRefs.length) {
+                authorRefs = Arrays.copyOf(authorRefs, links * 2);
+            }
+            authorRefs[links++] = k;
+            authorStart[size] = links;
+        }
+
+        private void appendText(String value) {
+            byte[] bytes = utf8(value);
+            heap = ensureCapacity(heap, heapSize + bytes.length);
+            System.arraycopy(bytes, 0, heap, heapSize, bytes.length);
+            heapSize += bytes.length;
+        }
+
+        private void appendName(String value) {
+            byte[] bytes = utf8(value);
+            nameHeap = ensureCapacity(nameHeap, nameHeapSize + bytes.length);
+            System.arraycopy(bytes, 0, nameHeap, nameHeapSize, bytes.length);
+            nameHeapSize += bytes.length;
+        }
+
+        private static byte[] utf8(String value) {
+            return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static byte[] ensureCapacity(byte[] array, int capacity) {
+            return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(array.length * 2, capacity));
+        }
+
+        /**
+         * @return the batch, with its arrays trimmed to size
+         */
+        public BookBatch build() {
+            bookIds = Arrays.copyOf(bookIds, size);
+            ratings = Arrays.copyOf(ratings, size);
+            genres = Arrays.copyOf(genres, size);
+            published = Arrays.copyOf(published, size);
+            text = Arrays.copyOf(text, 2 * size + 1);
+            authorStart = Arrays.copyOf(authorStart, size + 1);
+            authorRefs = Arrays.copyOf(authorRefs, links);
+            authorIds = Arrays.copyOf(authorIds, authorCount);
+            birthDates = Arrays.copyOf(birthDates, authorCount);
+            names = Arrays.copyOf(names, 2 * authorCount + 1);
+            heap = Arrays.copyOf(heap, heapSize);
+            nameHeap = Arrays.copyOf(nameHeap, nameHeapSize);
+            return new BookBatch(this, ratings);
+        }
+    }
+}
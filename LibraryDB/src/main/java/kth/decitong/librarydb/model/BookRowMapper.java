@@ -0,0 +1,81 @@
+package kth.decitong.librarydb.model;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps the rows of a result set with the columns of the Book table to books.
+ * <p>
+ * Column indexes are looked up once per result set, not by name on every row, and
+ * genres are found in a table built once instead of through Genre.valueOf on an
+ * upper cased copy of each value. Authors are not read; see BooksDbImpl.
+ */
+public final class BookRowMapper {
+    private static final Map<String, Genre> GENRES = new HashMap<>();
+
+    static {
+        for (Genre genre : Genre.values()) {
+            GENRES.put(genre.name(), genre);
+            GENRES.put(genre.name().toLowerCase(Locale.ROOT), genre);
+        }
+    }
+
+    private final ResultSet rs;
+    private final int bookIdCol;
+    private final int isbnCol;
+    private final int titleCol;
+    private final int publishedCol;
+    private final int ratingCol;
+    private final int genreCol;
+
+    public BookRowMapper(ResultSet rs) throws SQLException {
+        this.rs = rs;
+        bookIdCol = rs.findColumn("bookID");
+        isbnCol = rs.findColumn("isbn");
+        titleCol = rs.findColumn("title");
+        publishedCol = rs.findColumn("published");
+        ratingCol = rs.findColumn("rating");
+        genreCol = rs.findColumn("genre");
+    }
+
+    /**
+     * @return the book in the current row, without authors
+     * @throws IllegalArgumentException if the row is not a valid book
+     */
+    public Book map() throws SQLException {
+        return new Book(rs.getInt(bookIdCol), rs.getString(isbnCol), rs.getString(titleCol),
+                rs.getDate(publishedCol), rs.getInt(ratingCol), genre(rs.getString(genreCol)));
+    }
+
+    /**
+     * Map the remaining rows.
+     *
+     * @return the books by id, in row order
+     * @throws IllegalArgumentException if a row is not a valid book
+     */
+    public Map<Integer, Book> mapAll() throws SQLException {
+        Map<Integer, Book> byId = new LinkedHashMap<>();
+        while (rs.next()) {
+            Book book = map();
+            byId.put(book.getBookId(), book);
+        }
+        return byId;
+    }
+
+    /**
+     * @param name a genre as stored in the database, in any case
+     * @return the genre, or null for null
+     * @throws IllegalArgumentException if there is no such genre
+     */
+    public static Genre genre(String name) {
+        if (name == null) {
+            return null;
+        }
+        Genre genre = GENRES.get(name);
+        return genre != null ? genre : Genre.valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,13 @@
+package kth.decitong.librarydb.model;
+
+import java.io.IOException;
+
+/**
+ * Receives books one at a time from a streaming read of the catalog,
+ * see BooksDbImpl.streamCatalog.
+ */
+@FunctionalInterface
+public interface BookSink {
+
+    void accept(Book book) throws IOException;
+}
@@ -1,5 +1,11 @@
 package kth.decitong.librarydb.model;
 
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLNonTransientConnectionException;
+
 /**
  * Representing exceptions in the BooksDb model.
  * When a call to the underlying JDBC driver generates a SQLException or
@@ -28,4 +34,29 @@ public class BooksDbException extends Exception {
     public BooksDbException() {
         super();
     }
+
+    /**
+     * Tells if the exception was caused by a lost or refused connection, as opposed to
+     * e.g. a constraint violation, so that callers know whether retrying against
+     * another (or a re-opened) connection makes sense.
+     *
+     * @return true if some cause is a connection level SQLException or an I/O error
+     */
+    public boolean isConnectionFailure() {
+        for (Throwable t = getCause(); t != null; t = t.getCause()) {
+            if (t instanceof IOException
+                    || t instanceof SQLRecoverableException
+                    || t instanceof SQLTransientConnectionException
+                    || t instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && state.startsWith("08")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }
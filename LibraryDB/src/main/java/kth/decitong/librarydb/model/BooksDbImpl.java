@@ -1,8 +1,24 @@
 package kth.decitong.librarydb.model;
 
+import java.io.IOException;
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * A mock implementation of the BooksDBInterface interface to demonstrate how to
@@ -13,27 +29,287 @@ import java.util.List;
  * @author anderslm@kth.se
  */
 public class BooksDbImpl implements BooksDbInterface {
+    /** Max number of ids bound into one IN (...) list or one JDBC batch. */
+    private static final int CHUNK_SIZE = 500;
+    /** Shortest word InnoDB puts in a FULLTEXT index (innodb_ft_min_token_size). */
+    private static final int MIN_FULLTEXT_WORD = 3;
+    /** InnoDB default FULLTEXT stopwords that are long enough to otherwise be used. */
+    private static final Set<String> FULLTEXT_STOPWORDS = Set.of("about", "are", "com", "for", "from",
+            "how", "that", "the", "this", "was", "what", "when", "where", "who", "will", "with", "und", "www");
+
+    /** Give up opening a connection after this long. */
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    /**
+     * Treat the connection as dead if the server sends nothing for this long; a little
+     * over the default write timeout, so a slow statement is cancelled by its own
+     * timeout first.
+     */
+    private static final int SOCKET_TIMEOUT_MILLIS = 35_000;
+    /**
+     * Longest a search waits for the first load of an in-memory index; the load goes on
+     * and a later search uses it.
+     */
+    private static final long INDEX_WAIT_SECONDS = 60;
+
+    private final CatalogIndexes indexes;
+    /** Whether this connection is counted as a user of the indexes. */
+    private boolean usingIndexes;
+    private final IsbnLookup isbnLookup;
     private Connection conn;
-    public BooksDbImpl() {}
+    private String url;
+    private volatile boolean soleWriter;
+    private boolean titleFullText;
+    private boolean authorFullText;
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String pwd;
+    private volatile int readTimeoutSeconds = 10;
+    private volatile int writeTimeoutSeconds = 30;
+
+    public BooksDbImpl() {
+        this("localhost", 3306);
+    }
+
+    /**
+     * @param host MySQL server host
+     * @param port MySQL server port
+     */
+    public BooksDbImpl(String host, int port) {
+        this(host, port, "root", "psyke456SONG");
+    }
+
+    /**
+     * @param host     MySQL server host
+     * @param port     MySQL server port
+     * @param user     database user
+     * @param password password of the user
+     */
+    public BooksDbImpl(String host, int port, String user, String password) {
+        this(host, port, user, password, new CatalogIndexes());
+    }
+
+    /**
+     * @param host    MySQL server host
+     * @param port    MySQL server port
+     * @param indexes in-memory indexes shared with other connections to the same database
+     */
+    public BooksDbImpl(String host, int port, CatalogIndexes indexes) {
+        this(host, port, "root", "psyke456SONG", indexes);
+    }
+
+    private BooksDbImpl(String host, int port, String user, String password, CatalogIndexes indexes) {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.pwd = password;
+        this.indexes = indexes;
+        this.isbnLookup = indexes.isbnLookup;
+    }
+
+    /**
+     * Set how long a single statement may run before the driver cancels it.
+     *
+     * @param readSeconds  timeout for searches
+     * @param writeSeconds timeout for inserts, updates and deletes
+     */
+    public void setQueryTimeouts(int readSeconds, int writeSeconds) {
+        this.readTimeoutSeconds = readSeconds;
+        this.writeTimeoutSeconds = writeSeconds;
+    }
+
+    /**
+     * Declare whether this is the only connection that writes books to the database;
+     * connections that share their CatalogIndexes count as one.
+     * Only then is an ISBN that the ISBN filter has never seen certainly absent, and a
+     * cached book by ISBN certainly current, so only then are the filter and the cache
+     * used; otherwise every ISBN lookup goes to the database. Set before connecting.
+     *
+     * @param soleWriter true if no other client or connection adds books
+     */
+    public void setSoleWriter(boolean soleWriter) {
+        this.soleWriter = soleWriter;
+    }
+
+    private PreparedStatement prepareRead(String sql) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        pstmt.setQueryTimeout(readTimeoutSeconds);
+        return pstmt;
+    }
+
+    private PreparedStatement prepareWrite(String sql) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        pstmt.setQueryTimeout(writeTimeoutSeconds);
+        return pstmt;
+    }
 
     @Override
     public void connect(String database) throws BooksDbException {
-        String server = "jdbc:mysql://localhost:3306/" + database + "?UseClientEnc=UTF8";
-        String user = "root";
-        String pwd = "psyke456SONG";
+        url = "jdbc:mysql://" + host + ":" + port + "/" + database
+                + "?UseClientEnc=UTF8&rewriteBatchedStatements=true"
+                + "&connectTimeout=" + CONNECT_TIMEOUT_MILLIS + "&socketTimeout=" + SOCKET_TIMEOUT_MILLIS;
 
+        loadDriver();
         try{
+            conn = DriverManager.getConnection(url, user, pwd);
+            if (!usingIndexes) {
+                usingIndexes = true;
+                indexes.connected();
+            }
+            checkSchema();
+            refreshIsbnFilter();
+        }catch (SQLException e){
+            throw new BooksDbException("Error connection to database", e);
+        }
+    }
+
+    /**
+     * Load and register the MySQL JDBC driver. Connect does this too; calling it
+     * early, e.g. on a background thread at start up, takes the class loading off
+     * the first connect.
+     */
+    public static void loadDriver() throws BooksDbException {
+        try {
             Class.forName("com.mysql.cj.jdbc.Driver");
-            conn = DriverManager.getConnection(server, user, pwd);
-        } catch (ClassNotFoundException e){
+        } catch (ClassNotFoundException e) {
             throw new BooksDbException("MySQL JDBC driver not found");
-        }catch (SQLException e){
-            throw new BooksDbException("Error connection to database");
         }
     }
 
+    /**
+     * Find out which FULLTEXT indexes the searches can use. This only reads the
+     * schema; the indexes are created once, by createIndexes. If they cannot be read
+     * the searches use plain LIKE predicates.
+     */
+    private void checkSchema() {
+        SchemaBootstrap bootstrap = new SchemaBootstrap(conn);
+        try {
+            bootstrap.verify();
+            titleFullText = bootstrap.hasTitleFullText();
+            authorFullText = bootstrap.hasAuthorFullText();
+        } catch (SQLException e) {
+            titleFullText = false;
+            authorFullText = false;
+        }
+    }
+
+    /**
+     * Create the indexes the searches rely on, if missing. Run once per database, e.g.
+     * with the CreateIndexes tool, not by every client that connects.
+     *
+     * @return names of the indexes that could not be created
+     */
+    public List<String> createIndexes() throws BooksDbException {
+        SchemaBootstrap bootstrap = new SchemaBootstrap(conn);
+        try {
+            bootstrap.run();
+        } catch (SQLException e) {
+            throw new BooksDbException("Error creating indexes", e);
+        }
+        titleFullText = bootstrap.hasTitleFullText();
+        authorFullText = bootstrap.hasAuthorFullText();
+        return bootstrap.getMissingIndexes();
+    }
+
+    /**
+     * Start building the ISBN Bloom filter if this is the sole writer and the filter is
+     * missing or saturated. Until the new filter is ready lookups use the old one, or
+     * go to the database if there is none.
+     */
+    private void refreshIsbnFilter() {
+        if (!soleWriter) {
+            return;
+        }
+        int rebuild = isbnLookup.startRebuild();
+        if (rebuild == 0) {
+            return;
+        }
+        inBackground("isbn-filter-build", loadConn -> {
+            List<String> isbns = new ArrayList<>();
+            try (Statement stmt = loadConn.createStatement()) {
+                stmt.setQueryTimeout(readTimeoutSeconds);
+                ResultSet rs = stmt.executeQuery("SELECT isbn FROM Book");
+                while (rs.next()) {
+                    isbns.add(rs.getString(1));
+                }
+            }
+            isbnLookup.rebuilt(rebuild, isbns);
+        }, e -> isbnLookup.rebuildFailed(rebuild));
+    }
+
+    /**
+     * Load an in-memory index on a daemon thread and a connection of its own, so that
+     * neither the caller nor the queries on this connection wait for it.
+     *
+     * @param load     reads the index through the given connection
+     * @param onFailed called if the connection or the load fails, also with an Error such
+     *                 as running out of memory, so that no one waits for the load forever
+     */
+    private void inBackground(String name, IndexLoad load, Consumer<Throwable> onFailed) {
+        String loadUrl = url;
+        Thread thread = new Thread(() -> {
+            try (Connection loadConn = DriverManager.getConnection(loadUrl, user, pwd)) {
+                load.load(loadConn);
+            } catch (Throwable e) {
+                onFailed.accept(e);
+                if (e instanceof Error error) {
+                    throw error;
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the exception a background load failed with, or the ExecutionException
+     *         itself if the load failed with an Error
+     */
+    private static Exception loadFailure(ExecutionException e) {
+        return e.getCause() instanceof Exception cause ? cause : e;
+    }
+
+    @FunctionalInterface
+    private interface IndexLoad {
+        void load(Connection loadConn) throws SQLException;
+    }
+
+    /**
+     * Build a FULLTEXT boolean mode query that can narrow a LIKE '%search%' predicate
+     * without dropping any of its rows. Only words that follow whitespace in the search
+     * string are used: in every row that contains the search string such a word starts
+     * a token, so the row matches it as a word prefix. The first word may be the end of
+     * a longer token ("olkien" in "Tolkien"), so it is never used.
+     *
+     * @return the query, or null if no word in the search string can be used
+     */
+    private static String fullTextQuery(String search) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < search.length()) {
+            int start = i;
+            while (i < search.length() && Character.isLetterOrDigit(search.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                i++;
+                continue;
+            }
+            String word = search.substring(start, i).toLowerCase();
+            if (start > 0 && Character.isWhitespace(search.charAt(start - 1))
+                    && word.length() >= MIN_FULLTEXT_WORD && !FULLTEXT_STOPWORDS.contains(word)) {
+                sb.append('+').append(word).append("* ");
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString().trim();
+    }
+
     @Override
     public void disconnect() throws BooksDbException {
+        if (usingIndexes) {
+            usingIndexes = false;
+            indexes.disconnected();
+        }
         try {
             if (conn != null && !conn.isClosed()) {
                 conn.close();
@@ -45,218 +321,575 @@ public class BooksDbImpl implements BooksDbInterface {
 
     @Override
     public List<Book> searchBooksByTitle(String searchTitle) throws BooksDbException {
-        List<Book> result = new ArrayList<>();
-        String sql = "SELECT * FROM Book WHERE LOWER(title) LIKE ?";
+        String match = titleFullText ? fullTextQuery(searchTitle) : null;
+        String sql = match == null
+                ? "SELECT * FROM Book WHERE title LIKE ?"
+                : "SELECT * FROM Book WHERE MATCH(title) AGAINST (? IN BOOLEAN MODE) AND title LIKE ?";
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, "%" + searchTitle.toLowerCase() + "%");
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                int bookId = rs.getInt("bookID");
-                String isbn = rs.getString("isbn");
-                String title = rs.getString("title");
-                Date published = rs.getDate("published");
-                int rating = rs.getInt("rating");
-                String genreStr = rs.getString("genre");
-                Genre genre = Genre.valueOf(genreStr.toUpperCase());
-
-                Book book = new Book(bookId, isbn, title, published, rating, genre);
-
-                List<Author> authors = getAuthorsForBook(bookId);
-                for (Author author : authors) {
-                    book.addAuthors(author);
-                }
-
-                result.add(book);
+        try (PreparedStatement pstmt = prepareRead(sql)) {
+            int i = 1;
+            if (match != null) {
+                pstmt.setString(i++, match);
             }
+            pstmt.setString(i, "%" + searchTitle + "%");
+            return readBooks(pstmt.executeQuery());
         } catch (SQLException e) {
             throw new BooksDbException("Error fetching books by title", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
         }
-        return result;
     }
 
     @Override
     public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
-        ArrayList<Book> books = new ArrayList<>();
-        String sql = "SELECT Book.* FROM Book " +
+        String match = authorFullText ? fullTextQuery(authorName) : null;
+        String sql = "SELECT DISTINCT Book.* FROM Book " +
                 "INNER JOIN AuthorOfBook ON Book.bookID = AuthorOfBook.bookID " +
                 "INNER JOIN Author ON AuthorOfBook.authorID = Author.authorID " +
-                "WHERE LOWER(Author.firstName) LIKE ? OR LOWER(Author.lastName) LIKE ?";
+                "WHERE " + (match == null ? "" : "MATCH(Author.firstName, Author.lastName) AGAINST (? IN BOOLEAN MODE) AND ") +
+                "(Author.firstName LIKE ? OR Author.lastName LIKE ?)";
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, "%" + authorName.toLowerCase() + "%");
-            pstmt.setString(2, "%" + authorName.toLowerCase() + "%");
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                int bookId = rs.getInt("bookID");
-                String isbn = rs.getString("isbn");
-                String title = rs.getString("title");
-                Date published = rs.getDate("published");
-                int rating = rs.getInt("rating");
-                String genreStr = rs.getString("genre");
-                Genre genre = Genre.valueOf(genreStr.toUpperCase());
-
-                Book book = new Book(bookId, isbn, title, published, rating, genre);
-
-                List<Author> authors = getAuthorsForBook(bookId);
-                for (Author author : authors) {
-                    book.addAuthors(author);
-                }
-
-                books.add(book);
+        try (PreparedStatement pstmt = prepareRead(sql)) {
+            int i = 1;
+            if (match != null) {
+                pstmt.setString(i++, match);
             }
+            pstmt.setString(i++, "%" + authorName + "%");
+            pstmt.setString(i, "%" + authorName + "%");
+            return readBooks(pstmt.executeQuery());
         } catch (SQLException e) {
             throw new BooksDbException("Error fetching books by author", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
         }
-        return books;
     }
 
 
     @Override
     public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
-        ArrayList<Book> books = new ArrayList<>();
-        String sql = "SELECT * FROM Book WHERE LOWER(genre) = ?";
+        String sql = "SELECT * FROM Book WHERE genre = ?";
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, genre.toLowerCase());
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                int bookId = rs.getInt("bookID");
-                String isbn = rs.getString("isbn");
-                String title = rs.getString("title");
-                Date published = rs.getDate("published");
-                int rating = rs.getInt("rating");
-                String genreStr = rs.getString("genre");
-                Genre genreEnum = Genre.valueOf(genreStr.toUpperCase());
-
-                Book book = new Book(bookId, isbn, title, published, rating, genreEnum);
-
-                List<Author> authors = getAuthorsForBook(bookId);
-                for (Author author : authors) {
-                    book.addAuthors(author);
-                }
-
-                books.add(book);
-            }
+        try (PreparedStatement pstmt = prepareRead(sql)) {
+            pstmt.setString(1, genre.toUpperCase());
+            return readBooks(pstmt.executeQuery());
         } catch (SQLException e) {
             throw new BooksDbException("Error fetching books by genre", e);
         } catch (IllegalArgumentException e) {
             throw new BooksDbException("Error with genre enum value", e);
         }
-        return books;
     }
 
     @Override
     public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
-        ArrayList<Book> books = new ArrayList<>();
         String sql = "SELECT * FROM Book WHERE rating = ?";
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = prepareRead(sql)) {
             pstmt.setInt(1, rating);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                int bookId = rs.getInt("bookID");
-                String isbn = rs.getString("isbn");
-                String title = rs.getString("title");
-                Date published = rs.getDate("published");
-                rating = rs.getInt("rating");
-                String genreStr = rs.getString("genre");
-                Genre genre = Genre.valueOf(genreStr.toUpperCase());
-
-                Book book = new Book(bookId, isbn, title, published, rating, genre);
-
-                List<Author> authors = getAuthorsForBook(bookId);
-                for (Author author : authors) {
-                    book.addAuthors(author);
-                }
-
-                books.add(book);
-            }
+            return readBooks(pstmt.executeQuery());
         } catch (SQLException e) {
             throw new BooksDbException("Error fetching books by rating", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
         }
-        return books;
     }
 
+    /**
+     * With a genre, a range on idx_book_genre_published, which also returns the rows in
+     * date order; otherwise a range on idx_book_published. The rating filter is applied
+     * to the rows in the range.
+     */
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        String sql = "SELECT * FROM Book WHERE published BETWEEN ? AND ?"
+                + (genre == null ? "" : " AND genre = ?")
+                + (rating == 0 ? "" : " AND rating = ?")
+                + " ORDER BY published, bookID";
+        try (PreparedStatement pstmt = prepareRead(sql)) {
+            int param = 1;
+            pstmt.setDate(param++, java.sql.Date.valueOf(from));
+            pstmt.setDate(param++, java.sql.Date.valueOf(to));
+            if (genre != null) {
+                pstmt.setString(param++, genre.name());
+            }
+            if (rating != 0) {
+                pstmt.setInt(param, rating);
+            }
+            return readBooks(pstmt.executeQuery());
+        } catch (SQLException e) {
+            throw new BooksDbException("Error fetching books by publication date", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
+        }
+    }
 
     @Override
     public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
         ArrayList<Book> books = new ArrayList<>();
+        refreshIsbnFilter();
+        if (soleWriter && !isbnLookup.mightContain(ISBN)) {
+            return books;
+        }
+        Book cached = soleWriter ? isbnLookup.getCached(ISBN) : null;
+        if (cached != null) {
+            books.add(cached);
+            return books;
+        }
         String sql = "SELECT * FROM Book WHERE isbn = ?";
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = prepareRead(sql)) {
             pstmt.setString(1, ISBN);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                int bookId = rs.getInt("bookID");
-                String isbn = rs.getString("isbn");
-                String title = rs.getString("title");
-                Date published = rs.getDate("published");
-                int rating = rs.getInt("rating");
-                String genreStr = rs.getString("genre");
-                Genre genre = Genre.valueOf(genreStr.toUpperCase());
-
-                Book book = new Book(bookId, isbn, title, published, rating, genre);
-
-                List<Author> authors = getAuthorsForBook(bookId);
-                for (Author author : authors) {
-                    book.addAuthors(author);
+            for (Book book : readBooks(pstmt.executeQuery())) {
+                if (soleWriter) {
+                    isbnLookup.cache(book);
                 }
-
                 books.add(book);
             }
         } catch (SQLException e) {
             throw new BooksDbException("Error fetching books by ISBN", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
         }
         return books;
     }
 
 
+    /**
+     * The score is computed, ordered by and limited in SQL, so only the top rows are
+     * transferred and only their authors are fetched.
+     */
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        String match = titleFullText ? fullTextQuery(query) : null;
+        String sql = "SELECT *, " + RankedSearch.sqlScore() + " AS score FROM Book WHERE " +
+                (match == null ? "" : "MATCH(title) AGAINST (? IN BOOLEAN MODE) AND ") +
+                "title LIKE ? ORDER BY score DESC, title, bookID LIMIT ?";
+
+        Map<Integer, Book> byId = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = prepareRead(sql)) {
+            int i = 1;
+            pstmt.setString(i++, query);
+            pstmt.setString(i++, query + "%");
+            if (match != null) {
+                pstmt.setString(i++, match);
+            }
+            pstmt.setString(i++, "%" + query + "%");
+            pstmt.setInt(i, limit);
+            byId.putAll(new BookRowMapper(pstmt.executeQuery()).mapAll());
+            attachAuthors(byId);
+        } catch (SQLException e) {
+            throw new BooksDbException("Error fetching ranked books", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
+        }
+        return new ArrayList<>(byId.values());
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        Map<Integer, Integer> distances = fuzzyIndex().search(query, limit);
+        try {
+            Map<Integer, Book> byId = fetchBooksByIds(distances.keySet());
+            List<Book> result = new ArrayList<>(byId.values());
+            result.sort(Comparator.comparing((Book book) -> distances.get(book.getBookId()))
+                    .thenComparing(Comparator.naturalOrder()));
+            return result;
+        } catch (SQLException e) {
+            throw new BooksDbException("Error fetching books by fuzzy search", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the fuzzy search dictionary; the first call waits for it to be loaded
+     */
+    private FuzzyIndex fuzzyIndex() throws BooksDbException {
+        try {
+            return indexes.fuzzyIndex(this::loadFuzzyIndex).get(INDEX_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new BooksDbException("Error building fuzzy search index", loadFailure(e));
+        } catch (TimeoutException e) {
+            throw new BooksDbException("Fuzzy search index not ready, try again later", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BooksDbException("Interrupted while building fuzzy search index", e);
+        }
+    }
+
+    private CompletableFuture<FuzzyIndex> loadFuzzyIndex() {
+        CompletableFuture<FuzzyIndex> loaded = new CompletableFuture<>();
+        inBackground("fuzzy-index-build", loadConn -> {
+            FuzzyIndex index = new FuzzyIndex();
+            try (Statement stmt = loadConn.createStatement()) {
+                stmt.setQueryTimeout(readTimeoutSeconds);
+                ResultSet rs = stmt.executeQuery("SELECT bookID, title FROM Book");
+                while (rs.next()) {
+                    index.add(rs.getInt(1), rs.getString(2));
+                }
+                rs = stmt.executeQuery("SELECT AuthorOfBook.bookID, Author.firstName, Author.lastName " +
+                        "FROM AuthorOfBook INNER JOIN Author ON Author.authorID = AuthorOfBook.authorID");
+                while (rs.next()) {
+                    index.add(rs.getInt(1), rs.getString(2) + " " + rs.getString(3));
+                }
+            }
+            loaded.complete(index);
+        }, loaded::completeExceptionally);
+        return loaded;
+    }
+
+    /**
+     * @return the books with the given ids, with authors, in the order of the ids
+     */
+    private Map<Integer, Book> fetchBooksByIds(Collection<Integer> bookIds) throws SQLException {
+        Map<Integer, Book> byId = new LinkedHashMap<>();
+        for (Integer bookId : bookIds) {
+            byId.put(bookId, null);
+        }
+        int[] ids = bookIds.stream().mapToInt(Integer::intValue).toArray();
+        for (int from = 0; from < ids.length; from += CHUNK_SIZE) {
+            int[] chunk = Arrays.copyOfRange(ids, from, Math.min(from + CHUNK_SIZE, ids.length));
+            try (PreparedStatement pstmt = prepareRead(
+                    "SELECT * FROM Book WHERE bookID IN (" + placeholders(chunk.length) + ")")) {
+                bindIds(pstmt, chunk);
+                byId.putAll(new BookRowMapper(pstmt.executeQuery()).mapAll());
+            }
+        }
+        byId.values().removeIf(book -> book == null);
+        attachAuthors(byId);
+        return byId;
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        Map<String, Book> found = new LinkedHashMap<>();
+        refreshIsbnFilter();
+        List<String> toFetch = new ArrayList<>();
+        for (String isbn : isbns) {
+            if (found.containsKey(isbn) || soleWriter && !isbnLookup.mightContain(isbn)) {
+                continue;
+            }
+            Book cached = soleWriter ? isbnLookup.getCached(isbn) : null;
+            if (cached != null) {
+                found.put(isbn, cached);
+            } else {
+                toFetch.add(isbn);
+            }
+        }
+        toFetch = new ArrayList<>(new LinkedHashSet<>(toFetch));
+
+        try {
+            for (int from = 0; from < toFetch.size(); from += CHUNK_SIZE) {
+                List<String> chunk = toFetch.subList(from, Math.min(from + CHUNK_SIZE, toFetch.size()));
+                Map<Integer, Book> byId = new LinkedHashMap<>();
+                try (PreparedStatement pstmt = prepareRead(
+                        "SELECT * FROM Book WHERE isbn IN (" + placeholders(chunk.size()) + ")")) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        pstmt.setString(i + 1, chunk.get(i));
+                    }
+                    byId.putAll(new BookRowMapper(pstmt.executeQuery()).mapAll());
+                }
+                attachAuthors(byId);
+                for (Book book : byId.values()) {
+                    if (soleWriter) {
+                        isbnLookup.cache(book);
+                    }
+                    found.put(book.getIsbn(), book);
+                }
+            }
+        } catch (SQLException e) {
+            throw new BooksDbException("Error fetching books by ISBN", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
+        }
+        return found;
+    }
+
+    /**
+     * @return the books in the remaining rows of a result set over the Book table,
+     *         with their authors, in row order
+     */
+    private ArrayList<Book> readBooks(ResultSet rs) throws SQLException {
+        Map<Integer, Book> byId = new BookRowMapper(rs).mapAll();
+        attachAuthors(byId);
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Add the authors of each book with one query per chunk of books instead of one per book.
+     */
+    private void attachAuthors(Map<Integer, Book> booksById) throws SQLException {
+        int[] ids = booksById.keySet().stream().mapToInt(Integer::intValue).toArray();
+        Map<Integer, Author> authorsById = new HashMap<>();
+        for (int from = 0; from < ids.length; from += CHUNK_SIZE) {
+            int[] chunk = Arrays.copyOfRange(ids, from, Math.min(from + CHUNK_SIZE, ids.length));
+            String sql = "SELECT AuthorOfBook.bookID, Author.* FROM AuthorOfBook " +
+                    "INNER JOIN Author ON Author.authorID = AuthorOfBook.authorID " +
+                    "WHERE AuthorOfBook.bookID IN (" + placeholders(chunk.length) + ")";
+            try (PreparedStatement pstmt = prepareRead(sql)) {
+                bindIds(pstmt, chunk);
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    int authorID = rs.getInt("authorID");
+                    Author author = authorsById.get(authorID);
+                    if (author == null) {
+                        author = new Author(authorID, rs.getString("firstName"),
+                                rs.getString("lastName"), rs.getDate("birthDate"));
+                        authorsById.put(authorID, author);
+                    }
+                    booksById.get(rs.getInt(1)).addAuthors(author);
+                }
+            }
+        }
+    }
+
     @Override
     public void deleteBook(int bookID) throws BooksDbException {
+        isbnLookup.evict(List.of(bookID));
         try {
             String sqlDeleteAuthorOfBook = "DELETE FROM AuthorOfBook WHERE bookID = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(sqlDeleteAuthorOfBook)) {
+            try (PreparedStatement pstmt = prepareWrite(sqlDeleteAuthorOfBook)) {
                 pstmt.setInt(1, bookID);
                 pstmt.executeUpdate();
             }
 
             String sqlDeleteBook = "DELETE FROM Book WHERE bookID = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(sqlDeleteBook)) {
+            try (PreparedStatement pstmt = prepareWrite(sqlDeleteBook)) {
                 pstmt.setInt(1, bookID);
                 int rowsAffected = pstmt.executeUpdate();
                 if (rowsAffected == 0) {
                     throw new BooksDbException("No book found with ID: " + bookID);
                 }
             }
+            indexes.changeFuzzyIndex(index -> index.remove(bookID));
+            indexes.changeAuthorGraph(graph -> graph.removeBook(bookID));
         } catch (SQLException e) {
             throw new BooksDbException("Error deleting book from database", e);
         }
     }
 
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        Map<Integer, Boolean> outcome = new LinkedHashMap<>();
+        for (int bookID : bookIDs) {
+            outcome.put(bookID, false);
+        }
+        if (outcome.isEmpty()) {
+            return outcome;
+        }
+        int[] ids = outcome.keySet().stream().mapToInt(Integer::intValue).toArray();
+        isbnLookup.evict(outcome.keySet());
+
+        try {
+            conn.setAutoCommit(false);
+            try {
+                for (int from = 0; from < ids.length; from += CHUNK_SIZE) {
+                    int[] chunk = Arrays.copyOfRange(ids, from, Math.min(from + CHUNK_SIZE, ids.length));
+                    String in = placeholders(chunk.length);
+
+                    try (PreparedStatement pstmt = prepareWrite(
+                            "SELECT bookID FROM Book WHERE bookID IN (" + in + ") FOR UPDATE")) {
+                        bindIds(pstmt, chunk);
+                        ResultSet rs = pstmt.executeQuery();
+                        while (rs.next()) {
+                            outcome.put(rs.getInt(1), true);
+                        }
+                    }
+                    try (PreparedStatement pstmt = prepareWrite(
+                            "DELETE FROM AuthorOfBook WHERE bookID IN (" + in + ")")) {
+                        bindIds(pstmt, chunk);
+                        pstmt.executeUpdate();
+                    }
+                    try (PreparedStatement pstmt = prepareWrite(
+                            "DELETE FROM Book WHERE bookID IN (" + in + ")")) {
+                        bindIds(pstmt, chunk);
+                        pstmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new BooksDbException("Error deleting books from database", e);
+        }
+        indexes.changeFuzzyIndex(index -> outcome.forEach((bookID, deleted) -> {
+            if (deleted) {
+                index.remove(bookID);
+            }
+        }));
+        indexes.changeAuthorGraph(graph -> outcome.forEach((bookID, deleted) -> {
+            if (deleted) {
+                graph.removeBook(bookID);
+            }
+        }));
+        return outcome;
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        Map<Integer, Boolean> outcome = new LinkedHashMap<>();
+        List<Map.Entry<Integer, Integer>> valid = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : ratings.entrySet()) {
+            outcome.put(entry.getKey(), false);
+            Integer rating = entry.getValue();
+            if (rating != null && rating >= 1 && rating <= 5) {
+                valid.add(entry);
+            }
+        }
+        if (valid.isEmpty()) {
+            return outcome;
+        }
+        isbnLookup.evict(ratings.keySet());
+
+        String sql = "UPDATE Book SET rating = ? WHERE bookID = ?";
+        try {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = prepareWrite(sql)) {
+                for (int from = 0; from < valid.size(); from += CHUNK_SIZE) {
+                    List<Map.Entry<Integer, Integer>> chunk =
+                            valid.subList(from, Math.min(from + CHUNK_SIZE, valid.size()));
+                    for (Map.Entry<Integer, Integer> entry : chunk) {
+                        pstmt.setInt(1, entry.getValue());
+                        pstmt.setInt(2, entry.getKey());
+                        pstmt.addBatch();
+                    }
+                    int[] counts = pstmt.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        boolean updated = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+                        outcome.put(chunk.get(i).getKey(), updated);
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new BooksDbException("Error updating book ratings in database", e);
+        }
+        return outcome;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static void bindIds(PreparedStatement pstmt, int[] ids) throws SQLException {
+        for (int i = 0; i < ids.length; i++) {
+            pstmt.setInt(i + 1, ids[i]);
+        }
+    }
+
     @Override
     public void addBook(Book book) throws BooksDbException {
         try {
-            String sqlBook = "INSERT INTO Book (isbn, bookID, title, published, rating, genre) VALUES (?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmtBook = conn.prepareStatement(sqlBook)) {
-                pstmtBook.setString(1, book.getIsbn());
-                pstmtBook.setInt(2, book.getBookId());
-                pstmtBook.setString(3, book.getTitle());
-                pstmtBook.setDate(4, new java.sql.Date(book.getPublished().getTime()));
-                pstmtBook.setInt(5, book.getRating());
-                pstmtBook.setString(6, String.valueOf(book.getGenre()));
-                pstmtBook.executeUpdate();
+            insertBook(book);
+            isbnLookup.added(book);
+            indexes.changeFuzzyIndex(index -> index.add(book.getBookId(), book.getTitle()));
+        } catch (SQLException e) {
+            throw new BooksDbException("Error adding book to database", e);
+        }
+    }
+
+    /**
+     * Add a book and link it to its authors in one transaction, so that a failure
+     * leaves neither the book nor some of its links behind.
+     *
+     * @return false, with nothing added, if a book with the book's id already exists
+     */
+    public boolean addBookWithAuthors(Book book) throws BooksDbException {
+        try {
+            conn.setAutoCommit(false);
+            try {
+                insertBook(book);
+                for (Author author : book.getAuthors()) {
+                    try (PreparedStatement pstmt = prepareWrite(
+                            "INSERT INTO AuthorOfBook (authorID, bookID) VALUES (?, ?)")) {
+                        pstmt.setInt(1, author.getAuthorID());
+                        pstmt.setInt(2, book.getBookId());
+                        pstmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLIntegrityConstraintViolationException e) {
+            if (bookExists(book.getBookId())) {
+                return false;
             }
+            throw new BooksDbException("Error adding book to database", e);
         } catch (SQLException e) {
             throw new BooksDbException("Error adding book to database", e);
         }
+        isbnLookup.added(book);
+        indexes.changeFuzzyIndex(index -> {
+            index.add(book.getBookId(), book.getTitle());
+            for (Author author : book.getAuthors()) {
+                index.add(book.getBookId(), author.getFirstName() + " " + author.getLastName());
+            }
+        });
+        indexes.changeAuthorGraph(graph -> {
+            for (Author author : book.getAuthors()) {
+                graph.addLink(author, book.getBookId());
+            }
+        });
+        return true;
+    }
+
+    private void insertBook(Book book) throws SQLException {
+        String sqlBook = "INSERT INTO Book (isbn, bookID, title, published, rating, genre) VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmtBook = prepareWrite(sqlBook)) {
+            pstmtBook.setString(1, book.getIsbn());
+            pstmtBook.setInt(2, book.getBookId());
+            pstmtBook.setString(3, book.getTitle());
+            if (book.getPublished() == null) {
+                pstmtBook.setNull(4, Types.DATE);
+            } else {
+                pstmtBook.setDate(4, new java.sql.Date(book.getPublished().getTime()));
+            }
+            pstmtBook.setInt(5, book.getRating());
+            pstmtBook.setString(6, String.valueOf(book.getGenre()));
+            pstmtBook.executeUpdate();
+        }
+    }
+
+    private boolean bookExists(int bookID) throws BooksDbException {
+        try (PreparedStatement pstmt = prepareRead("SELECT 1 FROM Book WHERE bookID = ?")) {
+            pstmt.setInt(1, bookID);
+            return pstmt.executeQuery().next();
+        } catch (SQLException e) {
+            throw new BooksDbException("Error looking up book", e);
+        }
+    }
+
+    /**
+     * @return the highest book id in the catalog, or 0 if it is empty
+     */
+    public int getMaxBookId() throws BooksDbException {
+        try (PreparedStatement pstmt = prepareRead("SELECT COALESCE(MAX(bookID), 0) FROM Book")) {
+            ResultSet rs = pstmt.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            throw new BooksDbException("Error fetching the highest book id", e);
+        }
     }
 
     @Override
     public void addAuthor(Author author) throws BooksDbException {
         String sql = "INSERT INTO Author (authorID, firstName, lastName, birthDate) VALUES (?, ?, ?, ?)";
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = prepareWrite(sql)) {
             pstmt.setInt(1, author.getAuthorID());
             pstmt.setString(2, author.getFirstName());
             pstmt.setString(3, author.getLastName());
@@ -270,10 +903,14 @@ public class BooksDbImpl implements BooksDbInterface {
     @Override
     public void addAuthorToBook(Author author, Book book) throws BooksDbException {
         String sql = "INSERT INTO AuthorOfBook (authorID, bookID) VALUES (?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = prepareWrite(sql)) {
             pstmt.setInt(1, author.getAuthorID());
             pstmt.setInt(2, book.getBookId());
             pstmt.executeUpdate();
+            isbnLookup.evict(List.of(book.getBookId()));
+            indexes.changeAuthorGraph(graph -> graph.addLink(author, book.getBookId()));
+            String name = author.getFirstName() + " " + author.getLastName();
+            indexes.changeFuzzyIndex(index -> index.add(book.getBookId(), name));
         } catch (SQLException e) {
             System.out.println("no author");
             throw new BooksDbException("Error linking author to book in database", e);
@@ -285,7 +922,7 @@ public class BooksDbImpl implements BooksDbInterface {
         List<Author> authors = new ArrayList<>();
         String sql = "SELECT Author.* FROM Author INNER JOIN AuthorOfBook ON Author.authorID = AuthorOfBook.authorID WHERE AuthorOfBook.bookID = ?";
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = prepareRead(sql)) {
             pstmt.setInt(1, bookID);
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
@@ -307,7 +944,7 @@ public class BooksDbImpl implements BooksDbInterface {
     public List<Author> getAllAuthors() throws BooksDbException {
         List<Author> authors = new ArrayList<>();
         String sql = "SELECT * FROM Author";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = prepareRead(sql)) {
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
                 int authorID = rs.getInt("authorID");
@@ -322,4 +959,186 @@ public class BooksDbImpl implements BooksDbInterface {
         return authors;
     }
 
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        int[] bookIds = authorGraph().booksOf(authorID);
+        try {
+            return new ArrayList<>(fetchBooksByIds(Arrays.stream(bookIds).boxed().toList()).values());
+        } catch (SQLException e) {
+            throw new BooksDbException("Error fetching books by author", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        return authorGraph().coAuthors(authorID, depth);
+    }
+
+    /**
+     * @return the author graph; the first call waits for it to be loaded
+     */
+    private AuthorGraph authorGraph() throws BooksDbException {
+        try {
+            return indexes.authorGraph(this::loadAuthorGraph).get(INDEX_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new BooksDbException("Error building author graph", loadFailure(e));
+        } catch (TimeoutException e) {
+            throw new BooksDbException("Author graph not ready, try again later", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BooksDbException("Interrupted while building author graph", e);
+        }
+    }
+
+    private CompletableFuture<AuthorGraph> loadAuthorGraph() {
+        CompletableFuture<AuthorGraph> loaded = new CompletableFuture<>();
+        inBackground("author-graph-build", loadConn -> {
+            AuthorGraph.Builder builder = new AuthorGraph.Builder();
+            try (Statement stmt = loadConn.createStatement()) {
+                stmt.setQueryTimeout(readTimeoutSeconds);
+                ResultSet rs = stmt.executeQuery("SELECT authorID, firstName, lastName, birthDate FROM Author");
+                while (rs.next()) {
+                    builder.addAuthor(new Author(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getDate(4)));
+                }
+                rs = stmt.executeQuery("SELECT authorID, bookID FROM AuthorOfBook");
+                while (rs.next()) {
+                    builder.addLink(rs.getInt(1), rs.getInt(2));
+                }
+            }
+            loaded.complete(builder.build());
+        }, loaded::completeExceptionally);
+        return loaded;
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        List<Author> authors = new ArrayList<>();
+        String sql = "SELECT * FROM Author WHERE authorID > ? ORDER BY authorID";
+        try (PreparedStatement pstmt = prepareRead(sql)) {
+            pstmt.setInt(1, authorID);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                authors.add(new Author(rs.getInt("authorID"), rs.getString("firstName"),
+                        rs.getString("lastName"), rs.getDate("birthDate")));
+            }
+        } catch (SQLException e) {
+            throw new BooksDbException("Error fetching authors", e);
+        }
+        return authors;
+    }
+
+    /**
+     * Runs one query that joins the matching books with their authors, ordered by
+     * bookID, and packs the rows straight from the result set into the batch.
+     */
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        List<String> params = new ArrayList<>();
+        String where;
+        switch (mode) {
+            case Title: {
+                String match = titleFullText ? fullTextQuery(query) : null;
+                where = (match == null ? "" : "MATCH(b.title) AGAINST (? IN BOOLEAN MODE) AND ") + "b.title LIKE ?";
+                if (match != null) {
+                    params.add(match);
+                }
+                params.add("%" + query + "%");
+                break;
+            }
+            case Author: {
+                String match = authorFullText ? fullTextQuery(query) : null;
+                where = "b.bookID IN (SELECT ab2.bookID FROM AuthorOfBook ab2 " +
+                        "INNER JOIN Author a2 ON a2.authorID = ab2.authorID WHERE " +
+                        (match == null ? "" : "MATCH(a2.firstName, a2.lastName) AGAINST (? IN BOOLEAN MODE) AND ") +
+                        "(a2.firstName LIKE ? OR a2.lastName LIKE ?))";
+                if (match != null) {
+                    params.add(match);
+                }
+                params.add("%" + query + "%");
+                params.add("%" + query + "%");
+                break;
+            }
+            case Genre:
+                where = "b.genre = ?";
+                params.add(query.toUpperCase());
+                break;
+            case Rating:
+                where = "b.rating = ?";
+                params.add(String.valueOf(BookBatch.parseRating(query)));
+                break;
+            case ISBN:
+                where = "b.isbn = ?";
+                params.add(query);
+                break;
+            default:
+                throw new IllegalArgumentException("No batch search by " + mode);
+        }
+        String sql = "SELECT b.bookID, b.isbn, b.title, b.published, b.rating, b.genre, " +
+                "a.authorID, a.firstName, a.lastName, a.birthDate FROM Book b " +
+                "LEFT JOIN AuthorOfBook ab ON ab.bookID = b.bookID " +
+                "LEFT JOIN Author a ON a.authorID = ab.authorID " +
+                "WHERE " + where + " ORDER BY b.bookID";
+        try (PreparedStatement pstmt = prepareRead(sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setString(i + 1, params.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return BookBatch.read(rs);
+            }
+        } catch (SQLException e) {
+            throw new BooksDbException("Error fetching books by " + mode, e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in database: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stream every book, with its authors, in bookID order. The rows are read through
+     * a forward-only, read-only cursor that the MySQL driver streams row by row, and
+     * the authors are grouped on the fly, so only one book is held in memory at a time.
+     * The connection cannot be used for other queries until this method returns.
+     *
+     * @param sink receives each book
+     * @return number of books streamed
+     */
+    public long streamCatalog(BookSink sink) throws BooksDbException, IOException {
+        String sql = "SELECT b.bookID, b.isbn, b.title, b.published, b.rating, b.genre, " +
+                "a.authorID, a.firstName, a.lastName, a.birthDate FROM Book b " +
+                "LEFT JOIN AuthorOfBook ab ON ab.bookID = b.bookID " +
+                "LEFT JOIN Author a ON a.authorID = ab.authorID " +
+                "ORDER BY b.bookID";
+        long count = 0;
+        try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                Book current = null;
+                while (rs.next()) {
+                    int bookId = rs.getInt(1);
+                    if (current == null || current.getBookId() != bookId) {
+                        if (current != null) {
+                            sink.accept(current);
+                            count++;
+                        }
+                        current = new Book(bookId, rs.getString(2), rs.getString(3), rs.getDate(4),
+                                rs.getInt(5), BookRowMapper.genre(rs.getString(6)));
+                    }
+                    int authorId = rs.getInt(7);
+                    if (!rs.wasNull()) {
+                        current.addAuthors(new Author(authorId, rs.getString(8), rs.getString(9), rs.getDate(10)));
+                    }
+                }
+                if (current != null) {
+                    sink.accept(current);
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new BooksDbException("Error streaming catalog", e);
+        } catch (IllegalArgumentException e) {
+            throw new BooksDbException("Invalid book in catalog: " + e.getMessage(), e);
+        }
+        return count;
+    }
 }
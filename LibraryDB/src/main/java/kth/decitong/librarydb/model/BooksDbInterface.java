@@ -1,7 +1,10 @@
 package kth.decitong.librarydb.model;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This interface declares methods for querying a Books database.
@@ -31,10 +34,109 @@ public interface BooksDbInterface {
     ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException;
     ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException;
 
+    /**
+     * Search titles containing the query and return only the most relevant matches:
+     * exact title before title prefix before substring, boosted by rating and by how
+     * recently the book was published.
+     *
+     * @param query text to search for in titles
+     * @param limit max number of books to return
+     * @return the best matches, best first
+     */
+    List<Book> searchBooksRanked(String query, int limit) throws BooksDbException;
+
+    /**
+     * Typo tolerant search in titles and author names. Every word of the query must be
+     * within a small edit distance, growing with the word length, of a word in the
+     * title or an author name of the book.
+     *
+     * @param query text to search for
+     * @param limit max number of books to return
+     * @return the matches, closest first
+     */
+    List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException;
+
+    /**
+     * Look up many ISBNs at once, e.g. a batch of scanned donations.
+     *
+     * @param isbns the ISBNs to look up
+     * @return the books found, keyed by ISBN; ISBNs not in the catalog are left out
+     */
+    Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException;
+
+    /**
+     * Search by title, author, genre, rating or ISBN like the searchBooksBy methods,
+     * but return the result in columnar form, which takes a fraction of the memory of
+     * Book objects when the result is large.
+     *
+     * @param mode  Title, Author, Genre, Rating or ISBN
+     * @param query the search text, a number for Rating
+     * @return the books found, with their authors, in bookID order
+     */
+    BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException;
+
+    /**
+     * Search by publication date, optionally keeping only one genre and one rating.
+     *
+     * @param from   first publication date, inclusive
+     * @param to     last publication date, inclusive
+     * @param genre  the genre to keep, or null for all genres
+     * @param rating the rating to keep (1-5), or 0 for all ratings
+     * @return the books found, with their authors, by publication date and then bookID
+     */
+    List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException;
+
     void deleteBook(int bookID) throws BooksDbException;
+
+    /**
+     * Delete several books, and their author links, in one transaction.
+     *
+     * @param bookIDs ids of the books to delete
+     * @return for each id, true if a book was deleted and false if no such book existed
+     */
+    Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException;
+
+    /**
+     * Update the rating of several books in one transaction.
+     *
+     * @param ratings new rating (1-5) keyed by book id
+     * @return for each id, true if the rating was updated and false if the book
+     *         does not exist or the rating is out of range
+     */
+    Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException;
     void addBook(Book book) throws BooksDbException;
     void addAuthor(Author author) throws BooksDbException;
     void addAuthorToBook(Author author, Book book) throws BooksDbException;
     List<Author> getAuthorsForBook(int bookID) throws BooksDbException;
     List<Author> getAllAuthors() throws BooksDbException;
+
+    /**
+     * Authors with an id above the given one, in id order, e.g. to refresh a cached
+     * author list with only the authors added since it was loaded.
+     *
+     * @param authorID the highest author id already known
+     * @return the authors with a higher id
+     */
+    List<Author> getAuthorsAfter(int authorID) throws BooksDbException;
+
+    /**
+     * The books of one author, found by id, so unlike searchBooksByAuthor it does not
+     * include the books of namesakes.
+     *
+     * @param authorID id of the author
+     * @return the author's books, with their authors, in bookID order
+     */
+    List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException;
+
+    /**
+     * The co-author network of an author: the authors who wrote a book with the
+     * author, then the authors who wrote a book with one of those, and so on.
+     *
+     * @param authorID id of the author
+     * @param depth    max number of steps from the author, 1 for only the co-authors
+     * @return one list per step, the first holding the co-authors, each ordered by last
+     *         name; fewer than depth lists if the network ends sooner
+     */
+    List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException;
 }
@@ -0,0 +1,194 @@
+package kth.decitong.librarydb.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Runs the searches users are likely to start with ahead of time, so that their
+ * results are in the cache when they are clicked: every genre, every rating, and
+ * the most frequent searches of earlier sessions.
+ * <p>
+ * The searches run after connecting, one at a time on a low priority daemon thread
+ * with its own connection, which should be a filling CachingBooksDb sharing its
+ * QueryCache with the interactive one. Interactive searches therefore never wait for
+ * the warm-up, neither for a thread nor for a connection. The cache expires entries
+ * so that other clients' changes show up, which would make a first click after the
+ * max age as slow as without a warm-up; so until it is stopped the warm-up runs the
+ * genre and rating searches again at the refresh interval, which should be shorter
+ * than the max age. These are the searches a session most likely starts with, and
+ * cost the database a few searches per interval. Searches from the history are not
+ * refreshed: users keep the ones they hit current by their own searches, and the rest
+ * are not worth the load. The history of earlier sessions is read on the warm-up
+ * thread as well, the first time it runs.
+ */
+public class CacheWarmer {
+    private static final int RECENT_QUERIES = 20;
+
+    private final Supplier<BooksDbInterface> connectionFactory;
+    private final QueryHistory history;
+    private final int resultLimit;
+    private final long refreshMillis;
+    private Thread thread;
+    private volatile int lastWarmedCount;
+    private volatile long lastWarmUpMillis;
+
+    /**
+     * @param connectionFactory creates the unconnected database the warm-up searches run on
+     * @param history           searches of earlier sessions
+     * @param resultLimit       limit the Controller uses for ranked and fuzzy searches
+     * @param refreshMillis     how often the genre and rating searches are run again,
+     *                          0 for never
+     */
+    public CacheWarmer(Supplier<BooksDbInterface> connectionFactory, QueryHistory history, int resultLimit,
+                       long refreshMillis) {
+        this.connectionFactory = connectionFactory;
+        this.history = history;
+        this.resultLimit = resultLimit;
+        this.refreshMillis = refreshMillis;
+    }
+
+    public QueryHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * @return number of searches run by the last completed warm-up, 0 if none
+     */
+    public int getLastWarmedCount() {
+        return lastWarmedCount;
+    }
+
+    /**
+     * @return duration of the last completed warm-up in milliseconds
+     */
+    public long getLastWarmUpMillis() {
+        return lastWarmUpMillis;
+    }
+
+    /**
+     * Warm up in the background, stopping an earlier warm-up first.
+     */
+    public synchronized void start(String database) {
+        stop();
+        thread = new Thread(() -> run(database), "cache-warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * @return the searches to run, most likely first
+     */
+    List<QueryHistory.Query> plan() {
+        Set<QueryHistory.Query> queries = new LinkedHashSet<>(partitions());
+        queries.addAll(history.mostFrequent(RECENT_QUERIES));
+        return new ArrayList<>(queries);
+    }
+
+    /**
+     * @return the genre and rating searches, which are kept from expiring
+     */
+    private static List<QueryHistory.Query> partitions() {
+        List<QueryHistory.Query> queries = new ArrayList<>();
+        for (Genre genre : Genre.values()) {
+            queries.add(new QueryHistory.Query(SearchMode.Genre, genre.name()));
+        }
+        for (int rating = 1; rating <= 5; rating++) {
+            queries.add(new QueryHistory.Query(SearchMode.Rating, String.valueOf(rating)));
+        }
+        return queries;
+    }
+
+    private void run(String database) {
+        try {
+            history.load();
+        } catch (IOException e) {
+            // Warm up with this session's searches only; the history only orders the warm-up.
+        }
+        BooksDbInterface db = connectionFactory.get();
+        try {
+            db.connect(database);
+        } catch (BooksDbException e) {
+            // Without a warm-up the first searches just go to the database.
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            int warmed = warm(db, plan());
+            lastWarmedCount = warmed;
+            lastWarmUpMillis = (System.nanoTime() - start) / 1_000_000;
+            while (refreshMillis > 0) {
+                Thread.sleep(refreshMillis);
+                warm(db, partitions());
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } finally {
+            try {
+                db.disconnect();
+            } catch (BooksDbException e) {
+                // The warm-up connection is dropped anyway.
+            }
+        }
+    }
+
+    /**
+     * @return number of searches that succeeded
+     */
+    private int warm(BooksDbInterface db, List<QueryHistory.Query> queries) throws InterruptedException {
+        int warmed = 0;
+        for (QueryHistory.Query query : queries) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            try {
+                search(db, query);
+                warmed++;
+            } catch (BooksDbException | RuntimeException e) {
+                // A failed warm-up search only means a cold first click.
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * Run a search the way the Controller does, so it fills the same cache entry.
+     */
+    private void search(BooksDbInterface db, QueryHistory.Query query) throws BooksDbException {
+        switch (query.mode()) {
+            case Title:
+            case Author:
+            case Genre:
+            case Rating:
+                db.searchBooksBatch(query.mode(), query.query());
+                break;
+            case ISBN:
+                db.searchBooksByISBN(query.query());
+                break;
+            case Published: {
+                PublishedRange range = PublishedRange.parse(query.query());
+                db.searchBooksByPublished(range.from(), range.to(), range.genre(), range.rating());
+                break;
+            }
+            case Ranked:
+                db.searchBooksRanked(query.query(), resultLimit);
+                break;
+            case Fuzzy:
+                db.searchBooksFuzzy(query.query(), resultLimit);
+                break;
+            default:
+                break;
+        }
+    }
+}
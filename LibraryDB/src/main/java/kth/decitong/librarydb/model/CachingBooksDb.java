@@ -0,0 +1,181 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Read-through cache in front of a BooksDbInterface. Search results are cached per
+ * query until they expire or until a write through this object invalidates them.
+ * Cached lists are shared, so callers must not modify them.
+ * <p>
+ * Several CachingBooksDb objects may share one QueryCache, e.g. the interactive
+ * connection and the CacheWarmer's. A write through any of them invalidates the
+ * cache for all, and a search that was running during the write does not store its
+ * result.
+ * <p>
+ * A filling CachingBooksDb runs every search and stores its result without serving
+ * cached ones, so that it can renew entries before they expire.
+ */
+public class CachingBooksDb extends ForwardingBooksDb {
+    private final QueryCache cache;
+    private final boolean readCache;
+
+    @FunctionalInterface
+    private interface Search<T> {
+        T apply() throws BooksDbException;
+    }
+
+    /**
+     * @param delegate the database to cache
+     * @param cache    where results are kept
+     */
+    public CachingBooksDb(BooksDbInterface delegate, QueryCache cache) {
+        this(delegate, cache, true);
+    }
+
+    private CachingBooksDb(BooksDbInterface delegate, QueryCache cache, boolean readCache) {
+        super(delegate);
+        this.cache = cache;
+        this.readCache = readCache;
+    }
+
+    /**
+     * @return a CachingBooksDb that stores the results of its searches in the cache but
+     *         always runs them, e.g. for a CacheWarmer
+     */
+    public static CachingBooksDb filling(BooksDbInterface delegate, QueryCache cache) {
+        return new CachingBooksDb(delegate, cache, false);
+    }
+
+    public QueryCache getCache() {
+        return cache;
+    }
+
+    private <T> T cached(String key, Search<T> search) throws BooksDbException {
+        T result = readCache ? cache.get(key) : null;
+        if (result == null) {
+            long generation = cache.getGeneration();
+            result = search.apply();
+            cache.put(key, result, generation);
+        }
+        return result;
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        cache.invalidateAll();
+        super.disconnect();
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return cached("title:" + title, () -> delegate.searchBooksByTitle(title));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return cached("author:" + authorName, () -> delegate.searchBooksByAuthor(authorName));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return cached("genre:" + genre.toUpperCase(), () -> delegate.searchBooksByGenre(genre));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return cached("rating:" + rating, () -> delegate.searchBooksByRating(rating));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return cached("isbn:" + ISBN, () -> delegate.searchBooksByISBN(ISBN));
+    }
+
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        return cached("ranked:" + limit + ":" + query, () -> delegate.searchBooksRanked(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        return cached("fuzzy:" + limit + ":" + query, () -> delegate.searchBooksFuzzy(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        return cached("published:" + from + ".." + to + ":" + genre + ":" + rating,
+                () -> delegate.searchBooksByPublished(from, to, genre, rating));
+    }
+
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        String normalized = mode == SearchMode.Genre ? query.toUpperCase(Locale.ROOT) : query;
+        return cached("batch:" + mode + ":" + normalized, () -> delegate.searchBooksBatch(mode, query));
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        return cached("authorsOf:" + bookID, () -> delegate.getAuthorsForBook(bookID));
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return cached("booksOfAuthor:" + authorID, () -> delegate.searchBooksByAuthorID(authorID));
+    }
+
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        return cached("coAuthors:" + depth + ":" + authorID, () -> delegate.getCoAuthors(authorID, depth));
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        try {
+            super.deleteBook(bookID);
+        } finally {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        try {
+            return super.deleteBooks(bookIDs);
+        } finally {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings)
+            throws BooksDbException {
+        try {
+            return super.updateRatings(ratings);
+        } finally {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        try {
+            super.addBook(book);
+        } finally {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        try {
+            super.addAuthorToBook(author, book);
+        } finally {
+            cache.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package kth.decitong.librarydb.model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the whole catalog, books with their authors, to a CSV or JSON-lines file.
+ * Books are streamed from the database one at a time and written straight to a
+ * buffered file channel, so heap use does not grow with the size of the catalog.
+ */
+public class CatalogExporter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BooksDbImpl booksDb;
+
+    public CatalogExporter(BooksDbImpl booksDb) {
+        this.booksDb = booksDb;
+    }
+
+    /**
+     * Export the catalog. The database must be connected.
+     *
+     * @param target file to write, replaced if it exists
+     * @param format CSV or JSON_LINES
+     * @param gzip   true to gzip the output
+     * @return number of books written and the time it took
+     */
+    public ExportResult export(Path target, ExportFormat format, boolean gzip)
+            throws BooksDbException, IOException {
+        long start = System.nanoTime();
+        long rows;
+        try (Writer out = openWriter(target, gzip)) {
+            if (format == ExportFormat.CSV) {
+                out.write("bookID,isbn,title,published,rating,genre,authors\n");
+                rows = booksDb.streamCatalog(book -> writeCsv(out, book));
+            } else {
+                rows = booksDb.streamCatalog(book -> writeJson(out, book));
+            }
+        }
+        return new ExportResult(rows, System.nanoTime() - start);
+    }
+
+    private static Writer openWriter(Path target, boolean gzip) throws IOException {
+        FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        OutputStream out = Channels.newOutputStream(channel);
+        if (gzip) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private static void writeCsv(Writer out, Book book) throws IOException {
+        out.write(Integer.toString(book.getBookId()));
+        out.write(',');
+        out.write(book.getIsbn());
+        out.write(',');
+        out.write(csvField(book.getTitle()));
+        out.write(',');
+        out.write(book.getPublished() == null ? "" : book.getPublished().toString());
+        out.write(',');
+        out.write(Integer.toString(book.getRating()));
+        out.write(',');
+        out.write(String.valueOf(book.getGenre()));
+        out.write(',');
+        StringBuilder authors = new StringBuilder();
+        for (Author author : book.getAuthors()) {
+            if (authors.length() > 0) {
+                authors.append("; ");
+            }
+            authors.append(author.getFirstName()).append(' ').append(author.getLastName());
+        }
+        out.write(csvField(authors.toString()));
+        out.write('\n');
+    }
+
+    private static void writeJson(Writer out, Book book) throws IOException {
+        out.write("{\"bookId\":");
+        out.write(Integer.toString(book.getBookId()));
+        out.write(",\"isbn\":");
+        out.write(jsonString(book.getIsbn()));
+        out.write(",\"title\":");
+        out.write(jsonString(book.getTitle()));
+        out.write(",\"published\":");
+        out.write(book.getPublished() == null ? "null" : jsonString(book.getPublished().toString()));
+        out.write(",\"rating\":");
+        out.write(Integer.toString(book.getRating()));
+        out.write(",\"genre\":");
+        out.write(jsonString(String.valueOf(book.getGenre())));
+        out.write(",\"authors\":[");
+        List<Author> authors = book.getAuthors();
+        for (int i = 0; i < authors.size(); i++) {
+            Author author = authors.get(i);
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("{\"authorId\":");
+            out.write(Integer.toString(author.getAuthorID()));
+            out.write(",\"firstName\":");
+            out.write(jsonString(author.getFirstName()));
+            out.write(",\"lastName\":");
+            out.write(jsonString(author.getLastName()));
+            out.write('}');
+        }
+        out.write("]}\n");
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * @return the value as a JSON string literal, or null
+     */
+    public static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Outcome of an export.
+     */
+    public static class ExportResult {
+        private final long rows;
+        private final long elapsedNanos;
+
+        ExportResult(long rows, long elapsedNanos) {
+            this.rows = rows;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRows() { return rows; }
+
+        public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows in %d ms (%.0f rows/s)", rows, getElapsedMillis(), getRowsPerSecond());
+        }
+    }
+}
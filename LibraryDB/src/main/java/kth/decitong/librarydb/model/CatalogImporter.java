@@ -0,0 +1,209 @@
+package kth.decitong.librarydb.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Adds the books in a CSV file, in the format CatalogExporter writes, to the catalog,
+ * and screens each one for duplicates first.
+ * <p>
+ * The catalog is indexed in a DuplicateDetector before the file is read, and every
+ * book added is indexed too, so a row is checked against the catalog and against the
+ * rows before it. Likely duplicates are reported and, unless asked to keep them,
+ * skipped. Books get new ids after the highest id in the catalog; if another client
+ * takes an id first, the highest id is read again and the row gets the next one. Each
+ * book is added together with its author links, in one transaction. Authors are
+ * looked up by name and must already be in the catalog, since the file has no birth
+ * dates.
+ */
+public class CatalogImporter {
+    private static final String HEADER = "bookID,isbn,title,published,rating,genre,authors";
+    /** Times a row is given a new id after another client took the one it had. */
+    private static final int MAX_ID_ATTEMPTS = 10;
+
+    private final BooksDbImpl booksDb;
+    private final double threshold;
+
+    /**
+     * @param threshold lowest title and author similarity that makes a book a duplicate
+     */
+    public CatalogImporter(BooksDbImpl booksDb, double threshold) {
+        this.booksDb = booksDb;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Import a file. The database must be connected.
+     *
+     * @param source         CSV file, gzipped if its name ends in .gz
+     * @param keepDuplicates whether to add likely duplicates anyway, after reporting them
+     * @param report         receives a line for each duplicate and each rejected row
+     */
+    public ImportResult importCsv(Path source, boolean keepDuplicates, Consumer<String> report)
+            throws BooksDbException, IOException {
+        long start = System.nanoTime();
+        DuplicateDetector detector = new DuplicateDetector(threshold);
+        detector.addCatalog(booksDb);
+        int nextId = detector.getMaxBookId() + 1;
+        Map<String, Author> authors = new HashMap<>();
+        for (Author author : booksDb.getAllAuthors()) {
+            authors.putIfAbsent(name(author.getFirstName() + " " + author.getLastName()), author);
+        }
+
+        long rows = 0;
+        long added = 0;
+        long duplicates = 0;
+        long rejected = 0;
+        try (BufferedReader in = openReader(source)) {
+            List<String> header = readRecord(in);
+            if (header == null || !String.join(",", header).equals(HEADER)) {
+                throw new IOException("Not a catalog CSV file, expected the header " + HEADER);
+            }
+            List<String> fields;
+            while ((fields = readRecord(in)) != null) {
+                rows++;
+                Book book;
+                try {
+                    book = book(nextId, fields, authors);
+                } catch (IllegalArgumentException e) {
+                    report.accept("Row " + rows + " rejected: " + e.getMessage());
+                    rejected++;
+                    continue;
+                }
+                List<DuplicateDetector.Match> matches = detector.screen(book);
+                if (!matches.isEmpty()) {
+                    duplicates++;
+                    for (DuplicateDetector.Match match : matches) {
+                        report.accept("Row " + rows + (keepDuplicates ? " added, " : " skipped, ")
+                                + "likely duplicate: " + match);
+                    }
+                    if (!keepDuplicates) {
+                        continue;
+                    }
+                }
+                for (int attempt = 1; !booksDb.addBookWithAuthors(book); attempt++) {
+                    if (attempt == MAX_ID_ATTEMPTS) {
+                        throw new BooksDbException("Row " + rows + " not added, no free book id after "
+                                + attempt + " attempts");
+                    }
+                    nextId = Math.max(nextId, booksDb.getMaxBookId()) + 1;
+                    book = book(nextId, fields, authors);
+                }
+                detector.add(book);
+                nextId++;
+                added++;
+            }
+        }
+        return new ImportResult(rows, added, duplicates, rejected, System.nanoTime() - start);
+    }
+
+    private static Book book(int bookId, List<String> fields, Map<String, Author> authors) {
+        if (fields.size() != 7) {
+            throw new IllegalArgumentException("expected 7 fields, found " + fields.size());
+        }
+        Date published;
+        int rating;
+        try {
+            published = fields.get(3).isEmpty() ? null : Date.valueOf(fields.get(3));
+            rating = Integer.parseInt(fields.get(4));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid date or rating");
+        }
+        Genre genre = fields.get(5).isEmpty() || fields.get(5).equals("null") ? null
+                : BookRowMapper.genre(fields.get(5));
+        Book book = new Book(bookId, fields.get(1), fields.get(2), published, rating, genre);
+        if (!fields.get(6).isBlank()) {
+            for (String name : fields.get(6).split(";")) {
+                Author author = authors.get(name(name));
+                if (author == null) {
+                    throw new IllegalArgumentException("unknown author " + name.trim());
+                }
+                book.addAuthors(author);
+            }
+        }
+        return book;
+    }
+
+    private static String name(String name) {
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static BufferedReader openReader(Path source) throws IOException {
+        InputStream in = Files.newInputStream(source);
+        if (source.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Read one CSV record; quoted fields may hold commas, doubled quotes and newlines.
+     *
+     * @return the fields, or null at the end of the file
+     */
+    static List<String> readRecord(BufferedReader in) throws IOException {
+        int c = in.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (; c != -1; c = in.read()) {
+            if (quoted) {
+                if (c != '"') {
+                    field.append((char) c);
+                    continue;
+                }
+                in.mark(1);
+                if (in.read() == '"') {
+                    field.append('"');
+                } else {
+                    in.reset();
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Outcome of an import.
+     *
+     * @param rows       rows read from the file
+     * @param added      books added to the catalog
+     * @param duplicates rows that looked like a duplicate, whether added or not
+     * @param rejected   rows that could not be read or named an unknown author
+     */
+    public record ImportResult(long rows, long added, long duplicates, long rejected, long elapsedNanos) {
+
+        @Override
+        public String toString() {
+            return String.format("%d rows: %d added, %d likely duplicates, %d rejected in %d ms",
+                    rows, added, duplicates, rejected, elapsedNanos / 1_000_000);
+        }
+    }
+}
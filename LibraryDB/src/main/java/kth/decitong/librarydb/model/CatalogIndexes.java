@@ -0,0 +1,147 @@
+package kth.decitong.librarydb.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The in-memory indexes a BooksDbImpl keeps beside the database: the ISBN lookup, the
+ * fuzzy search dictionary and the author graph. Each BooksDbImpl has its own unless it
+ * is given one to share; connections to the same database that share one, e.g. the
+ * members of a connection pool, build each index once and keep it current with all of
+ * their writes. The indexes are dropped when the last connection sharing them
+ * disconnects, not when any one of them does, e.g. to reconnect.
+ * <p>
+ * The fuzzy search dictionary and the author graph are loaded in the background. The
+ * first use waits for the load; once an index is old enough to miss other clients'
+ * changes a new one is loaded and the old one is used meanwhile. Changes made while a
+ * load runs, which its snapshot may have missed, are replayed on the new index before
+ * it replaces the old one.
+ */
+public final class CatalogIndexes {
+    /** Number of books kept in the ISBN lookup cache. */
+    private static final int ISBN_CACHE_SIZE = 10_000;
+    /** How long to wait after a failed build of the ISBN filter before trying again. */
+    private static final long ISBN_FILTER_RETRY_MILLIS = 60_000;
+    /** How long a loaded index is used before it is loaded again. */
+    private static final long MAX_AGE_NANOS = 5 * 60 * 1_000_000_000L;
+
+    final IsbnLookup isbnLookup = new IsbnLookup(ISBN_CACHE_SIZE, ISBN_FILTER_RETRY_MILLIS);
+
+    private final Loaded<FuzzyIndex> fuzzyIndex = new Loaded<>();
+    private final Loaded<AuthorGraph> authorGraph = new Loaded<>();
+    /** Number of connected BooksDbImpls using the indexes. */
+    private int users;
+
+    /**
+     * An index loaded from the database in the background; guarded by the CatalogIndexes.
+     */
+    private static class Loaded<T> {
+        // The current index, the running load, if any, when the last one started, and
+        // the changes since then.
+        private T current;
+        private CompletableFuture<T> load;
+        private long loadStartedAt;
+        private final List<Consumer<T>> changes = new ArrayList<>();
+
+        void clear() {
+            current = null;
+            load = null;
+            loadStartedAt = 0;
+            changes.clear();
+        }
+    }
+
+    /**
+     * @param load starts loading a new dictionary from the database in the background
+     * @return the current dictionary, or the load of the first one
+     */
+    synchronized CompletableFuture<FuzzyIndex> fuzzyIndex(Supplier<CompletableFuture<FuzzyIndex>> load) {
+        return get(fuzzyIndex, load);
+    }
+
+    /**
+     * Apply a change to the fuzzy search dictionary, and to the one being loaded, if any.
+     */
+    synchronized void changeFuzzyIndex(Consumer<FuzzyIndex> change) {
+        change(fuzzyIndex, change);
+    }
+
+    /**
+     * @param load starts loading a new graph from the database in the background
+     * @return the current graph, or the load of the first one
+     */
+    synchronized CompletableFuture<AuthorGraph> authorGraph(Supplier<CompletableFuture<AuthorGraph>> load) {
+        return get(authorGraph, load);
+    }
+
+    /**
+     * Apply a change to the author graph, and to the one being loaded, if any.
+     */
+    synchronized void changeAuthorGraph(Consumer<AuthorGraph> change) {
+        change(authorGraph, change);
+    }
+
+    private <T> CompletableFuture<T> get(Loaded<T> index, Supplier<CompletableFuture<T>> load) {
+        boolean old = System.nanoTime() - index.loadStartedAt >= MAX_AGE_NANOS;
+        if (index.load == null && (index.current == null || old)) {
+            CompletableFuture<T> started = new CompletableFuture<>();
+            index.load = started;
+            index.loadStartedAt = System.nanoTime();
+            index.changes.clear();
+            load.get().whenComplete((loaded, failure) -> install(index, started, loaded, failure));
+        }
+        return index.current != null ? CompletableFuture.completedFuture(index.current) : index.load;
+    }
+
+    private <T> void install(Loaded<T> index, CompletableFuture<T> started, T loaded, Throwable failure) {
+        synchronized (this) {
+            if (index.load == started) {
+                if (failure == null) {
+                    index.changes.forEach(change -> change.accept(loaded));
+                    index.current = loaded;
+                }
+                index.changes.clear();
+                index.load = null;
+            }
+        }
+        if (failure == null) {
+            started.complete(loaded);
+        } else {
+            started.completeExceptionally(failure);
+        }
+    }
+
+    private <T> void change(Loaded<T> index, Consumer<T> change) {
+        if (index.current != null) {
+            change.accept(index.current);
+        }
+        if (index.load != null) {
+            index.changes.add(change);
+        }
+    }
+
+    /**
+     * Count a connection that uses the indexes; call once per connect.
+     */
+    synchronized void connected() {
+        users++;
+    }
+
+    /**
+     * Uncount a connection, and drop the indexes if it was the last one.
+     */
+    synchronized void disconnected() {
+        if (users > 0 && --users == 0) {
+            clear();
+        }
+    }
+
+    private synchronized void clear() {
+        isbnLookup.clear();
+        fuzzyIndex.clear();
+        authorGraph.clear();
+    }
+}
@@ -0,0 +1,513 @@
+package kth.decitong.librarydb.model;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Finds books that are likely the same work added twice, e.g. under another id with a
+ * slightly different title or author spelling.
+ * <p>
+ * Each book is reduced to the character trigrams of its normalized title and author
+ * last names, and the trigrams to a MinHash signature: the fraction of positions where
+ * two signatures agree estimates the Jaccard similarity of the trigram sets. The
+ * signature is cut into bands, and books sharing the hash of a band become candidate
+ * pairs (locality sensitive hashing), as do books with the same ISBN. Only candidates
+ * are compared, so a catalog is checked in near-linear time instead of comparing every
+ * pair. Band keys are packed into one long array and sorted with Arrays.parallelSort,
+ * and signatures are computed and buckets compared in parallel.
+ * <p>
+ * With 20 bands of 4 rows, a pair with similarity 0.6 becomes a candidate with
+ * probability 0.94, and one with similarity 0.3 with probability 0.15.
+ * <p>
+ * Not thread-safe.
+ */
+public class DuplicateDetector {
+    private static final int BANDS = 20;
+    private static final int ROWS = 4;
+    private static final int HASHES = BANDS * ROWS;
+    /** Keys per book: one per band and one for the ISBN. */
+    private static final int KEYS = BANDS + 1;
+    private static final int INDEX_BITS = 24;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final int BAND_BITS = 5;
+    private static final int BAND_MASK = (1 << BAND_BITS) - 1;
+    /** At most 16,777,216 books, as the book index shares a key with the band and its hash. */
+    private static final int MAX_BOOKS = 1 << INDEX_BITS;
+    /** In a large bucket, e.g. of a common title, compare each book with this many others. */
+    private static final int MAX_BUCKET_PAIRS = 32;
+    private static final int EMPTY = Integer.MAX_VALUE;
+    private static final int CATALOG_BATCH = 10_000;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "the", "and", "of", "en", "ett", "och", "den", "det");
+    private static final long[] MULTIPLIERS = new long[HASHES];
+    private static final long[] INCREMENTS = new long[HASHES];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_B00CL);
+        for (int i = 0; i < HASHES; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1;
+            INCREMENTS[i] = random.nextLong();
+        }
+    }
+
+    private final double threshold;
+    private int size;
+    private int[] bookIds = new int[16];
+    private String[] titles = new String[16];
+    private String[] isbns = new String[16];
+    private int[] signatures = new int[16 * HASHES];
+    private long[] keys = new long[16 * KEYS];
+    private int keyCount;
+    /** Keys before this position are sorted, later ones were added since. */
+    private int sortedKeys;
+    private long lastCandidates;
+    private int maxBookId;
+
+    /**
+     * A likely duplicate.
+     *
+     * @param originalId     id of the book that was indexed first
+     * @param duplicateId    id of the book that looks like a copy of it
+     * @param similarity     estimated similarity of title and authors, 0 to 1
+     * @param sameIsbn       whether the books have the same ISBN
+     */
+    public record Match(int originalId, String originalTitle, int duplicateId, String duplicateTitle,
+                        double similarity, boolean sameIsbn) {
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "#%d \"%s\" ~ #%d \"%s\": %.2f%s", originalId, originalTitle,
+                    duplicateId, duplicateTitle, similarity, sameIsbn ? ", same ISBN" : "");
+        }
+    }
+
+    private static final Comparator<Match> MOST_SIMILAR = Comparator.comparing(Match::sameIsbn)
+            .thenComparingDouble(Match::similarity).reversed()
+            .thenComparingInt(Match::originalId).thenComparingInt(Match::duplicateId);
+
+    /**
+     * @param threshold lowest estimated similarity reported, 0 to 1; books with the
+     *                  same ISBN are always reported
+     */
+    public DuplicateDetector(double threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be above 0 and at most 1");
+        }
+        this.threshold = threshold;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of distinct candidate pairs compared by the last findAll
+     */
+    public long getLastCandidateCount() {
+        return lastCandidates;
+    }
+
+    /**
+     * @return highest id of the indexed books, or 0 if none
+     */
+    public int getMaxBookId() {
+        return maxBookId;
+    }
+
+    /**
+     * Stream the whole catalog into the index in batches, computing the signatures
+     * of each batch in parallel.
+     *
+     * @return number of books indexed
+     */
+    public long addCatalog(BooksDbImpl booksDb) throws BooksDbException, IOException {
+        List<Book> batch = new ArrayList<>(CATALOG_BATCH);
+        long count = booksDb.streamCatalog(book -> {
+            batch.add(book);
+            if (batch.size() == CATALOG_BATCH) {
+                addAll(batch);
+                batch.clear();
+            }
+        });
+        addAll(batch);
+        return count;
+    }
+
+    public void add(Book book) {
+        addAll(List.of(book));
+    }
+
+    /**
+     * Index the books, computing their signatures in parallel.
+     */
+    public void addAll(List<Book> books) {
+        int count = books.size();
+        if (size + count > MAX_BOOKS) {
+            throw new IllegalStateException("At most " + MAX_BOOKS + " books can be checked at once");
+        }
+        ensureCapacity(size + count);
+        int first = size;
+        IntStream.range(0, count).parallel()
+                .forEach(i -> signature(books.get(i), signatures, (first + i) * HASHES));
+        for (int i = 0; i < count; i++) {
+            Book book = books.get(i);
+            int index = first + i;
+            bookIds[index] = book.getBookId();
+            maxBookId = Math.max(maxBookId, book.getBookId());
+            titles[index] = book.getTitle();
+            isbns[index] = isbn13(book.getIsbn());
+            for (long key : keys(signatures, index * HASHES, isbns[index], index)) {
+                keys[keyCount++] = key;
+            }
+        }
+        size += count;
+    }
+
+    /**
+     * Compare every pair of indexed books that share a band or an ISBN.
+     *
+     * @return likely duplicates, same ISBN first and then most similar first
+     */
+    public List<Match> findAll() {
+        sortKeys();
+        int chunks = Math.max(1, Math.min(keyCount / 4096, Runtime.getRuntime().availableProcessors() * 4));
+        int[] bounds = new int[chunks + 1];
+        for (int c = 1; c < chunks; c++) {
+            // Move each chunk boundary to the start of a bucket, so no bucket is split.
+            int at = Math.max(bounds[c - 1], (int) ((long) keyCount * c / chunks));
+            while (at > 0 && at < keyCount && bucket(keys[at]) == bucket(keys[at - 1])) {
+                at++;
+            }
+            bounds[c] = at;
+        }
+        bounds[chunks] = keyCount;
+        LongAdder candidates = new LongAdder();
+        List<Match> matches = IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> compareBuckets(bounds[c], bounds[c + 1], candidates))
+                .flatMap(List::stream)
+                .sorted(MOST_SIMILAR)
+                .toList();
+        lastCandidates = candidates.sum();
+        return matches;
+    }
+
+    /**
+     * Compare the books sharing a bucket among keys from..to. A pair sharing several
+     * bands is only compared in the first of them that has it within the comparison
+     * window, so no pair is compared twice, and a pair is only missed if every bucket
+     * it shares is too crowded around it.
+     */
+    private List<Match> compareBuckets(int from, int to, LongAdder candidates) {
+        List<Match> matches = new ArrayList<>();
+        long compared = 0;
+        int start = from;
+        while (start < to) {
+            int end = start + 1;
+            while (end < to && bucket(keys[end]) == bucket(keys[start])) {
+                end++;
+            }
+            int band = band(keys[start]);
+            for (int i = start; i < end; i++) {
+                int a = index(keys[i]);
+                for (int j = i + 1; j < Math.min(end, i + 1 + MAX_BUCKET_PAIRS); j++) {
+                    int b = index(keys[j]);
+                    if (sharesBand(a, b, band) && !comparedInEarlierBand(a, b, band)) {
+                        compared++;
+                        Match match = match(Math.min(a, b), Math.max(a, b));
+                        if (match != null) {
+                            matches.add(match);
+                        }
+                    }
+                }
+            }
+            start = end;
+        }
+        candidates.add(compared);
+        return matches;
+    }
+
+    /**
+     * @return whether the books' signatures agree on every row of the band, or for
+     *         band BANDS whether their ISBNs are the same
+     */
+    private boolean sharesBand(int a, int b, int band) {
+        if (band == BANDS) {
+            return isbns[a].equals(isbns[b]);
+        }
+        int row = band * ROWS;
+        return signatures[a * HASHES] != EMPTY && signatures[b * HASHES] != EMPTY
+                && Arrays.equals(signatures, a * HASHES + row, a * HASHES + row + ROWS,
+                signatures, b * HASHES + row, b * HASHES + row + ROWS);
+    }
+
+    /**
+     * @return whether the books share a band before this one whose bucket has them
+     *         within MAX_BUCKET_PAIRS of each other, so they were compared there;
+     *         call with all keys sorted
+     */
+    private boolean comparedInEarlierBand(int a, int b, int band) {
+        for (int earlier = 0; earlier < band && earlier < BANDS; earlier++) {
+            if (sharesBand(a, b, earlier)) {
+                int aAt = Arrays.binarySearch(keys, 0, keyCount, bandKey(signatures, a * HASHES, earlier, a));
+                int bAt = Arrays.binarySearch(keys, 0, keyCount, bandKey(signatures, b * HASHES, earlier, b));
+                if (Math.abs(aAt - bAt) <= MAX_BUCKET_PAIRS) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compare a book that is about to be added with the indexed books. The book is not
+     * indexed; add it afterwards to also screen later books against it.
+     *
+     * @return likely duplicates of the book, most similar first
+     */
+    public List<Match> screen(Book book) {
+        if (keyCount - sortedKeys > Math.max(4096, sortedKeys / 8)) {
+            sortKeys();
+        }
+        int[] signature = new int[HASHES];
+        signature(book, signature, 0);
+        String isbn = isbn13(book.getIsbn());
+        long[] buckets = keys(signature, 0, isbn, 0);
+        Set<Integer> candidates = new HashSet<>();
+        for (long bucket : buckets) {
+            int first = firstKey(bucket);
+            int end = Math.min(sortedKeys, first + MAX_BUCKET_PAIRS);
+            for (int i = first; i < end && bucket(keys[i]) == bucket; i++) {
+                candidates.add(index(keys[i]));
+            }
+        }
+        for (int i = sortedKeys; i < keyCount; i++) {
+            for (long bucket : buckets) {
+                if (bucket(keys[i]) == bucket) {
+                    candidates.add(index(keys[i]));
+                }
+            }
+        }
+        List<Match> matches = new ArrayList<>();
+        for (int index : candidates) {
+            double similarity = similarity(signatures, index * HASHES, signature, 0);
+            boolean sameIsbn = isbns[index].equals(isbn);
+            if (sameIsbn || similarity >= threshold) {
+                matches.add(new Match(bookIds[index], titles[index], book.getBookId(), book.getTitle(),
+                        similarity, sameIsbn));
+            }
+        }
+        matches.sort(MOST_SIMILAR);
+        return matches;
+    }
+
+    private void sortKeys() {
+        if (sortedKeys < keyCount) {
+            Arrays.parallelSort(keys, 0, keyCount);
+            sortedKeys = keyCount;
+        }
+    }
+
+    /**
+     * @return index of the first sorted key in the bucket, or where it would be
+     */
+    private int firstKey(long bucket) {
+        int low = 0;
+        int high = sortedKeys;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < bucket) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Match match(int a, int b) {
+        double similarity = similarity(signatures, a * HASHES, signatures, b * HASHES);
+        boolean sameIsbn = isbns[a].equals(isbns[b]);
+        if (!sameIsbn && similarity < threshold) {
+            return null;
+        }
+        return new Match(bookIds[a], titles[a], bookIds[b], titles[b], similarity, sameIsbn);
+    }
+
+    private static long bucket(long key) {
+        return key & ~INDEX_MASK;
+    }
+
+    private static int band(long key) {
+        return (int) (key >>> INDEX_BITS) & BAND_MASK;
+    }
+
+    private static int index(long key) {
+        return (int) (key & INDEX_MASK);
+    }
+
+    private static double similarity(int[] a, int aOffset, int[] b, int bOffset) {
+        if (a[aOffset] == EMPTY || b[bOffset] == EMPTY) {
+            return 0;
+        }
+        int same = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[aOffset + i] == b[bOffset + i]) {
+                same++;
+            }
+        }
+        return (double) same / HASHES;
+    }
+
+    /**
+     * Write the MinHash signature of the book's title and author trigrams.
+     */
+    static void signature(Book book, int[] signature, int offset) {
+        String text = normalize(book);
+        int count = Math.max(0, text.length() - 2);
+        long[] shingles = new long[count];
+        for (int i = 0; i < count; i++) {
+            shingles[i] = mix((long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2));
+        }
+        for (int h = 0; h < HASHES; h++) {
+            long multiplier = MULTIPLIERS[h];
+            long increment = INCREMENTS[h];
+            int min = EMPTY;
+            for (long shingle : shingles) {
+                min = Math.min(min, (int) ((shingle * multiplier + increment) >>> 33));
+            }
+            signature[offset + h] = min;
+        }
+    }
+
+    /**
+     * @return the book's keys without its index: per band the band number and the hash
+     *         of its rows, none if the book had no trigrams, and the hash of the ISBN
+     */
+    private static long[] keys(int[] signature, int offset, String isbn, int index) {
+        long[] keys = new long[signature[offset] == EMPTY ? 1 : KEYS];
+        for (int band = 0; band < keys.length - 1; band++) {
+            keys[band] = bandKey(signature, offset, band, index);
+        }
+        keys[keys.length - 1] = key(mix(KEYS + isbn.hashCode() * 0x9E37_79B9_7F4A_7C15L), BANDS, index);
+        return keys;
+    }
+
+    /**
+     * @return the key of one band of a signature: the band number and the hash of its rows
+     */
+    private static long bandKey(int[] signature, int offset, int band, int index) {
+        long hash = band + 1;
+        for (int row = 0; row < ROWS; row++) {
+            hash = mix(hash * 31 + signature[offset + band * ROWS + row]);
+        }
+        return key(hash, band, index);
+    }
+
+    /**
+     * Pack a key so that keys sort by hash, then band, then book index.
+     */
+    private static long key(long hash, int band, int index) {
+        return hash << BAND_BITS + INDEX_BITS | (long) band << INDEX_BITS | index;
+    }
+
+    /**
+     * @return lower case title words and sorted author last names, without accents,
+     *         punctuation or common articles, separated by single spaces
+     */
+    static String normalize(Book book) {
+        StringBuilder text = new StringBuilder();
+        words(book.getTitle(), text);
+        List<String> lastNames = new ArrayList<>();
+        for (Author author : book.getAuthors()) {
+            StringBuilder name = new StringBuilder();
+            words(author.getLastName(), name);
+            lastNames.add(name.toString());
+        }
+        lastNames.sort(null);
+        for (String name : lastNames) {
+            if (!name.isEmpty()) {
+                text.append(text.length() == 0 ? "" : " ").append(name);
+            }
+        }
+        return text.toString();
+    }
+
+    private static void words(String value, StringBuilder out) {
+        if (value == null) {
+            return;
+        }
+        String plain = value;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7F) {
+                plain = Normalizer.normalize(value, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        int wordStart = -1;
+        for (int i = 0; i <= plain.length(); i++) {
+            char c = i < plain.length() ? plain.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                if (wordStart < 0) {
+                    wordStart = out.length() == 0 ? 0 : out.length() + 1;
+                    out.append(out.length() == 0 ? "" : " ");
+                }
+                out.append(Character.toLowerCase(c));
+            } else if (wordStart >= 0) {
+                // Drop the word again if it is an article or the like.
+                if (STOP_WORDS.contains(out.substring(wordStart))) {
+                    out.setLength(Math.max(0, wordStart - 1));
+                }
+                wordStart = -1;
+            }
+        }
+    }
+
+    /**
+     * @return the ISBN in 13 digit form, so that both forms of the same ISBN match
+     */
+    static String isbn13(String isbn) {
+        if (isbn.length() != 10) {
+            return isbn;
+        }
+        String digits = "978" + isbn.substring(0, 9);
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    /**
+     * The SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D0_49BB_1331_11EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= bookIds.length) {
+            return;
+        }
+        int capacity = Math.max(needed, bookIds.length * 2);
+        bookIds = Arrays.copyOf(bookIds, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        isbns = Arrays.copyOf(isbns, capacity);
+        signatures = Arrays.copyOf(signatures, capacity * HASHES);
+        keys = Arrays.copyOf(keys, capacity * KEYS);
+    }
+}
@@ -0,0 +1,5 @@
+package kth.decitong.librarydb.model;
+
+public enum ExportFormat {
+    CSV, JSON_LINES;
+}
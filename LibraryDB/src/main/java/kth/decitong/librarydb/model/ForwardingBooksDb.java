@@ -0,0 +1,135 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A BooksDbInterface that forwards every call to another implementation.
+ * Subclasses override the methods they want to decorate, e.g. with retries or caching.
+ */
+public abstract class ForwardingBooksDb implements BooksDbInterface {
+    protected final BooksDbInterface delegate;
+
+    protected ForwardingBooksDb(BooksDbInterface delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void connect(String database) throws BooksDbException {
+        delegate.connect(database);
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        delegate.disconnect();
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return delegate.searchBooksByTitle(title);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return delegate.searchBooksByAuthor(authorName);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return delegate.searchBooksByGenre(genre);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return delegate.searchBooksByRating(rating);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return delegate.searchBooksByISBN(ISBN);
+    }
+
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        return delegate.searchBooksRanked(query, limit);
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        return delegate.searchBooksFuzzy(query, limit);
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        return delegate.searchBooksByPublished(from, to, genre, rating);
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        return delegate.searchBooksByISBNs(isbns);
+    }
+
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        return delegate.searchBooksBatch(mode, query);
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        delegate.deleteBook(bookID);
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        return delegate.deleteBooks(bookIDs);
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        return delegate.updateRatings(ratings);
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        delegate.addBook(book);
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        delegate.addAuthor(author);
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        delegate.addAuthorToBook(author, book);
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        return delegate.getAuthorsForBook(bookID);
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return delegate.getAllAuthors();
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        return delegate.getAuthorsAfter(authorID);
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return delegate.searchBooksByAuthorID(authorID);
+    }
+
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        return delegate.getCoAuthors(authorID, depth);
+    }
+}
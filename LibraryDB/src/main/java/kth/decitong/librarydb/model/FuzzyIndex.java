@@ -0,0 +1,152 @@
+package kth.decitong.librarydb.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory dictionary of the words in book titles and author names, used for typo
+ * tolerant searches. The words are kept in BK-trees, one per word length, so finding
+ * the words within edit distance k of a query word only searches the trees for lengths
+ * within k of the query and touches a fraction of those. Each word maps to the books
+ * it occurs in, and each book to its words, so that removing a book drops it from the
+ * postings. The words stay in the BK-trees, where a word without books costs a little
+ * search time until the index is rebuilt.
+ * <p>
+ * A book matches a query if every query word is within the allowed distance of some
+ * word of its title or authors. Matches are ranked by the summed distance.
+ */
+class FuzzyIndex {
+    private final Map<Integer, BkTree> wordsByLength = new HashMap<>();
+    private final Map<String, Set<Integer>> postings = new HashMap<>();
+    private final Map<Integer, String[]> wordsOf = new HashMap<>();
+
+    /**
+     * @return how many edits a query word of this length may be off by
+     */
+    static int maxDistance(String word) {
+        if (word.length() <= 2) {
+            return 0;
+        }
+        return word.length() <= 5 ? 1 : 2;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the distance of a book found by a query, as ranked by search: for each
+     *         query word, the distance to the closest word of the texts, summed
+     */
+    static int distance(String query, List<String> texts) {
+        List<String> words = new ArrayList<>();
+        for (String text : texts) {
+            words.addAll(tokenize(text));
+        }
+        int total = 0;
+        for (String token : tokenize(query)) {
+            int best = Integer.MAX_VALUE;
+            for (String word : words) {
+                best = Math.min(best, BkTree.distance(token, word));
+            }
+            total += best == Integer.MAX_VALUE ? token.length() : best;
+        }
+        return total;
+    }
+
+    synchronized void add(int bookId, String text) {
+        List<String> added = new ArrayList<>();
+        for (String token : tokenize(text)) {
+            wordsByLength.computeIfAbsent(token.length(), length -> new BkTree()).add(token);
+            if (postings.computeIfAbsent(token, t -> new HashSet<>()).add(bookId)) {
+                added.add(token);
+            }
+        }
+        if (!added.isEmpty()) {
+            String[] words = wordsOf.getOrDefault(bookId, new String[0]);
+            String[] merged = Arrays.copyOf(words, words.length + added.size());
+            for (int i = 0; i < added.size(); i++) {
+                merged[words.length + i] = added.get(i);
+            }
+            wordsOf.put(bookId, merged);
+        }
+    }
+
+    synchronized void remove(int bookId) {
+        String[] words = wordsOf.remove(bookId);
+        if (words == null) {
+            return;
+        }
+        for (String word : words) {
+            Set<Integer> books = postings.get(word);
+            if (books != null && books.remove(bookId) && books.isEmpty()) {
+                postings.remove(word);
+            }
+        }
+    }
+
+    /**
+     * @param query the search text
+     * @param limit max number of books to return
+     * @return ids of the matching books mapped to their distance, best first
+     */
+    synchronized Map<Integer, Integer> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        Map<Integer, Integer> total = null;
+        for (String token : tokens) {
+            Map<Integer, Integer> best = new HashMap<>();
+            int k = maxDistance(token);
+            for (int length = token.length() - k; length <= token.length() + k; length++) {
+                BkTree words = wordsByLength.get(length);
+                if (words == null) {
+                    continue;
+                }
+                for (BkTree.Match match : words.search(token, k)) {
+                    for (int bookId : postings.getOrDefault(match.word, Set.of())) {
+                        best.merge(bookId, match.distance, Math::min);
+                    }
+                }
+            }
+            if (total == null) {
+                total = best;
+            } else {
+                Map<Integer, Integer> both = new HashMap<>();
+                for (Map.Entry<Integer, Integer> entry : total.entrySet()) {
+                    Integer d = best.get(entry.getKey());
+                    if (d != null) {
+                        both.put(entry.getKey(), entry.getValue() + d);
+                    }
+                }
+                total = both;
+            }
+            if (total.isEmpty()) {
+                break;
+            }
+        }
+
+        Map<Integer, Integer> ranked = new LinkedHashMap<>();
+        if (total == null) {
+            return ranked;
+        }
+        total.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .forEach(entry -> ranked.put(entry.getKey(), entry.getValue()));
+        return ranked;
+    }
+}
@@ -0,0 +1,83 @@
+package kth.decitong.librarydb.model;
+
+/**
+ * A compact Bloom filter over ISBNs. A negative answer from mightContain is exact,
+ * a positive answer is wrong with roughly the false positive rate given at creation,
+ * as long as no more than the expected number of ISBNs have been added.
+ * <p>
+ * Not thread safe, IsbnLookup guards access.
+ */
+class IsbnBloomFilter {
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+    private final int capacity;
+    private int size;
+
+    /**
+     * @param expectedIsbns      number of ISBNs the filter is sized for
+     * @param falsePositiveRate  wanted false positive rate, e.g. 0.01
+     */
+    IsbnBloomFilter(int expectedIsbns, double falsePositiveRate) {
+        capacity = Math.max(expectedIsbns, 64);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        bitCount = (int) Math.min(Math.max(m, 64), Integer.MAX_VALUE - 63);
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+        bits = new long[(bitCount + 63) >>> 6];
+    }
+
+    void add(String isbn) {
+        long hash = hash(isbn);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        size++;
+    }
+
+    boolean mightContain(String isbn) {
+        long hash = hash(isbn);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if more ISBNs have been added than the filter was sized for
+     */
+    boolean isSaturated() {
+        return size > capacity;
+    }
+
+    /**
+     * 64-bit hash of an ISBN. ISBNs are digit strings, so the digits are folded into
+     * a long and mixed with the MurmurHash3 finalizer; anything else falls back to
+     * String.hashCode.
+     */
+    private static long hash(String isbn) {
+        long h = isbn.length();
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c < '0' || c > '9') {
+                h = isbn.hashCode();
+                break;
+            }
+            h = h * 10 + (c - '0');
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
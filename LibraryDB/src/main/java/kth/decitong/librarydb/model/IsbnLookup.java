@@ -0,0 +1,138 @@
+package kth.decitong.librarydb.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fast path for ISBN lookups: a Bloom filter over every ISBN in the catalog answers
+ * "definitely not in the catalog" without a database round trip, and a bounded LRU
+ * cache maps ISBNs to books that have already been fetched.
+ * <p>
+ * The filter only knows the books added through its owner, and the cache is only kept
+ * current by its owner's writes, so both are only used by an owner that is the only
+ * writer to the database. A Bloom filter cannot forget, so deleted ISBNs stay in the
+ * filter and merely cost a database lookup. The filter needs
+ * a rebuild once more ISBNs have been added than it was sized for; the owner rebuilds
+ * it in the background, lookups use the old filter meanwhile, and ISBNs added during
+ * the rebuild are carried over to the new one.
+ */
+class IsbnLookup {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final int cacheSize;
+    private final long retryNanos;
+    private final LinkedHashMap<String, Book> cache;
+    private IsbnBloomFilter filter;
+    // A running rebuild, 0 if none; the generation makes a rebuild started before clear() a no-op.
+    private int generation;
+    private int rebuilding;
+    private final List<String> addedDuringRebuild = new ArrayList<>();
+    private long failedAt;
+    private boolean failed;
+
+    /**
+     * @param cacheSize     max number of cached books
+     * @param retryMillis   how long after a failed build of the filter the next one is tried
+     */
+    IsbnLookup(int cacheSize, long retryMillis) {
+        this.cacheSize = cacheSize;
+        this.retryNanos = retryMillis * 1_000_000;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Book> eldest) {
+                return size() > IsbnLookup.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Claim the rebuild of a missing or saturated filter.
+     *
+     * @return the rebuild to pass to rebuilt or rebuildFailed, or 0 if the filter does
+     *         not need one, another rebuild is running, or the last one failed recently
+     */
+    synchronized int startRebuild() {
+        boolean needed = filter == null || filter.isSaturated();
+        if (!needed || rebuilding != 0 || failed && System.nanoTime() - failedAt < retryNanos) {
+            return 0;
+        }
+        addedDuringRebuild.clear();
+        rebuilding = ++generation;
+        return rebuilding;
+    }
+
+    /**
+     * Replace the filter with one built from the given ISBNs and those added since the
+     * rebuild started.
+     */
+    synchronized void rebuilt(int rebuild, Collection<String> isbns) {
+        if (rebuild != rebuilding) {
+            return;
+        }
+        IsbnBloomFilter newFilter = new IsbnBloomFilter(
+                (isbns.size() + addedDuringRebuild.size()) * 2, FALSE_POSITIVE_RATE);
+        isbns.forEach(newFilter::add);
+        addedDuringRebuild.forEach(newFilter::add);
+        filter = newFilter;
+        rebuilding = 0;
+        failed = false;
+        addedDuringRebuild.clear();
+    }
+
+    /**
+     * Keep the current filter, if any, and wait before trying again.
+     */
+    synchronized void rebuildFailed(int rebuild) {
+        if (rebuild != rebuilding) {
+            return;
+        }
+        rebuilding = 0;
+        failed = true;
+        failedAt = System.nanoTime();
+        addedDuringRebuild.clear();
+    }
+
+    /**
+     * @return false only if the ISBN is certainly not in the catalog
+     */
+    synchronized boolean mightContain(String isbn) {
+        return filter == null || filter.mightContain(isbn);
+    }
+
+    synchronized Book getCached(String isbn) {
+        return cache.get(isbn);
+    }
+
+    synchronized void cache(Book book) {
+        cache.put(book.getIsbn(), book);
+    }
+
+    synchronized void added(Book book) {
+        if (filter != null) {
+            filter.add(book.getIsbn());
+        }
+        if (rebuilding != 0) {
+            addedDuringRebuild.add(book.getIsbn());
+        }
+        cache.remove(book.getIsbn());
+    }
+
+    /**
+     * Forget cached books, e.g. after they were deleted or changed.
+     */
+    synchronized void evict(Collection<Integer> bookIds) {
+        cache.values().removeIf(book -> bookIds.contains(book.getBookId()));
+    }
+
+    synchronized void clear() {
+        filter = null;
+        rebuilding = 0;
+        failed = false;
+        generation++;
+        addedDuringRebuild.clear();
+        cache.clear();
+    }
+}
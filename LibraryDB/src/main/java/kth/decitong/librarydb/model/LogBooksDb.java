@@ -0,0 +1,876 @@
+package kth.decitong.librarydb.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Embedded storage engine that keeps the whole catalog in memory and makes changes
+ * durable in an append-only log, for running without a MySQL server.
+ * <p>
+ * Every change is applied to the in-memory tables and indexes and appended to the
+ * log as one record; the call returns once the record has been forced to disk. The
+ * log is written with group commit, so concurrent writers share one fsync. On
+ * connect the log is replayed to rebuild the tables, and a record torn by a crash is
+ * cut off. Replaying a record is idempotent, which lets compaction snapshot the
+ * tables while later records are still queued.
+ * <p>
+ * A background task compacts the log when it holds more than twice as many records
+ * as there are live rows, by rewriting it with one record per book, author and link.
+ * <p>
+ * The name passed to {@link #connect(String)} is a directory below the base
+ * directory, which by default is ~/.librarydb. A lock file keeps a second engine,
+ * in this or another process, from opening the same directory.
+ */
+public class LogBooksDb implements BooksDbInterface {
+    private static final String LOG_FILE = "catalog.log";
+    private static final String LOCK_FILE = "catalog.lock";
+    private static final long COMPACTION_CHECK_SECONDS = 30;
+    private static final long MIN_RECORDS_TO_COMPACT = 1000;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final byte PUT_BOOK = 1;
+    private static final byte DELETE_BOOK = 2;
+    private static final byte PUT_AUTHOR = 3;
+    private static final byte LINK = 4;
+    private static final byte RATING = 5;
+
+    private final Path baseDir;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, BookRow> books = new TreeMap<>();
+    private final TreeMap<Integer, Author> authors = new TreeMap<>();
+    private final Map<Integer, Set<Integer>> authorsOfBook = new HashMap<>();
+    private final Map<Integer, Set<Integer>> booksOfAuthor = new HashMap<>();
+    private final Map<String, Set<Integer>> byIsbn = new HashMap<>();
+    private final Map<Genre, Set<Integer>> byGenre = new EnumMap<>(Genre.class);
+    private final Map<Integer, Set<Integer>> byRating = new HashMap<>();
+    private FuzzyIndex fuzzyIndex = new FuzzyIndex();
+    private final PublishedIndex publishedIndex = new PublishedIndex();
+    private int links;
+    private RecordLog log;
+    private FileChannel lockFile;
+    private ScheduledExecutorService compactor;
+
+    /**
+     * A row of the Book table. Rows are immutable; a new rating replaces the row.
+     */
+    private record BookRow(int bookId, String isbn, String title, long published, int rating, Genre genre) {
+        BookRow withRating(int newRating) {
+            return new BookRow(bookId, isbn, title, published, newRating, genre);
+        }
+    }
+
+    public LogBooksDb() {
+        this(Path.of(System.getProperty("user.home"), ".librarydb"));
+    }
+
+    public LogBooksDb(Path baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    @Override
+    public void connect(String database) throws BooksDbException {
+        lock.writeLock().lock();
+        try {
+            if (log != null) {
+                throw new BooksDbException("Already connected");
+            }
+            clear();
+            Path dir = baseDir.resolve(database);
+            Files.createDirectories(dir);
+            lockFile = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (lockFile.tryLock() == null) {
+                throw new OverlappingFileLockException();
+            }
+            log = RecordLog.open(dir.resolve(LOG_FILE), this::replay);
+        } catch (OverlappingFileLockException e) {
+            releaseLockFile();
+            throw new BooksDbException("Database " + baseDir.resolve(database) + " is in use");
+        } catch (IOException e) {
+            releaseLockFile();
+            clear();
+            throw new BooksDbException("Error opening log in " + baseDir.resolve(database), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfWasteful,
+                COMPACTION_CHECK_SECONDS, COMPACTION_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+            compactor = null;
+        }
+        RecordLog closing;
+        lock.writeLock().lock();
+        try {
+            closing = log;
+            log = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // Closed without the lock held, as a compaction still queued needs it to snapshot.
+        try {
+            if (closing != null) {
+                closing.close();
+            }
+        } catch (IOException e) {
+            throw new BooksDbException("Error closing log", e);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                releaseLockFile();
+                clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void releaseLockFile() {
+        if (lockFile != null) {
+            try {
+                lockFile.close();
+            } catch (IOException e) {
+                // Closing the channel releases the lock; nothing more to do.
+            }
+            lockFile = null;
+        }
+    }
+
+    private void clear() {
+        books.clear();
+        authors.clear();
+        authorsOfBook.clear();
+        booksOfAuthor.clear();
+        byIsbn.clear();
+        byGenre.clear();
+        byRating.clear();
+        fuzzyIndex = new FuzzyIndex();
+        publishedIndex.clear();
+        links = 0;
+    }
+
+    /**
+     * Rewrite the log with only the live rows.
+     */
+    public void compact() throws BooksDbException {
+        RecordLog current;
+        lock.readLock().lock();
+        try {
+            current = openLog();
+        } finally {
+            lock.readLock().unlock();
+        }
+        await(current.compact(this::snapshot), "Error compacting log");
+    }
+
+    private void compactIfWasteful() {
+        long live;
+        long records;
+        lock.readLock().lock();
+        try {
+            if (log == null) {
+                return;
+            }
+            live = books.size() + authors.size() + links;
+            records = log.getRecordCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (records > MIN_RECORDS_TO_COMPACT && records > 2 * live) {
+            try {
+                compact();
+            } catch (BooksDbException e) {
+                // The log stays as it is and compaction is tried again after later writes.
+            }
+        }
+    }
+
+    private List<byte[]> snapshot() {
+        lock.readLock().lock();
+        try {
+            List<byte[]> records = new ArrayList<>(books.size() + authors.size() + links);
+            for (Author author : authors.values()) {
+                records.add(encodeAuthor(author.getAuthorID(), author.getFirstName(),
+                        author.getLastName(), toEpochDay(author.getBirthDate())));
+            }
+            for (BookRow row : books.values()) {
+                records.add(encodeBook(row));
+            }
+            authorsOfBook.forEach((bookId, authorIds) -> {
+                for (int authorId : authorIds) {
+                    records.add(encodeIds(LINK, authorId, bookId));
+                }
+            });
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Reads
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return search(SearchMode.Title, title);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return search(SearchMode.Author, authorName);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return search(SearchMode.Genre, genre);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return search(SearchMode.Rating, String.valueOf(rating));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return search(SearchMode.ISBN, ISBN);
+    }
+
+    private ArrayList<Book> search(SearchMode mode, String query) throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            return toBooks(matching(mode, query));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Packs the matching rows into the batch without creating Book objects.
+     */
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            Collection<Integer> ids = matching(mode, query);
+            BookBatch.Builder builder = new BookBatch.Builder(ids.size());
+            for (int bookId : ids) {
+                BookRow row = books.get(bookId);
+                int published = row.published() == NO_DATE ? Integer.MIN_VALUE : (int) row.published();
+                builder.addBook(row.bookId(), row.isbn(), row.title(), published, row.rating(), row.genre());
+                for (int authorId : authorsOfBook.getOrDefault(bookId, Set.of())) {
+                    Author author = authors.get(authorId);
+                    if (author != null) {
+                        builder.addAuthor(authorId, author.getFirstName(), author.getLastName(),
+                                BookBatch.epochDay(author.getBirthDate()));
+                    }
+                }
+            }
+            return builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the books matching a search, in id order; call with the lock held
+     */
+    private Collection<Integer> matching(SearchMode mode, String query) throws BooksDbException {
+        switch (mode) {
+            case Title: {
+                String needle = query.toLowerCase();
+                List<Integer> ids = new ArrayList<>();
+                for (BookRow row : books.values()) {
+                    if (row.title().toLowerCase().contains(needle)) {
+                        ids.add(row.bookId());
+                    }
+                }
+                return ids;
+            }
+            case Author: {
+                String needle = query.toLowerCase();
+                Set<Integer> ids = new TreeSet<>();
+                for (Author author : authors.values()) {
+                    if (author.getFirstName().toLowerCase().contains(needle)
+                            || author.getLastName().toLowerCase().contains(needle)) {
+                        ids.addAll(booksOfAuthor.getOrDefault(author.getAuthorID(), Set.of()));
+                    }
+                }
+                return ids;
+            }
+            case Genre:
+                try {
+                    return byGenre.getOrDefault(Genre.valueOf(query.toUpperCase()), Set.of());
+                } catch (IllegalArgumentException e) {
+                    return List.of();
+                }
+            case Rating:
+                return byRating.getOrDefault(BookBatch.parseRating(query), Set.of());
+            case ISBN:
+                return byIsbn.getOrDefault(query, Set.of());
+            default:
+                throw new IllegalArgumentException("No search by " + mode);
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        String needle = query.toLowerCase();
+        lock.readLock().lock();
+        try {
+            openLog();
+            List<Book> candidates = new ArrayList<>();
+            for (BookRow row : books.values()) {
+                if (row.title().toLowerCase().contains(needle)) {
+                    candidates.add(toBook(row));
+                }
+            }
+            return RankedSearch.topK(candidates, query, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            Map<Integer, Integer> distances = fuzzyIndex.search(query, limit);
+            List<Book> result = new ArrayList<>();
+            for (int bookId : distances.keySet()) {
+                BookRow row = books.get(bookId);
+                if (row != null) {
+                    result.add(toBook(row));
+                }
+            }
+            result.sort(Comparator.comparing((Book book) -> distances.get(book.getBookId()))
+                    .thenComparing(Comparator.naturalOrder()));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            List<Book> result = new ArrayList<>();
+            publishedIndex.range(from.toEpochDay(), to.toEpochDay(), bookId -> {
+                BookRow row = books.get(bookId);
+                if ((genre == null || row.genre() == genre) && (rating == 0 || row.rating() == rating)) {
+                    result.add(toBook(row));
+                }
+            });
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            Map<String, Book> found = new LinkedHashMap<>();
+            for (String isbn : isbns) {
+                Set<Integer> ids = byIsbn.get(isbn);
+                if (ids != null && !ids.isEmpty()) {
+                    found.put(isbn, toBook(books.get(ids.iterator().next())));
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            return authorsOf(bookID);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            List<Author> result = new ArrayList<>();
+            for (Author author : authors.values()) {
+                result.add(copyOf(author));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            List<Author> result = new ArrayList<>();
+            for (Author author : authors.tailMap(authorID, false).values()) {
+                result.add(copyOf(author));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            return toBooks(booksOfAuthor.getOrDefault(authorID, Set.of()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walks the link maps, which already are an in-memory adjacency index.
+     */
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        lock.readLock().lock();
+        try {
+            openLog();
+            List<List<Author>> layers = new ArrayList<>();
+            Set<Integer> seen = new HashSet<>(List.of(authorID));
+            List<Integer> frontier = List.of(authorID);
+            while (layers.size() < depth) {
+                List<Integer> next = new ArrayList<>();
+                for (int author : frontier) {
+                    for (int bookId : booksOfAuthor.getOrDefault(author, Set.of())) {
+                        for (int coAuthor : authorsOfBook.get(bookId)) {
+                            if (seen.add(coAuthor) && authors.containsKey(coAuthor)) {
+                                next.add(coAuthor);
+                            }
+                        }
+                    }
+                }
+                if (next.isEmpty()) {
+                    break;
+                }
+                List<Author> layer = new ArrayList<>(next.size());
+                for (int coAuthor : next) {
+                    layer.add(copyOf(authors.get(coAuthor)));
+                }
+                layer.sort(null);
+                layers.add(layer);
+                frontier = next;
+            }
+            return layers;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Writes
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        CompletableFuture<Void> written;
+        lock.writeLock().lock();
+        try {
+            RecordLog current = openLog();
+            if (!books.containsKey(bookID)) {
+                throw new BooksDbException("No book found with ID: " + bookID);
+            }
+            byte[] record = encodeIds(DELETE_BOOK, bookID);
+            applyDeleteBook(bookID);
+            written = current.append(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        await(written, "Error deleting book");
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        Map<Integer, Boolean> outcome = new LinkedHashMap<>();
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            RecordLog current = openLog();
+            for (int bookID : bookIDs) {
+                boolean exists = books.containsKey(bookID);
+                outcome.put(bookID, exists || outcome.getOrDefault(bookID, false));
+                if (exists) {
+                    byte[] record = encodeIds(DELETE_BOOK, bookID);
+                    applyDeleteBook(bookID);
+                    written.add(current.append(record));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        await(CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])), "Error deleting books");
+        return outcome;
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        Map<Integer, Boolean> outcome = new LinkedHashMap<>();
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            RecordLog current = openLog();
+            for (Map.Entry<Integer, Integer> entry : ratings.entrySet()) {
+                Integer rating = entry.getValue();
+                boolean valid = books.containsKey(entry.getKey())
+                        && rating != null && rating >= 1 && rating <= 5;
+                outcome.put(entry.getKey(), valid);
+                if (valid) {
+                    byte[] record = encodeIds(RATING, entry.getKey(), rating);
+                    applyRating(entry.getKey(), rating);
+                    written.add(current.append(record));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        await(CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])), "Error updating book ratings");
+        return outcome;
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        BookRow row = new BookRow(book.getBookId(), book.getIsbn(), book.getTitle(),
+                toEpochDay(book.getPublished()), book.getRating(), book.getGenre());
+        CompletableFuture<Void> written;
+        lock.writeLock().lock();
+        try {
+            RecordLog current = openLog();
+            if (books.containsKey(row.bookId())) {
+                throw new BooksDbException("Duplicate book ID: " + row.bookId());
+            }
+            byte[] record = checkSize(encodeBook(row), "Book");
+            applyPutBook(row);
+            written = current.append(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        await(written, "Error adding book");
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        CompletableFuture<Void> written;
+        lock.writeLock().lock();
+        try {
+            RecordLog current = openLog();
+            if (authors.containsKey(author.getAuthorID())) {
+                throw new BooksDbException("Duplicate author ID: " + author.getAuthorID());
+            }
+            long birthDate = toEpochDay(author.getBirthDate());
+            byte[] record = checkSize(encodeAuthor(author.getAuthorID(), author.getFirstName(),
+                    author.getLastName(), birthDate), "Author");
+            applyPutAuthor(author.getAuthorID(), author.getFirstName(), author.getLastName(), birthDate);
+            written = current.append(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        await(written, "Error adding author");
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        int authorId = author.getAuthorID();
+        int bookId = book.getBookId();
+        CompletableFuture<Void> written;
+        lock.writeLock().lock();
+        try {
+            RecordLog current = openLog();
+            if (!authors.containsKey(authorId) || !books.containsKey(bookId)) {
+                throw new BooksDbException("Error linking author to book: no such author or book");
+            }
+            if (authorsOfBook.getOrDefault(bookId, Set.of()).contains(authorId)) {
+                throw new BooksDbException("Author " + authorId + " is already linked to book " + bookId);
+            }
+            byte[] record = encodeIds(LINK, authorId, bookId);
+            applyLink(authorId, bookId);
+            written = current.append(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        await(written, "Error linking author to book");
+    }
+
+    /**
+     * @return the open log, checked to still be healthy; call with the lock held
+     */
+    private RecordLog openLog() throws BooksDbException {
+        if (log == null) {
+            throw new BooksDbException("Not connected");
+        }
+        IOException failure = log.getFailure();
+        if (failure != null) {
+            throw new BooksDbException("Log write failed, reconnect to recover", failure);
+        }
+        return log;
+    }
+
+    /**
+     * Reject a record the log would refuse, before the change it records is applied.
+     */
+    private static byte[] checkSize(byte[] record, String what) throws BooksDbException {
+        if (record.length > RecordLog.MAX_RECORD_SIZE) {
+            throw new BooksDbException(what + " too large to store: " + record.length + " bytes, at most "
+                    + RecordLog.MAX_RECORD_SIZE + " allowed");
+        }
+        return record;
+    }
+
+    /**
+     * Wait until a change is on disk.
+     */
+    private static void await(CompletableFuture<Void> written, String message) throws BooksDbException {
+        try {
+            written.get();
+        } catch (ExecutionException e) {
+            throw new BooksDbException(message, e.getCause() instanceof Exception cause ? cause : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BooksDbException(message, e);
+        }
+    }
+
+    // Applying changes to the tables. Each change may be applied more than once
+    // during replay, so these never fail and repeating one changes nothing.
+
+    private void replay(ByteBuffer record) throws IOException {
+        byte type = record.get();
+        switch (type) {
+            case PUT_BOOK -> {
+                int bookId = record.getInt();
+                String isbn = getString(record);
+                String title = getString(record);
+                long published = record.getLong();
+                int rating = record.get();
+                int genre = record.get();
+                applyPutBook(new BookRow(bookId, isbn, title, published, rating,
+                        genre < 0 ? null : Genre.values()[genre]));
+            }
+            case DELETE_BOOK -> applyDeleteBook(record.getInt());
+            case PUT_AUTHOR -> applyPutAuthor(record.getInt(), getString(record),
+                    getString(record), record.getLong());
+            case LINK -> applyLink(record.getInt(), record.getInt());
+            case RATING -> applyRating(record.getInt(), record.getInt());
+            default -> throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    private void applyPutBook(BookRow row) {
+        BookRow old = books.put(row.bookId(), row);
+        if (old != null) {
+            unindex(old);
+        }
+        index(row);
+        fuzzyIndex.add(row.bookId(), row.title());
+    }
+
+    private void applyDeleteBook(int bookId) {
+        BookRow old = books.remove(bookId);
+        if (old != null) {
+            unindex(old);
+        }
+        Set<Integer> authorIds = authorsOfBook.remove(bookId);
+        if (authorIds != null) {
+            for (int authorId : authorIds) {
+                booksOfAuthor.get(authorId).remove(bookId);
+            }
+            links -= authorIds.size();
+        }
+        fuzzyIndex.remove(bookId);
+    }
+
+    private void applyRating(int bookId, int rating) {
+        BookRow old = books.get(bookId);
+        if (old != null && old.rating() != rating) {
+            applyPutBook(old.withRating(rating));
+        }
+    }
+
+    private void applyPutAuthor(int authorId, String firstName, String lastName, long birthDate) {
+        authors.put(authorId, new Author(authorId, firstName, lastName, toDate(birthDate)));
+    }
+
+    private void applyLink(int authorId, int bookId) {
+        if (authorsOfBook.computeIfAbsent(bookId, id -> new LinkedHashSet<>()).add(authorId)) {
+            booksOfAuthor.computeIfAbsent(authorId, id -> new TreeSet<>()).add(bookId);
+            links++;
+            Author author = authors.get(authorId);
+            if (author != null) {
+                fuzzyIndex.add(bookId, author.getFirstName() + " " + author.getLastName());
+            }
+        }
+    }
+
+    private void index(BookRow row) {
+        byIsbn.computeIfAbsent(row.isbn(), isbn -> new TreeSet<>()).add(row.bookId());
+        if (row.genre() != null) {
+            byGenre.computeIfAbsent(row.genre(), genre -> new TreeSet<>()).add(row.bookId());
+        }
+        byRating.computeIfAbsent(row.rating(), rating -> new TreeSet<>()).add(row.bookId());
+        if (row.published() != NO_DATE) {
+            publishedIndex.add((int) row.published(), row.bookId());
+        }
+    }
+
+    private void unindex(BookRow row) {
+        byIsbn.get(row.isbn()).remove(row.bookId());
+        if (row.genre() != null) {
+            byGenre.get(row.genre()).remove(row.bookId());
+        }
+        byRating.get(row.rating()).remove(row.bookId());
+        if (row.published() != NO_DATE) {
+            publishedIndex.remove((int) row.published(), row.bookId());
+        }
+    }
+
+    // Mapping rows to model objects
+
+    private ArrayList<Book> toBooks(Collection<Integer> bookIds) {
+        ArrayList<Book> result = new ArrayList<>(bookIds.size());
+        for (int bookId : bookIds) {
+            result.add(toBook(books.get(bookId)));
+        }
+        return result;
+    }
+
+    private Book toBook(BookRow row) {
+        Book book = new Book(row.bookId(), row.isbn(), row.title(), toDate(row.published()),
+                row.rating(), row.genre());
+        for (Author author : authorsOf(row.bookId())) {
+            book.addAuthors(author);
+        }
+        return book;
+    }
+
+    private List<Author> authorsOf(int bookId) {
+        List<Author> result = new ArrayList<>();
+        for (int authorId : authorsOfBook.getOrDefault(bookId, Set.of())) {
+            Author author = authors.get(authorId);
+            if (author != null) {
+                result.add(copyOf(author));
+            }
+        }
+        return result;
+    }
+
+    private static Author copyOf(Author author) {
+        return new Author(author.getAuthorID(), author.getFirstName(), author.getLastName(),
+                author.getBirthDate());
+    }
+
+    private static long toEpochDay(java.util.Date date) {
+        if (date == null) {
+            return NO_DATE;
+        }
+        Date sqlDate = date instanceof Date d ? d : new Date(date.getTime());
+        return sqlDate.toLocalDate().toEpochDay();
+    }
+
+    private static Date toDate(long epochDay) {
+        return epochDay == NO_DATE ? null : Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    // Record encoding
+
+    private static byte[] encodeBook(BookRow row) {
+        byte[] isbn = row.isbn().getBytes(StandardCharsets.UTF_8);
+        byte[] title = row.title().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 4 + isbn.length + 4 + title.length + 8 + 1 + 1);
+        buffer.put(PUT_BOOK);
+        buffer.putInt(row.bookId());
+        putString(buffer, isbn);
+        putString(buffer, title);
+        buffer.putLong(row.published());
+        buffer.put((byte) row.rating());
+        buffer.put((byte) (row.genre() == null ? -1 : row.genre().ordinal()));
+        return buffer.array();
+    }
+
+    private static byte[] encodeAuthor(int authorId, String firstName, String lastName, long birthDate) {
+        byte[] first = firstName.getBytes(StandardCharsets.UTF_8);
+        byte[] last = lastName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 4 + first.length + 4 + last.length + 8);
+        buffer.put(PUT_AUTHOR);
+        buffer.putInt(authorId);
+        putString(buffer, first);
+        putString(buffer, last);
+        buffer.putLong(birthDate);
+        return buffer.array();
+    }
+
+    private static byte[] encodeIds(byte type, int... ids) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 * ids.length);
+        buffer.put(type);
+        for (int id : ids) {
+            buffer.putInt(id);
+        }
+        return buffer.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,214 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A fixed size pool of database connections behind one BooksDbInterface. Each call
+ * borrows a connection for its duration, so up to pool size calls run concurrently
+ * and further callers wait for a free connection, up to a timeout.
+ */
+public class PooledBooksDb implements BooksDbInterface {
+    private static final long BORROW_TIMEOUT_MILLIS = 30_000;
+
+    private final Supplier<BooksDbInterface> factory;
+    private final int size;
+    private final List<BooksDbInterface> members = new ArrayList<>();
+    private volatile BlockingQueue<BooksDbInterface> idle;
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T apply(BooksDbInterface db) throws BooksDbException;
+    }
+
+    /**
+     * @param factory creates one unconnected database per pooled connection
+     * @param size    number of connections
+     */
+    public PooledBooksDb(Supplier<BooksDbInterface> factory, int size) {
+        this.factory = factory;
+        this.size = size;
+    }
+
+    @Override
+    public synchronized void connect(String database) throws BooksDbException {
+        disconnect();
+        BlockingQueue<BooksDbInterface> queue = new ArrayBlockingQueue<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                BooksDbInterface db = factory.get();
+                db.connect(database);
+                members.add(db);
+                queue.add(db);
+            }
+        } catch (BooksDbException e) {
+            disconnect();
+            throw e;
+        }
+        idle = queue;
+    }
+
+    @Override
+    public synchronized void disconnect() throws BooksDbException {
+        idle = null;
+        BooksDbException failure = null;
+        for (BooksDbInterface db : members) {
+            try {
+                db.disconnect();
+            } catch (BooksDbException e) {
+                failure = e;
+            }
+        }
+        members.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private <T> T call(Operation<T> operation) throws BooksDbException {
+        BlockingQueue<BooksDbInterface> queue = idle;
+        if (queue == null) {
+            throw new BooksDbException("Not connected to database");
+        }
+        BooksDbInterface db;
+        try {
+            db = queue.poll(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BooksDbException("Interrupted waiting for a database connection", e);
+        }
+        if (db == null) {
+            throw new BooksDbException("No free database connection");
+        }
+        try {
+            return operation.apply(db);
+        } finally {
+            queue.offer(db);
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return call(db -> db.searchBooksByTitle(title));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return call(db -> db.searchBooksByAuthor(authorName));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return call(db -> db.searchBooksByGenre(genre));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return call(db -> db.searchBooksByRating(rating));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return call(db -> db.searchBooksByISBN(ISBN));
+    }
+
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        return call(db -> db.searchBooksRanked(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        return call(db -> db.searchBooksFuzzy(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        return call(db -> db.searchBooksByPublished(from, to, genre, rating));
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        return call(db -> db.searchBooksByISBNs(isbns));
+    }
+
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        return call(db -> db.searchBooksBatch(mode, query));
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        call(db -> {
+            db.deleteBook(bookID);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        return call(db -> db.deleteBooks(bookIDs));
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        return call(db -> db.updateRatings(ratings));
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        call(db -> {
+            db.addBook(book);
+            return null;
+        });
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        call(db -> {
+            db.addAuthor(author);
+            return null;
+        });
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        call(db -> {
+            db.addAuthorToBook(author, book);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        return call(db -> db.getAuthorsForBook(bookID));
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return call(BooksDbInterface::getAllAuthors);
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        return call(db -> db.getAuthorsAfter(authorID));
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return call(db -> db.searchBooksByAuthorID(authorID));
+    }
+
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        return call(db -> db.getCoAuthors(authorID, depth));
+    }
+}
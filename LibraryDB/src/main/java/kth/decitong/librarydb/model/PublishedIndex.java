@@ -0,0 +1,52 @@
+package kth.decitong.librarydb.model;
+
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Index of books by publication date: (date as epoch day, book id) pairs packed into
+ * longs, which sort by date and then id, in a sorted set. A range is a view of the
+ * set between its bounds, so a query costs O(log n + k), and adding or removing a
+ * book costs O(log n). Books without a date are left out. Not thread safe.
+ */
+class PublishedIndex {
+    private final NavigableSet<Long> keys = new TreeSet<>();
+
+    void add(int day, int bookId) {
+        keys.add(key(day, bookId));
+    }
+
+    void remove(int day, int bookId) {
+        keys.remove(key(day, bookId));
+    }
+
+    void clear() {
+        keys.clear();
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    /**
+     * Pass the ids of the books published from fromDay to toDay, both inclusive, to
+     * the consumer, in date order.
+     */
+    void range(long fromDay, long toDay, IntConsumer bookIds) {
+        if (fromDay > toDay || fromDay > Integer.MAX_VALUE || toDay < Integer.MIN_VALUE) {
+            return;
+        }
+        // Book ids are not negative, so id 0 sorts first within a day.
+        long from = key((int) Math.max(fromDay, Integer.MIN_VALUE), 0);
+        NavigableSet<Long> range = toDay >= Integer.MAX_VALUE ? keys.tailSet(from, true)
+                : keys.subSet(from, true, key((int) toDay + 1, 0), false);
+        for (long key : range) {
+            bookIds.accept((int) key);
+        }
+    }
+
+    private static long key(int day, int bookId) {
+        return (long) day << 32 | (bookId & 0xFFFF_FFFFL);
+    }
+}
@@ -0,0 +1,97 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * A search by publication date as typed in the search field: a year, a range of
+ * years or dates, and optionally a genre and a rating, in any order, e.g.
+ * "2010-2015 crime", "2012 4" or "2010-03-01..2011-06-30 drama 5".
+ *
+ * @param from   first publication date, inclusive
+ * @param to     last publication date, inclusive
+ * @param genre  the genre to keep, or null for all genres
+ * @param rating the rating to keep, or 0 for all ratings
+ */
+public record PublishedRange(LocalDate from, LocalDate to, Genre genre, int rating) {
+
+    public PublishedRange {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("A date range needs both ends");
+        }
+        if (rating < 0 || rating > 5) {
+            throw new IllegalArgumentException("Rating must be between 1 and 5");
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not a date range search,
+     *                                  with a message for the user
+     */
+    public static PublishedRange parse(String text) {
+        LocalDate from = null;
+        LocalDate to = null;
+        Genre genre = null;
+        int rating = 0;
+        for (String token : text.trim().split("\\s+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (token.matches("[1-5]")) {
+                rating = Integer.parseInt(token);
+                continue;
+            }
+            Genre named = genre(token);
+            if (named != null) {
+                genre = named;
+                continue;
+            }
+            if (from != null) {
+                throw new IllegalArgumentException("Unexpected \"" + token + "\" in date range search");
+            }
+            String[] bounds = token.contains("..") ? token.split("\\.\\.", 2)
+                    : token.matches("\\d{4}-\\d{4}") ? token.split("-") : new String[]{token, token};
+            from = bound(bounds[0], false);
+            to = bound(bounds[1], true);
+        }
+        if (from == null) {
+            throw new IllegalArgumentException("Enter a year or a date range, e.g. 2010-2015");
+        }
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("The range ends before it starts");
+        }
+        return new PublishedRange(from, to, genre, rating);
+    }
+
+    /**
+     * @param end whether a year stands for its last day rather than its first
+     */
+    private static LocalDate bound(String text, boolean end) {
+        try {
+            if (text.matches("\\d{4}")) {
+                int year = Integer.parseInt(text);
+                return end ? LocalDate.of(year, 12, 31) : LocalDate.of(year, 1, 1);
+            }
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not a year or date (yyyy-mm-dd): " + text);
+        }
+    }
+
+    private static Genre genre(String token) {
+        try {
+            return Genre.valueOf(token.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the search in the canonical form that parse reads, e.g. as a cache key
+     */
+    @Override
+    public String toString() {
+        return from + ".." + to + (genre == null ? "" : " " + genre) + (rating == 0 ? "" : " " + rating);
+    }
+}
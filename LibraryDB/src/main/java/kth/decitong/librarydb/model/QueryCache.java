@@ -0,0 +1,95 @@
+package kth.decitong.librarydb.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of query results keyed by a string that
+ * names the operation and its arguments, e.g. "genre:CRIME". Entries can optionally
+ * expire after a max age.
+ * <p>
+ * Results computed before an invalidation are not stored after it: a search reads
+ * the generation before it runs and stores its result with put(key, result, generation).
+ */
+public class QueryCache {
+    private final LinkedHashMap<String, Entry> entries;
+    private final long maxAgeNanos;
+    /** Bumped by every invalidation. */
+    private long generation;
+
+    private static class Entry {
+        private final Object result;
+        private final long storedAt;
+
+        Entry(Object result, long storedAt) {
+            this.result = result;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * @param maxEntries max number of cached results
+     */
+    public QueryCache(int maxEntries) {
+        this(maxEntries, 0);
+    }
+
+    /**
+     * @param maxEntries   max number of cached results
+     * @param maxAgeMillis how long a result is served, 0 for no expiry
+     */
+    public QueryCache(int maxEntries, long maxAgeMillis) {
+        this.maxAgeNanos = maxAgeMillis * 1_000_000;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached result, or null if there is none or it has expired
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (maxAgeNanos > 0 && System.nanoTime() - entry.storedAt > maxAgeNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return (T) entry.result;
+    }
+
+    public synchronized void put(String key, Object result) {
+        entries.put(key, new Entry(result, System.nanoTime()));
+    }
+
+    /**
+     * Store a result unless the cache has been invalidated since generation was read.
+     */
+    public synchronized void put(String key, Object result, long generation) {
+        if (generation == this.generation) {
+            put(key, result);
+        }
+    }
+
+    /**
+     * @return the current generation, to be passed to put by a search about to run
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        generation++;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
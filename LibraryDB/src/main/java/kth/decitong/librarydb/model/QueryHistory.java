@@ -0,0 +1,181 @@
+package kth.decitong.librarydb.model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Counts the searches made by this client, and keeps the counts between sessions in
+ * a file, so the most frequent searches can be run ahead of time after connecting.
+ * <p>
+ * Counts are halved when loaded, so searches from recent sessions outweigh old ones,
+ * and only the most frequent searches are kept. The file has one search per line:
+ * count, search mode and query, separated by tabs.
+ */
+public class QueryHistory {
+    private static final int MAX_QUERIES = 200;
+
+    private final Path file;
+    private final Map<Query, Integer> counts = new HashMap<>();
+    private boolean loaded;
+
+    /**
+     * A search by mode and query text, with the query normalized the way the
+     * caches key it.
+     */
+    public record Query(SearchMode mode, String query) {
+    }
+
+    /**
+     * @param file where the history is kept between sessions
+     */
+    public QueryHistory(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * A history in ~/.librarydb/recent-queries.txt.
+     */
+    public QueryHistory() {
+        this(Path.of(System.getProperty("user.home"), ".librarydb", "recent-queries.txt"));
+    }
+
+    /**
+     * Read the history of earlier sessions, unless it has been read already, and add
+     * it to the searches counted so far. A missing file is an empty history.
+     */
+    public void load() throws IOException {
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            lines = List.of();
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            loaded = true;
+            for (String line : lines) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length < 3) {
+                    continue;
+                }
+                try {
+                    Query query = normalize(SearchMode.valueOf(parts[1]), parts[2]);
+                    if (query != null) {
+                        counts.merge(query, (Integer.parseInt(parts[0]) + 1) / 2, Integer::sum);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Not a line this version wrote; skip it.
+                }
+            }
+            trim();
+        }
+    }
+
+    /**
+     * Write the history, replacing the file in one step so a crash cannot leave it
+     * half written. The history of earlier sessions is read first if it has not been,
+     * so that it is kept.
+     */
+    public void save() throws IOException {
+        load();
+        List<Map.Entry<Query, Integer>> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(counts.entrySet());
+        }
+        entries.sort(Map.Entry.<Query, Integer>comparingByValue().reversed());
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Query, Integer> entry : entries) {
+                out.write(entry.getValue() + "\t" + entry.getKey().mode().name() + "\t" + entry.getKey().query());
+                out.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Count a search. Searches that cannot be run again ahead of time are ignored.
+     */
+    public synchronized void record(SearchMode mode, String query) {
+        Query normalized = normalize(mode, query);
+        if (normalized != null) {
+            counts.merge(normalized, 1, Integer::sum);
+            trim();
+        }
+    }
+
+    /**
+     * @return up to limit searches, most frequent first
+     */
+    public synchronized List<Query> mostFrequent(int limit) {
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<Query, Integer>comparingByValue().reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public synchronized int size() {
+        return counts.size();
+    }
+
+    private void trim() {
+        if (counts.size() <= MAX_QUERIES) {
+            return;
+        }
+        List<Map.Entry<Query, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+        for (int i = 0; i < entries.size() - MAX_QUERIES; i++) {
+            counts.remove(entries.get(i).getKey());
+        }
+    }
+
+    /**
+     * @return the query as the Controller runs it, or null if it is not worth keeping
+     */
+    private static Query normalize(SearchMode mode, String query) {
+        if (query == null || mode == SearchMode.All) {
+            return null;
+        }
+        String text = query.trim();
+        if (text.isEmpty() || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            return null;
+        }
+        switch (mode) {
+            case Genre:
+                return new Query(mode, text.toUpperCase(Locale.ROOT));
+            case Rating:
+                try {
+                    return new Query(mode, String.valueOf(Integer.parseInt(text)));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            case Published:
+                try {
+                    return new Query(mode, PublishedRange.parse(text).toString());
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            default:
+                return new Query(mode, text);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Relevance scoring for ranked title searches.
+ * <p>
+ * A title equal to the query scores highest, then a title starting with it, then a
+ * title merely containing it. Higher rated and more recently published books get a
+ * boost on top of that. The same score is available as a SQL expression, so databases
+ * can order and limit in the query, and as Java code with a bounded heap for
+ * implementations that search in memory or merge results from several sources.
+ */
+public final class RankedSearch {
+    private static final int EXACT_SCORE = 100;
+    private static final int PREFIX_SCORE = 50;
+    private static final int SUBSTRING_SCORE = 20;
+    private static final int RATING_WEIGHT = 4;
+    private static final int RECENCY_WEIGHT = 10;
+    /** Age in days at which the recency boost has decayed to 1/e, about 20 years. */
+    private static final int RECENCY_DAYS = 7305;
+
+    /** Best first; ties broken by the natural order of books. */
+    public static final Comparator<ScoredBook> BEST_FIRST =
+            Comparator.comparingDouble(ScoredBook::getScore).reversed()
+                    .thenComparing(ScoredBook::getBook);
+
+    private RankedSearch() {}
+
+    /**
+     * SQL expression computing the score of a row in Book. It expects two parameters:
+     * the query, and the query followed by '%'.
+     */
+    static String sqlScore() {
+        return "(CASE WHEN title = ? THEN " + EXACT_SCORE + " WHEN title LIKE ? THEN " + PREFIX_SCORE
+                + " ELSE " + SUBSTRING_SCORE + " END + rating * " + RATING_WEIGHT
+                + " + COALESCE(" + RECENCY_WEIGHT + " * EXP(-DATEDIFF(CURDATE(), published) / "
+                + RECENCY_DAYS + "), 0))";
+    }
+
+    /**
+     * @return the score of the book for the query, or a negative value if the title
+     *         does not contain the query
+     */
+    public static double score(Book book, String query) {
+        String title = book.getTitle().toLowerCase();
+        String q = query.toLowerCase();
+        int match;
+        if (title.equals(q)) {
+            match = EXACT_SCORE;
+        } else if (title.startsWith(q)) {
+            match = PREFIX_SCORE;
+        } else if (title.contains(q)) {
+            match = SUBSTRING_SCORE;
+        } else {
+            return -1;
+        }
+        double recency = 0;
+        if (book.getPublished() != null) {
+            long days = ChronoUnit.DAYS.between(book.getPublished().toLocalDate(), LocalDate.now());
+            recency = RECENCY_WEIGHT * Math.exp(-(double) days / RECENCY_DAYS);
+        }
+        return match + book.getRating() * RATING_WEIGHT + recency;
+    }
+
+    /**
+     * Keep the k best matching books using a heap of at most k entries.
+     *
+     * @return the matching books, best first
+     */
+    public static List<Book> topK(Iterable<Book> books, String query, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<ScoredBook> heap = newHeap(k);
+        for (Book book : books) {
+            double score = score(book, query);
+            if (score >= 0) {
+                offer(heap, new ScoredBook(book, score), k);
+            }
+        }
+        return bestFirst(heap);
+    }
+
+    /**
+     * Keep the k best of already scored books, e.g. when merging ranked results.
+     *
+     * @return the books, best first
+     */
+    public static List<Book> best(Iterable<ScoredBook> scored, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<ScoredBook> heap = newHeap(k);
+        for (ScoredBook candidate : scored) {
+            offer(heap, candidate, k);
+        }
+        return bestFirst(heap);
+    }
+
+    /** A heap with the worst of the books kept so far on top. */
+    private static PriorityQueue<ScoredBook> newHeap(int k) {
+        return new PriorityQueue<>(k + 1, BEST_FIRST.reversed());
+    }
+
+    private static void offer(PriorityQueue<ScoredBook> heap, ScoredBook candidate, int k) {
+        heap.add(candidate);
+        if (heap.size() > k) {
+            heap.poll();
+        }
+    }
+
+    private static List<Book> bestFirst(PriorityQueue<ScoredBook> heap) {
+        List<ScoredBook> best = new ArrayList<>(heap);
+        best.sort(BEST_FIRST);
+        List<Book> result = new ArrayList<>(best.size());
+        for (ScoredBook sb : best) {
+            result.add(sb.getBook());
+        }
+        return result;
+    }
+
+    /**
+     * A book together with its relevance score.
+     */
+    public static class ScoredBook {
+        private final Book book;
+        private final double score;
+
+        public ScoredBook(Book book, double score) {
+            this.book = book;
+            this.score = score;
+        }
+
+        public Book getBook() { return book; }
+
+        public double getScore() { return score; }
+    }
+}
@@ -0,0 +1,348 @@
+package kth.decitong.librarydb.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of checksummed records with group commit.
+ * <p>
+ * Each record is stored as its payload length, the CRC32 of the payload and the
+ * payload. Appends are queued and written by a single writer thread, which writes
+ * every record queued so far and then forces them to disk with one fsync, so
+ * concurrent writers share the cost of the fsync. An append is durable when its
+ * future completes. A record may be at most MAX_RECORD_SIZE bytes, the size that
+ * replay accepts; a larger one is rejected instead of being written.
+ * <p>
+ * On open the file is read from the start and every intact record is handed to a
+ * replayer. Reading stops at the first record that is cut short or fails its
+ * checksum, which is what a crash in the middle of a write leaves behind, and the
+ * file is truncated there.
+ * <p>
+ * Compaction writes a snapshot of the live records to a new file, forces it and
+ * atomically renames it over the log, so a crash leaves either the old or the new log.
+ */
+class RecordLog implements Closeable {
+    private static final int HEADER_SIZE = 8;
+    static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int MAX_BATCH = 1024;
+
+    private final Path path;
+    private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel channel;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private long records;
+
+    @FunctionalInterface
+    interface Replayer {
+        void apply(ByteBuffer payload) throws IOException;
+    }
+
+    private static class Task {
+        private final byte[] payload;
+        private final Supplier<List<byte[]>> snapshot;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Task(byte[] payload, Supplier<List<byte[]>> snapshot) {
+            this.payload = payload;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private static final Task STOP = new Task(null, null);
+
+    private RecordLog(Path path, FileChannel channel, long records) {
+        this.path = path;
+        this.channel = channel;
+        this.records = records;
+        writer = new Thread(this::writeLoop, "record-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Open or create a log, replaying its records and cutting off a torn tail.
+     */
+    static RecordLog open(Path path, Replayer replayer) throws IOException {
+        Files.deleteIfExists(compactionPath(path));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        long position = 0;
+        long count = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_SIZE);
+            crc.reset();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            payload.flip();
+            replayer.apply(payload);
+            position += HEADER_SIZE + length;
+            count++;
+        }
+        if (position < size) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+        return new RecordLog(path, channel, count);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of log");
+            }
+        }
+    }
+
+    private static Path compactionPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    /**
+     * Queue a record for writing.
+     *
+     * @return completes when the record is on disk, or exceptionally if it is larger
+     *         than MAX_RECORD_SIZE
+     */
+    CompletableFuture<Void> append(byte[] payload) {
+        if (payload.length > MAX_RECORD_SIZE) {
+            return CompletableFuture.failedFuture(new IOException("Record of " + payload.length
+                    + " bytes exceeds the maximum of " + MAX_RECORD_SIZE + " bytes"));
+        }
+        return submit(new Task(payload, null));
+    }
+
+    /**
+     * Replace the log with the records returned by the snapshot supplier. The supplier
+     * is called on the writer thread after every record queued before this call has
+     * been written.
+     *
+     * @return completes when the compacted log has replaced the old one
+     */
+    CompletableFuture<Void> compact(Supplier<List<byte[]>> snapshot) {
+        return submit(new Task(null, snapshot));
+    }
+
+    private synchronized CompletableFuture<Void> submit(Task task) {
+        if (failure != null) {
+            task.done.completeExceptionally(failure);
+        } else if (closed) {
+            task.done.completeExceptionally(new IOException("Log is closed"));
+        } else {
+            queue.add(task);
+        }
+        return task.done;
+    }
+
+    /**
+     * @return number of records in the log file
+     */
+    synchronized long getRecordCount() {
+        return records;
+    }
+
+    private void writeLoop() {
+        List<Task> batch = new ArrayList<>();
+        while (true) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            List<Task> appends = new ArrayList<>();
+            for (Task task : batch) {
+                if (task == STOP) {
+                    complete(appends);
+                    return;
+                }
+                if (task.snapshot == null) {
+                    appends.add(task);
+                    continue;
+                }
+                complete(appends);
+                appends.clear();
+                try {
+                    rewrite(task.snapshot.get());
+                    task.done.complete(null);
+                } catch (IOException e) {
+                    task.done.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    task.done.completeExceptionally(e);
+                }
+            }
+            complete(appends);
+        }
+    }
+
+    /**
+     * Write and fsync a group of appends, then complete their futures.
+     */
+    private void complete(List<Task> appends) {
+        if (appends.isEmpty()) {
+            return;
+        }
+        if (failure == null) {
+            try {
+                int size = 0;
+                for (Task task : appends) {
+                    size += HEADER_SIZE + task.payload.length;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                for (Task task : appends) {
+                    putRecord(buffer, task.payload);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                synchronized (this) {
+                    records += appends.size();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        for (Task task : appends) {
+            if (failure == null) {
+                task.done.complete(null);
+            } else {
+                task.done.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+    }
+
+    private void rewrite(List<byte[]> snapshot) throws IOException {
+        Path tmp = compactionPath(path);
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            for (byte[] payload : snapshot) {
+                if (buffer.remaining() < HEADER_SIZE + payload.length) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                    if (buffer.remaining() < HEADER_SIZE + payload.length) {
+                        buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+                    }
+                }
+                putRecord(buffer, payload);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        } catch (IOException e) {
+            // The old log is untouched, so only this compaction fails.
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            channel.close();
+            try {
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            forceDirectory(path.toAbsolutePath().getParent());
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+        synchronized (this) {
+            records = snapshot.size();
+        }
+    }
+
+    /**
+     * Make the rename durable. Not every platform can open a directory, in which case
+     * the rename is left to the file system.
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // Best effort.
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * @return the error that stopped the log, or null if it is healthy
+     */
+    IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Write everything queued so far, then close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(STOP);
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,342 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a BooksDbInterface usable across database restarts.
+ * <p>
+ * When a call fails because the connection was lost, a new database from the factory
+ * is connected, with jittered exponential backoff, and searches are retried once. The
+ * new database replaces the old one only once it is connected, and the old one is
+ * closed after that, so other threads never see a half open connection; calls still
+ * running on the old one fail and share the reconnect. Writes are not retried,
+ * since the lost call may already have been applied, but the next write gets the new
+ * connection. Repeated connection failures open a circuit breaker; while it is open
+ * calls fail immediately instead of piling up threads, and searches are answered from
+ * the last successful result for the same query when there is one.
+ */
+public class ResilientBooksDb implements BooksDbInterface {
+    private static final int MAX_RECONNECT_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 2_000;
+    /**
+     * The outcome of a reconnect this recent, successful or not, is shared by threads
+     * that failed on the old connection, instead of each trying again.
+     */
+    private static final long RECENT_RECONNECT_NANOS = 1_000_000_000L;
+
+    private final Supplier<BooksDbInterface> factory;
+    private volatile BooksDbInterface delegate;
+    private final CircuitBreaker breaker;
+    private final QueryCache lastResults;
+    private final Object reconnectLock = new Object();
+    private volatile String database;
+    // When the last reconnect ended and whether it succeeded; guarded by reconnectLock.
+    private long lastReconnectAt;
+    private boolean lastReconnectSucceeded;
+
+    /**
+     * @param factory creates the unconnected database to protect, again on each reconnect
+     */
+    public ResilientBooksDb(Supplier<BooksDbInterface> factory) {
+        this(factory, new CircuitBreaker(5, 10_000), new QueryCache(500));
+    }
+
+    /**
+     * @param factory     creates the unconnected database to protect, again on each reconnect
+     * @param breaker     circuit breaker for connection failures
+     * @param lastResults cache of last successful search results
+     */
+    public ResilientBooksDb(Supplier<BooksDbInterface> factory, CircuitBreaker breaker, QueryCache lastResults) {
+        this.factory = factory;
+        this.delegate = factory.get();
+        this.breaker = breaker;
+        this.lastResults = lastResults;
+    }
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T apply(BooksDbInterface db) throws BooksDbException;
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return breaker.getState();
+    }
+
+    @Override
+    public void connect(String database) throws BooksDbException {
+        delegate.connect(database);
+        this.database = database;
+        breaker.recordSuccess();
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        database = null;
+        lastResults.invalidateAll();
+        delegate.disconnect();
+    }
+
+    /**
+     * Run a search, reconnecting and retrying once if the connection was lost.
+     *
+     * @param key cache key of the search, or null if the result should not be cached
+     */
+    private <T> T read(String key, Operation<T> operation) throws BooksDbException {
+        if (!breaker.allowRequest()) {
+            return cachedOrThrow(key, new BooksDbException("Database unavailable, try again later"));
+        }
+        try {
+            return succeeded(key, operation.apply(delegate));
+        } catch (BooksDbException e) {
+            if (!e.isConnectionFailure()) {
+                breaker.recordSuccess();
+                throw e;
+            }
+            if (reconnect()) {
+                try {
+                    return succeeded(key, operation.apply(delegate));
+                } catch (BooksDbException retryFailure) {
+                    if (!retryFailure.isConnectionFailure()) {
+                        breaker.recordSuccess();
+                        throw retryFailure;
+                    }
+                }
+            }
+            breaker.recordFailure();
+            return cachedOrThrow(key, e);
+        }
+    }
+
+    private <T> T succeeded(String key, T result) {
+        breaker.recordSuccess();
+        if (key != null) {
+            lastResults.put(key, result);
+        }
+        return result;
+    }
+
+    private <T> T cachedOrThrow(String key, BooksDbException e) throws BooksDbException {
+        T cached = key == null ? null : lastResults.get(key);
+        if (cached == null) {
+            throw e;
+        }
+        return cached;
+    }
+
+    private <T> T write(Operation<T> operation) throws BooksDbException {
+        if (!breaker.allowRequest()) {
+            throw new BooksDbException("Database unavailable, try again later");
+        }
+        try {
+            T result = operation.apply(delegate);
+            breaker.recordSuccess();
+            lastResults.invalidateAll();
+            return result;
+        } catch (BooksDbException e) {
+            if (e.isConnectionFailure()) {
+                if (reconnect()) {
+                    breaker.recordSuccess();
+                } else {
+                    breaker.recordFailure();
+                }
+            } else {
+                breaker.recordSuccess();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Re-open the connection, waiting a jittered, exponentially growing time between
+     * attempts. Threads that fail at the same time share one reconnect: a thread that
+     * waited for another's reconnect, or arrives shortly after one, gets its outcome,
+     * so while the database is down only one thread at a time backs off.
+     *
+     * @return true if the database is connected again
+     */
+    private boolean reconnect() {
+        long failedAt = System.nanoTime();
+        synchronized (reconnectLock) {
+            if (lastReconnectAt != 0 && failedAt - lastReconnectAt < RECENT_RECONNECT_NANOS) {
+                return lastReconnectSucceeded;
+            }
+            String db = database;
+            if (db == null) {
+                return false;
+            }
+            boolean connected = reconnect(db);
+            lastReconnectAt = System.nanoTime();
+            lastReconnectSucceeded = connected;
+            return connected;
+        }
+    }
+
+    private boolean reconnect(String db) {
+        for (int attempt = 0; attempt < MAX_RECONNECT_ATTEMPTS; attempt++) {
+            if (attempt > 0 && !sleep(backoffMillis(attempt))) {
+                return false;
+            }
+            BooksDbInterface fresh = factory.get();
+            try {
+                fresh.connect(db);
+            } catch (BooksDbException | RuntimeException e) {
+                try {
+                    fresh.disconnect();
+                } catch (BooksDbException | RuntimeException ignored) {
+                    // It never got a working connection.
+                }
+                continue;
+            }
+            BooksDbInterface old = delegate;
+            delegate = fresh;
+            try {
+                old.disconnect();
+            } catch (BooksDbException | RuntimeException e) {
+                // The old connection is broken, closing it may fail.
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static long backoffMillis(int attempt) {
+        long max = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+        return ThreadLocalRandom.current().nextLong(max / 2, max + 1);
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return read("title:" + title, db -> db.searchBooksByTitle(title));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return read("author:" + authorName, db -> db.searchBooksByAuthor(authorName));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return read("genre:" + genre, db -> db.searchBooksByGenre(genre));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return read("rating:" + rating, db -> db.searchBooksByRating(rating));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return read("isbn:" + ISBN, db -> db.searchBooksByISBN(ISBN));
+    }
+
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        return read("ranked:" + limit + ":" + query, db -> db.searchBooksRanked(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        return read("fuzzy:" + limit + ":" + query, db -> db.searchBooksFuzzy(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        return read("published:" + from + ".." + to + ":" + genre + ":" + rating,
+                db -> db.searchBooksByPublished(from, to, genre, rating));
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        return read(null, db -> db.searchBooksByISBNs(isbns));
+    }
+
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        return read("batch:" + mode + ":" + query, db -> db.searchBooksBatch(mode, query));
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        write(db -> {
+            db.deleteBook(bookID);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        return write(db -> db.deleteBooks(bookIDs));
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        return write(db -> db.updateRatings(ratings));
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        write(db -> {
+            db.addBook(book);
+            return null;
+        });
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        write(db -> {
+            db.addAuthor(author);
+            return null;
+        });
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        write(db -> {
+            db.addAuthorToBook(author, book);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        return read("authorsOf:" + bookID, db -> db.getAuthorsForBook(bookID));
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return read("allAuthors", BooksDbInterface::getAllAuthors);
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        return read("authorsAfter:" + authorID, db -> db.getAuthorsAfter(authorID));
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return read("booksOfAuthor:" + authorID, db -> db.searchBooksByAuthorID(authorID));
+    }
+
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        return read("coAuthors:" + depth + ":" + authorID, db -> db.getCoAuthors(authorID, depth));
+    }
+}
@@ -0,0 +1,320 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Routes writes to a primary database and spreads searches round robin over a set of
+ * read replicas.
+ * <p>
+ * A replica that fails with a connection error is taken out of rotation and the search
+ * is retried on the next replica, falling back to the primary when no replica is
+ * healthy. A background health check probes the healthy replicas and replaces each
+ * failed one by a freshly connected instance from its factory, so a replica object is
+ * never reconnected while searches may still be using it. Optionally, reads issued
+ * within a read-your-writes window after a write go to the primary, so a client sees
+ * its own writes despite replica lag.
+ */
+public class RoutingBooksDb implements BooksDbInterface {
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = 5_000;
+
+    private final BooksDbInterface primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long readYourWritesNanos;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private volatile long lastWriteNanos;
+    private volatile boolean written;
+    private volatile String database;
+    private ScheduledExecutorService healthCheck;
+
+    /**
+     * @param primary              database that receives all writes
+     * @param replicas             create unconnected instances of the databases that serve
+     *                             searches, one factory per replica
+     * @param readYourWritesMillis how long after a write reads go to the primary, 0 to disable
+     */
+    public RoutingBooksDb(BooksDbInterface primary, List<Supplier<BooksDbInterface>> replicas,
+                          long readYourWritesMillis) {
+        this.primary = primary;
+        for (Supplier<BooksDbInterface> replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+        this.readYourWritesNanos = readYourWritesMillis * 1_000_000;
+    }
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T apply(BooksDbInterface db) throws BooksDbException;
+    }
+
+    private static class Replica {
+        private final Supplier<BooksDbInterface> factory;
+        // Replaced as a whole by the health check, never reconnected in place.
+        private volatile BooksDbInterface db;
+        private volatile boolean healthy;
+
+        Replica(Supplier<BooksDbInterface> factory) {
+            this.factory = factory;
+            this.db = factory.get();
+        }
+    }
+
+    /**
+     * Connect to the primary, which must succeed, and to every replica that is reachable.
+     */
+    @Override
+    public void connect(String database) throws BooksDbException {
+        primary.connect(database);
+        this.database = database;
+        for (Replica replica : replicas) {
+            try {
+                replica.db.connect(database);
+                replica.healthy = true;
+            } catch (BooksDbException e) {
+                replica.healthy = false;
+            }
+        }
+        healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthCheck.scheduleWithFixedDelay(this::checkReplicas,
+                HEALTH_CHECK_INTERVAL_MILLIS, HEALTH_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        if (healthCheck != null) {
+            healthCheck.shutdownNow();
+            healthCheck = null;
+        }
+        database = null;
+        for (Replica replica : replicas) {
+            replica.healthy = false;
+            try {
+                replica.db.disconnect();
+            } catch (BooksDbException e) {
+                // The replica is being dropped anyway.
+            }
+        }
+        primary.disconnect();
+    }
+
+    /**
+     * @return number of replicas currently in rotation
+     */
+    public int getHealthyReplicaCount() {
+        int count = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void checkReplicas() {
+        String db = database;
+        if (db == null) {
+            return;
+        }
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                try {
+                    replica.db.getAuthorsForBook(-1);
+                } catch (BooksDbException | RuntimeException e) {
+                    replica.healthy = false;
+                }
+            } else {
+                replace(replica, db);
+            }
+        }
+    }
+
+    /**
+     * Connect a new instance of a failed replica and, if it answers, put it in rotation
+     * in place of the old one, which is then closed.
+     */
+    private void replace(Replica replica, String database) {
+        BooksDbInterface fresh = replica.factory.get();
+        try {
+            fresh.connect(database);
+            fresh.getAuthorsForBook(-1);
+        } catch (BooksDbException | RuntimeException e) {
+            try {
+                fresh.disconnect();
+            } catch (BooksDbException | RuntimeException ignored) {
+                // It never got a working connection.
+            }
+            return;
+        }
+        BooksDbInterface old = replica.db;
+        replica.db = fresh;
+        replica.healthy = true;
+        try {
+            old.disconnect();
+        } catch (BooksDbException | RuntimeException e) {
+            // The old connection is dead already.
+        }
+    }
+
+    private <T> T read(Operation<T> operation) throws BooksDbException {
+        if (written && System.nanoTime() - lastWriteNanos < readYourWritesNanos) {
+            return operation.apply(primary);
+        }
+        int count = replicas.size();
+        int start = count == 0 ? 0 : Math.floorMod(nextReplica.getAndIncrement(), count);
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            BooksDbInterface db = replica.db;
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                return operation.apply(db);
+            } catch (BooksDbException e) {
+                if (!e.isConnectionFailure()) {
+                    throw e;
+                }
+                replica.healthy = false;
+            }
+        }
+        return operation.apply(primary);
+    }
+
+    private <T> T write(Operation<T> operation) throws BooksDbException {
+        try {
+            return operation.apply(primary);
+        } finally {
+            lastWriteNanos = System.nanoTime();
+            written = true;
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return read(db -> db.searchBooksByTitle(title));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return read(db -> db.searchBooksByAuthor(authorName));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return read(db -> db.searchBooksByGenre(genre));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return read(db -> db.searchBooksByRating(rating));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return read(db -> db.searchBooksByISBN(ISBN));
+    }
+
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        return read(db -> db.searchBooksRanked(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        return read(db -> db.searchBooksFuzzy(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        return read(db -> db.searchBooksByPublished(from, to, genre, rating));
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        return read(db -> db.searchBooksByISBNs(isbns));
+    }
+
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        return read(db -> db.searchBooksBatch(mode, query));
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        write(db -> {
+            db.deleteBook(bookID);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        return write(db -> db.deleteBooks(bookIDs));
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        return write(db -> db.updateRatings(ratings));
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        write(db -> {
+            db.addBook(book);
+            return null;
+        });
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        write(db -> {
+            db.addAuthor(author);
+            return null;
+        });
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        write(db -> {
+            db.addAuthorToBook(author, book);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        return read(db -> db.getAuthorsForBook(bookID));
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return read(BooksDbInterface::getAllAuthors);
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        return read(db -> db.getAuthorsAfter(authorID));
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return read(db -> db.searchBooksByAuthorID(authorID));
+    }
+
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        return read(db -> db.getCoAuthors(authorID, depth));
+    }
+}
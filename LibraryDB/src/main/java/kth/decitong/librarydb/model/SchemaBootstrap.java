@@ -0,0 +1,139 @@
+package kth.decitong.librarydb.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates and verifies the indexes the search queries in BooksDbImpl rely on.
+ * Creating them is run once per database, by the CreateIndexes tool; every step is
+ * idempotent. A connection only verifies them, with one query against
+ * information_schema and no DDL.
+ * <p>
+ * An index counts as present if some index on the table starts with the same columns
+ * in the same order, which serves the same lookups, so indexes created by hand or by a
+ * primary/foreign key are reused instead of duplicated. A FULLTEXT index must be a
+ * FULLTEXT index on exactly those columns.
+ */
+class SchemaBootstrap {
+
+    /** A required index: table, index name, column list and whether it is FULLTEXT. */
+    private static final String[][] REQUIRED_INDEXES = {
+            {"Book", "idx_book_isbn", "isbn", ""},
+            // Before idx_book_genre, which it makes unnecessary.
+            {"Book", "idx_book_genre_published", "genre, published", ""},
+            {"Book", "idx_book_genre", "genre", ""},
+            {"Book", "idx_book_rating", "rating", ""},
+            {"Book", "idx_book_published", "published", ""},
+            {"AuthorOfBook", "idx_aob_author", "authorID, bookID", ""},
+            {"AuthorOfBook", "idx_aob_book", "bookID, authorID", ""},
+            {"Book", "ft_book_title", "title", "FULLTEXT"},
+            {"Author", "ft_author_name", "firstName, lastName", "FULLTEXT"},
+    };
+
+    private final Connection conn;
+    private final List<String> missing = new ArrayList<>();
+
+    SchemaBootstrap(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Create any missing index, then check that all of them exist.
+     *
+     * @throws SQLException if the existing indexes cannot be read
+     */
+    void run() throws SQLException {
+        Map<String, String> existing = existingIndexes();
+        for (String[] index : REQUIRED_INDEXES) {
+            if (!isPresent(existing, index)) {
+                String sql = "CREATE " + index[3] + " INDEX " + index[1] + " ON " + index[0] + " (" + index[2] + ")";
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate(sql);
+                    existing.put(index[0].toLowerCase() + "." + index[1], description(index[0], index[2], index[3]));
+                } catch (SQLException e) {
+                    // Verified below; a missing index only makes the searches slower.
+                }
+            }
+        }
+
+        verify();
+    }
+
+    /**
+     * Check which of the indexes exist, without creating any.
+     *
+     * @throws SQLException if the existing indexes cannot be read
+     */
+    void verify() throws SQLException {
+        Map<String, String> existing = existingIndexes();
+        missing.clear();
+        for (String[] index : REQUIRED_INDEXES) {
+            if (!isPresent(existing, index)) {
+                missing.add(index[1]);
+            }
+        }
+    }
+
+    /**
+     * @return names of required indexes that could not be created
+     */
+    List<String> getMissingIndexes() {
+        return new ArrayList<>(missing);
+    }
+
+    boolean hasTitleFullText() {
+        return !missing.contains("ft_book_title");
+    }
+
+    boolean hasAuthorFullText() {
+        return !missing.contains("ft_author_name");
+    }
+
+    /**
+     * @return description of each index in the database, see description, by table
+     *         and index name
+     */
+    private Map<String, String> existingIndexes() throws SQLException {
+        Map<String, List<String>> columns = new LinkedHashMap<>();
+        Map<String, String> types = new LinkedHashMap<>();
+        String sql = "SELECT TABLE_NAME, INDEX_NAME, COLUMN_NAME, INDEX_TYPE FROM information_schema.STATISTICS " +
+                "WHERE TABLE_SCHEMA = DATABASE() ORDER BY TABLE_NAME, INDEX_NAME, SEQ_IN_INDEX";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                String name = rs.getString(1).toLowerCase() + "." + rs.getString(2);
+                columns.computeIfAbsent(name, n -> new ArrayList<>()).add(rs.getString(3));
+                types.put(name, "FULLTEXT".equalsIgnoreCase(rs.getString(4)) ? "FULLTEXT" : "");
+            }
+        }
+        Map<String, String> indexes = new LinkedHashMap<>();
+        columns.forEach((name, list) -> indexes.put(name,
+                description(name.substring(0, name.indexOf('.')), String.join(",", list), types.get(name))));
+        return indexes;
+    }
+
+    private static boolean isPresent(Map<String, String> existing, String[] index) {
+        String required = description(index[0], index[2], index[3]);
+        boolean fullText = !index[3].isEmpty();
+        for (String present : existing.values()) {
+            if (fullText ? present.equals(required) : present.equals(required) || present.startsWith(required + ",")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return e.g. "FULLTEXT author:firstname,lastname" or " book:genre,published"
+     */
+    private static String description(String table, String columns, String type) {
+        return type + " " + table.toLowerCase() + ":" + columns.replace(" ", "").toLowerCase();
+    }
+}
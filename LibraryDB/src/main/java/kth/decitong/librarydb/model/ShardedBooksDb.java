@@ -0,0 +1,467 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the catalog over several databases (shards) with the same schema.
+ * <p>
+ * Each book lives in one shard, chosen by a fixed hash of its id, together with its
+ * AuthorOfBook rows, so that a book and its author links can be read and written
+ * on one shard. Authors are written to every shard, so author searches can join
+ * locally. Lookups and writes of known books go to their shard. Searches go to all
+ * shards in parallel and their results are merged: lists in the order of
+ * Book.compareTo, ranked and fuzzy results by score, batches by book id. A search
+ * fails if any shard fails, rather than returning part of the catalog.
+ * <p>
+ * The shard of a book depends on the number of shards, so shards cannot be added
+ * to a catalog that already has books without moving them.
+ */
+public class ShardedBooksDb implements BooksDbInterface {
+    private final List<BooksDbInterface> shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private volatile ExecutorService executor;
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T apply(BooksDbInterface db) throws BooksDbException;
+    }
+
+    /**
+     * @param shards the databases to spread the catalog over, in a fixed order
+     */
+    public ShardedBooksDb(List<? extends BooksDbInterface> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No shards");
+        }
+        this.shards = new ArrayList<>(shards);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return index of the shard that holds the book with the given id
+     */
+    public int shardOf(int bookId) {
+        // The finalizer of MurmurHash3, so that ids that differ in a few bits spread evenly.
+        int h = bookId;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shards.size());
+    }
+
+    private BooksDbInterface shardFor(int bookId) {
+        return shards.get(shardOf(bookId));
+    }
+
+    /**
+     * Connect every shard to the database with the given name; if one fails, the
+     * others are disconnected again.
+     */
+    @Override
+    public void connect(String database) throws BooksDbException {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        List<Callable<BooksDbInterface>> tasks = new ArrayList<>();
+        for (BooksDbInterface shard : shards) {
+            tasks.add(() -> {
+                shard.connect(database);
+                return shard;
+            });
+        }
+        try {
+            runAll(tasks);
+        } catch (BooksDbException e) {
+            disconnectQuietly();
+            throw e;
+        }
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        BooksDbException failure = null;
+        for (BooksDbInterface shard : shards) {
+            try {
+                shard.disconnect();
+            } catch (BooksDbException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        ExecutorService stopping = executor;
+        executor = null;
+        if (stopping != null) {
+            stopping.shutdown();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void disconnectQuietly() {
+        try {
+            disconnect();
+        } catch (BooksDbException e) {
+            // Reporting the connect failure instead.
+        }
+    }
+
+    /**
+     * Run tasks in parallel and wait for all of them.
+     *
+     * @return the results, in the order of the tasks
+     * @throws BooksDbException the first failure, in task order
+     */
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws BooksDbException {
+        if (tasks.size() == 1) {
+            return List.of(call(tasks.get(0)));
+        }
+        ExecutorService pool = executor;
+        if (pool == null) {
+            throw new BooksDbException("Not connected");
+        }
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        List<T> results = new ArrayList<>(tasks.size());
+        BooksDbException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new BooksDbException("Interrupted while waiting for shards", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                if (failure == null) {
+                    failure = e.getCause() instanceof BooksDbException cause ? cause
+                            : new BooksDbException(e.getCause().getMessage(), (Exception) e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) throws BooksDbException {
+        try {
+            return task.call();
+        } catch (BooksDbException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BooksDbException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the result of the operation on each shard, in shard order
+     */
+    private <T> List<T> scatter(Operation<T> operation) throws BooksDbException {
+        List<Callable<T>> tasks = new ArrayList<>(shards.size());
+        for (BooksDbInterface shard : shards) {
+            tasks.add(() -> operation.apply(shard));
+        }
+        return runAll(tasks);
+    }
+
+    /**
+     * Run a read that any shard can answer, such as one of the replicated authors,
+     * trying the next shard if one cannot be reached.
+     */
+    private <T> T anyShard(Operation<T> operation) throws BooksDbException {
+        int start = Math.floorMod(nextShard.getAndIncrement(), shards.size());
+        BooksDbException failure = null;
+        for (int i = 0; i < shards.size(); i++) {
+            try {
+                return operation.apply(shards.get((start + i) % shards.size()));
+            } catch (BooksDbException e) {
+                if (!e.isConnectionFailure()) {
+                    throw e;
+                }
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Search every shard and merge the results, each sorted by its shard, in the
+     * order of Book.compareTo.
+     */
+    private ArrayList<Book> searchAll(Operation<List<Book>> search) throws BooksDbException {
+        List<List<Book>> results = scatter(db -> {
+            List<Book> books = new ArrayList<>(search.apply(db));
+            books.sort(Comparator.naturalOrder());
+            return books;
+        });
+        return mergeSorted(results, Comparator.naturalOrder());
+    }
+
+    /**
+     * @return the elements of sorted lists as one sorted list
+     */
+    static <T> ArrayList<T> mergeSorted(List<List<T>> lists, Comparator<? super T> order) {
+        int total = 0;
+        for (List<T> list : lists) {
+            total += list.size();
+        }
+        ArrayList<T> merged = new ArrayList<>(total);
+        // Heads of the lists as {list, index}, smallest element first.
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()),
+                (a, b) -> order.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<T> list = lists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return searchAll(db -> db.searchBooksByTitle(title));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return searchAll(db -> db.searchBooksByAuthor(authorName));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return searchAll(db -> db.searchBooksByGenre(genre));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return searchAll(db -> db.searchBooksByRating(rating));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return searchAll(db -> db.searchBooksByISBN(ISBN));
+    }
+
+    /**
+     * Each shard returns its best books; they are scored again here to pick the best
+     * of all shards.
+     */
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        List<RankedSearch.ScoredBook> scored = new ArrayList<>();
+        for (List<Book> books : scatter(db -> db.searchBooksRanked(query, limit))) {
+            for (Book book : books) {
+                scored.add(new RankedSearch.ScoredBook(book, RankedSearch.score(book, query)));
+            }
+        }
+        return RankedSearch.best(scored, limit);
+    }
+
+    /**
+     * Each shard returns its closest books; the distance of each is computed again
+     * here to pick the closest of all shards.
+     */
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        Map<Book, Integer> distances = new IdentityHashMap<>();
+        for (List<Book> books : scatter(db -> db.searchBooksFuzzy(query, limit))) {
+            for (Book book : books) {
+                List<String> texts = new ArrayList<>();
+                texts.add(book.getTitle());
+                for (Author author : book.getAuthors()) {
+                    texts.add(author.getFirstName() + " " + author.getLastName());
+                }
+                distances.put(book, FuzzyIndex.distance(query, texts));
+            }
+        }
+        // Pick the closest as the index does, ties by id, then order them as a shard does.
+        List<Book> closest = new ArrayList<>(distances.keySet());
+        closest.sort(Comparator.comparing((Book book) -> distances.get(book)).thenComparing(Book::getBookId));
+        closest = new ArrayList<>(closest.subList(0, Math.min(limit, closest.size())));
+        closest.sort(Comparator.comparing((Book book) -> distances.get(book))
+                .thenComparing(Comparator.naturalOrder()));
+        return closest;
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        return mergeSorted(scatter(db -> db.searchBooksByPublished(from, to, genre, rating)),
+                Comparator.comparing(Book::getPublished).thenComparingInt(Book::getBookId));
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        List<Map<String, Book>> results = scatter(db -> db.searchBooksByISBNs(isbns));
+        Map<String, Book> found = new LinkedHashMap<>();
+        for (String isbn : isbns) {
+            for (Map<String, Book> result : results) {
+                Book book = result.get(isbn);
+                if (book != null) {
+                    found.putIfAbsent(isbn, book);
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        return BookBatch.merge(scatter(db -> db.searchBooksBatch(mode, query)));
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        shardFor(bookID).deleteBook(bookID);
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        Map<Integer, List<Integer>> byShard = new LinkedHashMap<>();
+        for (int bookID : bookIDs) {
+            byShard.computeIfAbsent(shardOf(bookID), shard -> new ArrayList<>()).add(bookID);
+        }
+        List<Callable<Map<Integer, Boolean>>> tasks = new ArrayList<>();
+        byShard.forEach((shard, ids) -> tasks.add(
+                () -> shards.get(shard).deleteBooks(ids.stream().mapToInt(Integer::intValue).toArray())));
+        Map<Integer, Boolean> outcomes = new LinkedHashMap<>();
+        runAll(tasks).forEach(outcomes::putAll);
+        Map<Integer, Boolean> ordered = new LinkedHashMap<>();
+        for (int bookID : bookIDs) {
+            ordered.put(bookID, outcomes.getOrDefault(bookID, false));
+        }
+        return ordered;
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        Map<Integer, Map<Integer, Integer>> byShard = new LinkedHashMap<>();
+        ratings.forEach((bookID, rating) ->
+                byShard.computeIfAbsent(shardOf(bookID), shard -> new LinkedHashMap<>()).put(bookID, rating));
+        List<Callable<Map<Integer, Boolean>>> tasks = new ArrayList<>();
+        byShard.forEach((shard, part) -> tasks.add(() -> shards.get(shard).updateRatings(part)));
+        Map<Integer, Boolean> outcomes = new LinkedHashMap<>();
+        runAll(tasks).forEach(outcomes::putAll);
+        Map<Integer, Boolean> ordered = new LinkedHashMap<>();
+        for (Integer bookID : ratings.keySet()) {
+            ordered.put(bookID, outcomes.getOrDefault(bookID, false));
+        }
+        return ordered;
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        shardFor(book.getBookId()).addBook(book);
+    }
+
+    /**
+     * Add the author to every shard. If some shards fail, the author is left on the
+     * others and the first failure is thrown.
+     */
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        scatter(db -> {
+            db.addAuthor(author);
+            return author;
+        });
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        shardFor(book.getBookId()).addAuthorToBook(author, book);
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        return shardFor(bookID).getAuthorsForBook(bookID);
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return anyShard(BooksDbInterface::getAllAuthors);
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        return anyShard(db -> db.getAuthorsAfter(authorID));
+    }
+
+    /**
+     * Each shard holds the author's books that hash to it, so the books of all shards
+     * are merged by id.
+     */
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return mergeSorted(scatter(db -> db.searchBooksByAuthorID(authorID)),
+                Comparator.comparingInt(Book::getBookId));
+    }
+
+    /**
+     * A shard only knows the links of its own books, so the network is walked here one
+     * step at a time, asking every shard for the co-authors of each author reached.
+     */
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        List<List<Author>> layers = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>(List.of(authorID));
+        List<Integer> frontier = List.of(authorID);
+        while (layers.size() < depth) {
+            List<Callable<List<List<Author>>>> tasks = new ArrayList<>();
+            for (int author : frontier) {
+                for (BooksDbInterface shard : shards) {
+                    tasks.add(() -> shard.getCoAuthors(author, 1));
+                }
+            }
+            List<Author> layer = new ArrayList<>();
+            for (List<List<Author>> found : runAll(tasks)) {
+                for (Author coAuthor : found.isEmpty() ? List.<Author>of() : found.get(0)) {
+                    if (seen.add(coAuthor.getAuthorID())) {
+                        layer.add(coAuthor);
+                    }
+                }
+            }
+            if (layer.isEmpty()) {
+                break;
+            }
+            layer.sort(null);
+            layers.add(layer);
+            frontier = layer.stream().map(Author::getAuthorID).toList();
+        }
+        return layers;
+    }
+}
@@ -0,0 +1,245 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lets concurrent identical searches share one call to the delegate.
+ * <p>
+ * The first caller of a search runs it; callers of the same search that arrive while
+ * it is running wait for it and get its result, or its failure, instead of running the
+ * query again. A search is identified by its operation and arguments, with genres in
+ * upper case. Nothing is kept once the call returns, so unlike CachingBooksDb this
+ * never answers from old data, and a search started after a write through this object
+ * never joins one started before it.
+ * <p>
+ * Each waiter gets its own copy of a list result; the books in it are shared.
+ */
+public class SingleFlightBooksDb extends ForwardingBooksDb {
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    /** Bumped by every write, and part of every key. */
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    @FunctionalInterface
+    private interface Search<T> {
+        T apply() throws BooksDbException;
+    }
+
+    public SingleFlightBooksDb(BooksDbInterface delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Run a search, or wait for the identical one that is already running.
+     *
+     * @param copy makes a waiter's copy of the result
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T shared(String key, Search<T> search, UnaryOperator<T> copy) throws BooksDbException {
+        calls.incrementAndGet();
+        String flightKey = generation.get() + ":" + key;
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(flightKey, flight);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return copy.apply((T) await(running));
+        }
+        try {
+            T result = search.apply();
+            inFlight.remove(flightKey, flight);
+            flight.complete(result);
+            return result;
+        } catch (BooksDbException | RuntimeException | Error e) {
+            inFlight.remove(flightKey, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> flight) throws BooksDbException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BooksDbException("Interrupted while waiting for a search", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            // A new exception, so that each waiter gets a stack trace of its own; the
+            // cause chain, and with it isConnectionFailure(), is the same.
+            throw new BooksDbException(cause.getMessage(), (Exception) cause);
+        }
+    }
+
+    private void wrote() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return number of searches made through this object
+     */
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    /**
+     * @return number of searches answered by an identical search already running
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return share of searches that did not reach the delegate, between 0 and 1
+     */
+    public double getCoalescingRate() {
+        long total = calls.get();
+        return total == 0 ? 0 : (double) coalesced.get() / total;
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return shared("title:" + title, () -> delegate.searchBooksByTitle(title), ArrayList::new);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return shared("author:" + authorName, () -> delegate.searchBooksByAuthor(authorName), ArrayList::new);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return shared("genre:" + genre.toUpperCase(Locale.ROOT), () -> delegate.searchBooksByGenre(genre),
+                ArrayList::new);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return shared("rating:" + rating, () -> delegate.searchBooksByRating(rating), ArrayList::new);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return shared("isbn:" + ISBN, () -> delegate.searchBooksByISBN(ISBN), ArrayList::new);
+    }
+
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        return shared("ranked:" + limit + ":" + query, () -> delegate.searchBooksRanked(query, limit),
+                ArrayList::new);
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        return shared("fuzzy:" + limit + ":" + query, () -> delegate.searchBooksFuzzy(query, limit),
+                ArrayList::new);
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        return shared("published:" + from + ".." + to + ":" + genre + ":" + rating,
+                () -> delegate.searchBooksByPublished(from, to, genre, rating), ArrayList::new);
+    }
+
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        String normalized = mode == SearchMode.Genre ? query.toUpperCase(Locale.ROOT) : query;
+        // Batches are immutable and can be shared as they are.
+        return shared("batch:" + mode + ":" + normalized, () -> delegate.searchBooksBatch(mode, query),
+                batch -> batch);
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        return shared("authorsOf:" + bookID, () -> delegate.getAuthorsForBook(bookID), ArrayList::new);
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return shared("allAuthors", delegate::getAllAuthors, ArrayList::new);
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        return shared("authorsAfter:" + authorID, () -> delegate.getAuthorsAfter(authorID), ArrayList::new);
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return shared("booksOfAuthor:" + authorID, () -> delegate.searchBooksByAuthorID(authorID),
+                ArrayList::new);
+    }
+
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        return shared("coAuthors:" + depth + ":" + authorID, () -> delegate.getCoAuthors(authorID, depth),
+                ArrayList::new);
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        try {
+            super.deleteBook(bookID);
+        } finally {
+            wrote();
+        }
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        try {
+            return super.deleteBooks(bookIDs);
+        } finally {
+            wrote();
+        }
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        try {
+            return super.updateRatings(ratings);
+        } finally {
+            wrote();
+        }
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        try {
+            super.addBook(book);
+        } finally {
+            wrote();
+        }
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        try {
+            super.addAuthor(author);
+        } finally {
+            wrote();
+        }
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        try {
+            super.addAuthorToBook(author, book);
+        } finally {
+            wrote();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package kth.decitong.librarydb.model;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A book found by a universal search, tagged with the kinds of search that found it.
+ */
+public class TaggedBook {
+    private final Book book;
+    private final EnumSet<SearchMode> sources;
+
+    public TaggedBook(Book book, SearchMode source) {
+        this.book = book;
+        this.sources = EnumSet.of(source);
+    }
+
+    public Book getBook() { return book; }
+
+    public Set<SearchMode> getSources() {
+        return EnumSet.copyOf(sources);
+    }
+
+    void addSource(SearchMode source) {
+        sources.add(source);
+    }
+}
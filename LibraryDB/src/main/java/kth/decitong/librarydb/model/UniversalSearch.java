@@ -0,0 +1,206 @@
+package kth.decitong.librarydb.model;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Searches by title, author, genre, ISBN and rating at once, for users who do not know
+ * which kind of value they typed.
+ * <p>
+ * Input that is obviously an ISBN or a rating is only searched as such. Otherwise the
+ * title and author searches run, plus the genre search if the input names a genre. The
+ * title and author searches run in parallel on two database connections, so the answer
+ * arrives in about the time of the slower one; the cheap genre search shares the author
+ * search's connection, and the ISBN and rating searches, which always run alone, the
+ * title search's. The results are merged and de-duplicated by book id, each book tagged
+ * with the searches that found it; searches that failed are reported with the result.
+ */
+public class UniversalSearch {
+    private static final Pattern ISBN = Pattern.compile("\\d{10}|\\d{13}");
+    private static final Pattern RATING = Pattern.compile("[1-5]");
+    private static final int CONNECTIONS = 2;
+
+    private final Supplier<BooksDbInterface> connectionFactory;
+    private final List<BooksDbInterface> connections = new ArrayList<>();
+    private ExecutorService executor;
+    private String unavailable;
+
+    /**
+     * The books found by a universal search, and the searches that failed.
+     */
+    public static class Result {
+        private final List<TaggedBook> books;
+        private final Map<SearchMode, String> failures;
+
+        Result(List<TaggedBook> books, Map<SearchMode, String> failures) {
+            this.books = books;
+            this.failures = failures;
+        }
+
+        public List<TaggedBook> getBooks() { return books; }
+
+        /** @return the searches that failed, mapped to their error message */
+        public Map<SearchMode, String> getFailures() { return failures; }
+    }
+
+    /**
+     * @param connectionFactory creates the unconnected databases the searches run on
+     */
+    public UniversalSearch(Supplier<BooksDbInterface> connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Open the connections. If that fails, searching reports why until the next connect.
+     */
+    public synchronized void connect(String database) throws BooksDbException {
+        disconnect();
+        try {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                BooksDbInterface db = connectionFactory.get();
+                db.connect(database);
+                connections.add(db);
+            }
+        } catch (BooksDbException e) {
+            disconnect();
+            unavailable = e.getMessage();
+            throw e;
+        }
+        executor = Executors.newFixedThreadPool(CONNECTIONS + 1, r -> {
+            Thread thread = new Thread(r, "universal-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void disconnect() {
+        unavailable = null;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (BooksDbInterface db : connections) {
+            try {
+                db.disconnect();
+            } catch (BooksDbException e) {
+                // The connection is dropped anyway.
+            }
+        }
+        connections.clear();
+    }
+
+    /**
+     * @return the connection a kind of search runs on
+     */
+    private BooksDbInterface connectionFor(SearchMode mode) {
+        return connections.get(mode == SearchMode.Author || mode == SearchMode.Genre ? 1 : 0);
+    }
+
+    /**
+     * @return the searches that apply to the input
+     */
+    public static List<SearchMode> applicableSearches(String input) {
+        List<SearchMode> modes = new ArrayList<>();
+        String trimmed = input.trim();
+        String digits = trimmed.replace("-", "").replace(" ", "");
+        if (ISBN.matcher(digits).matches()) {
+            modes.add(SearchMode.ISBN);
+        } else if (RATING.matcher(trimmed).matches()) {
+            modes.add(SearchMode.Rating);
+        } else {
+            modes.add(SearchMode.Title);
+            modes.add(SearchMode.Author);
+            if (toGenre(trimmed) != null) {
+                modes.add(SearchMode.Genre);
+            }
+        }
+        return modes;
+    }
+
+    private static Genre toGenre(String input) {
+        String name = input.toUpperCase().replace(' ', '_').replace('-', '_');
+        for (Genre genre : Genre.values()) {
+            if (genre.name().equals(name)) {
+                return genre;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run the applicable searches in parallel and merge the results.
+     *
+     * @return the books found, in the order the searches are listed in, each tagged
+     *         with the searches that found it, and the searches that failed
+     * @throws BooksDbException if not connected or if every search failed
+     */
+    public Result search(String input) throws BooksDbException {
+        String trimmed = input.trim();
+        Map<SearchMode, Future<List<Book>>> pending = new EnumMap<>(SearchMode.class);
+        synchronized (this) {
+            if (executor == null) {
+                throw new BooksDbException(unavailable == null
+                        ? "Not connected to database" : "Search all unavailable: " + unavailable);
+            }
+            for (SearchMode mode : applicableSearches(trimmed)) {
+                BooksDbInterface db = connectionFor(mode);
+                pending.put(mode, executor.submit(() -> run(db, mode, trimmed)));
+            }
+        }
+
+        Map<Integer, TaggedBook> merged = new LinkedHashMap<>();
+        Map<SearchMode, String> failures = new EnumMap<>(SearchMode.class);
+        BooksDbException failure = null;
+        for (Map.Entry<SearchMode, Future<List<Book>>> entry : pending.entrySet()) {
+            try {
+                for (Book book : entry.getValue().get()) {
+                    TaggedBook tagged = merged.get(book.getBookId());
+                    if (tagged == null) {
+                        merged.put(book.getBookId(), new TaggedBook(book, entry.getKey()));
+                    } else {
+                        tagged.addSource(entry.getKey());
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                failure = cause instanceof BooksDbException
+                        ? (BooksDbException) cause
+                        : new BooksDbException("Search failed: " + cause, cause instanceof Exception ? (Exception) cause : e);
+                failures.put(entry.getKey(), failure.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BooksDbException("Search interrupted", e);
+            }
+        }
+        if (!failures.isEmpty() && failures.size() == pending.size()) {
+            throw failure;
+        }
+        return new Result(new ArrayList<>(merged.values()), failures);
+    }
+
+    private static List<Book> run(BooksDbInterface db, SearchMode mode, String input) throws BooksDbException {
+        switch (mode) {
+            case ISBN:
+                return db.searchBooksByISBN(input.replace("-", "").replace(" ", ""));
+            case Rating:
+                return db.searchBooksByRating(Integer.parseInt(input));
+            case Title:
+                return db.searchBooksByTitle(input);
+            case Author:
+                return db.searchBooksByAuthor(input);
+            case Genre:
+                return db.searchBooksByGenre(toGenre(input).name());
+            default:
+                throw new IllegalArgumentException("Not a universal search mode: " + mode);
+        }
+    }
+}
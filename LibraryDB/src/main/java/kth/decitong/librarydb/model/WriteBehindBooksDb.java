@@ -0,0 +1,396 @@
+package kth.decitong.librarydb.model;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Buffers rating updates and writes them to the delegate in batches.
+ * <p>
+ * Updates are kept per book, so a book re-rated many times before a flush costs one
+ * row in the batch. A flush runs when the buffer holds a batch worth of books, when
+ * the flush interval has passed, and on {@link #disconnect()}. The buffer is bounded:
+ * a caller that would grow it past its limit flushes first, in its own thread.
+ * <p>
+ * Searches through this object see the buffered ratings, so a client reads its own
+ * writes before they reach the database. Rating searches flush first, since the
+ * database decides which books they return.
+ * <p>
+ * Only updates of books known to exist are buffered: the first update of a book that
+ * has not been rated through this object lately is written right away, and the
+ * delegate's answer tells whether the book exists. A buffered update is reported as
+ * successful. Updates of books that another client deletes before the batch is
+ * written are dropped and counted.
+ */
+public class WriteBehindBooksDb extends ForwardingBooksDb {
+    private final int batchSize;
+    private final int maxPending;
+    private final long flushIntervalMillis;
+    private final Object flushLock = new Object();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private Map<Integer, Integer> pending = new LinkedHashMap<>();
+    private Map<Integer, Integer> inFlight = Map.of();
+    // Books recently rated through this object, which existed then; at most maxPending.
+    private final Set<Integer> known;
+    private volatile ScheduledExecutorService flusher;
+    private long coalesced;
+    private long written;
+    private long dropped;
+
+    public WriteBehindBooksDb(BooksDbInterface delegate) {
+        this(delegate, 200, 10_000, 1_000);
+    }
+
+    /**
+     * @param delegate            the database to write to
+     * @param batchSize           number of buffered books that triggers a flush
+     * @param maxPending          max number of buffered books
+     * @param flushIntervalMillis max time an update stays buffered
+     */
+    public WriteBehindBooksDb(BooksDbInterface delegate, int batchSize, int maxPending, long flushIntervalMillis) {
+        super(delegate);
+        this.batchSize = batchSize;
+        this.maxPending = Math.max(batchSize, maxPending);
+        this.flushIntervalMillis = flushIntervalMillis;
+        int maxKnown = this.maxPending;
+        this.known = Collections.newSetFromMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                return size() > maxKnown;
+            }
+        });
+    }
+
+    @Override
+    public void connect(String database) throws BooksDbException {
+        super.connect(database);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rating-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushInBackground,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the buffered ratings, then disconnect. If they cannot be written the
+     * connection is kept, with the ratings still buffered, so the caller can retry.
+     */
+    @Override
+    public void disconnect() throws BooksDbException {
+        flush();
+        ScheduledExecutorService stopping = flusher;
+        flusher = null;
+        if (stopping != null) {
+            stopping.shutdown();
+            try {
+                stopping.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Ratings buffered while the flusher stopped.
+        flush();
+        super.disconnect();
+    }
+
+    /**
+     * Write all buffered ratings in one batch. On failure they are put back in the
+     * buffer, unless newer ratings for the same books have arrived meanwhile.
+     */
+    public void flush() throws BooksDbException {
+        synchronized (flushLock) {
+            Map<Integer, Integer> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                inFlight = batch;
+            }
+            try {
+                Map<Integer, Boolean> outcome = delegate.updateRatings(batch);
+                synchronized (this) {
+                    outcome.forEach((bookId, updated) -> {
+                        if (updated) {
+                            written++;
+                        } else {
+                            dropped++;
+                            known.remove(bookId);
+                        }
+                    });
+                }
+            } catch (BooksDbException e) {
+                synchronized (this) {
+                    batch.forEach(pending::putIfAbsent);
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    inFlight = Map.of();
+                }
+            }
+        }
+    }
+
+    private void flushInBackground() {
+        flushScheduled.set(false);
+        try {
+            flush();
+        } catch (BooksDbException e) {
+            // The ratings stay buffered and the next flush writes them.
+        }
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        Map<Integer, Boolean> outcome = new LinkedHashMap<>();
+        Map<Integer, Integer> valid = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> entry : ratings.entrySet()) {
+            Integer rating = entry.getValue();
+            boolean inRange = rating != null && rating >= 1 && rating <= 5;
+            outcome.put(entry.getKey(), inRange);
+            if (inRange) {
+                valid.put(entry.getKey(), rating);
+            }
+        }
+        Map<Integer, Integer> unknown = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Map.Entry<Integer, Integer> entry : valid.entrySet()) {
+                Integer bookId = entry.getKey();
+                if (!known.contains(bookId) && !pending.containsKey(bookId) && !inFlight.containsKey(bookId)) {
+                    unknown.put(bookId, entry.getValue());
+                }
+            }
+        }
+        if (!unknown.isEmpty()) {
+            Map<Integer, Boolean> direct = delegate.updateRatings(unknown);
+            synchronized (this) {
+                direct.forEach((bookId, updated) -> {
+                    outcome.put(bookId, updated);
+                    if (updated) {
+                        written++;
+                        known.add(bookId);
+                    }
+                });
+            }
+            valid.keySet().removeAll(unknown.keySet());
+        }
+        if (valid.isEmpty()) {
+            return outcome;
+        }
+        boolean full;
+        synchronized (this) {
+            full = pending.size() + valid.size() > maxPending;
+            if (!full) {
+                buffer(valid);
+            }
+        }
+        if (full) {
+            flush();
+            synchronized (this) {
+                buffer(valid);
+            }
+        }
+        return outcome;
+    }
+
+    /**
+     * Add ratings to the buffer; call with this object locked.
+     */
+    private void buffer(Map<Integer, Integer> ratings) {
+        for (Map.Entry<Integer, Integer> entry : ratings.entrySet()) {
+            if (pending.put(entry.getKey(), entry.getValue()) != null) {
+                coalesced++;
+            }
+        }
+        ScheduledExecutorService current = flusher;
+        if (pending.size() >= batchSize && current != null && flushScheduled.compareAndSet(false, true)) {
+            try {
+                current.execute(this::flushInBackground);
+            } catch (RejectedExecutionException e) {
+                // Disconnecting; the final flush writes them.
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    private synchronized Integer bufferedRating(int bookId) {
+        Integer rating = pending.get(bookId);
+        return rating != null ? rating : inFlight.get(bookId);
+    }
+
+    /**
+     * Forget deleted books, so that their buffered ratings are not written.
+     */
+    private synchronized void discard(Collection<Integer> bookIds) {
+        pending.keySet().removeAll(bookIds);
+        known.removeAll(bookIds);
+    }
+
+    /**
+     * @return number of books with a rating waiting to be written
+     */
+    public synchronized int getPendingCount() {
+        return pending.size() + inFlight.size();
+    }
+
+    /**
+     * @return number of updates absorbed by a later update of the same book
+     */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * @return number of ratings written to the database
+     */
+    public synchronized long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * @return number of buffered ratings dropped because the book did not exist
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    // Read-your-writes
+
+    /**
+     * @return the book as this client sees it, with any buffered rating applied
+     */
+    private Book overlay(Book book) {
+        Integer rating = bufferedRating(book.getBookId());
+        if (rating == null || rating == book.getRating()) {
+            return book;
+        }
+        Book copy = new Book(book.getBookId(), book.getIsbn(), book.getTitle(), book.getPublished(),
+                rating, book.getGenre());
+        for (Author author : book.getAuthors()) {
+            copy.addAuthors(author);
+        }
+        return copy;
+    }
+
+    private ArrayList<Book> overlay(List<Book> books) {
+        ArrayList<Book> result = new ArrayList<>(books.size());
+        for (Book book : books) {
+            result.add(overlay(book));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return overlay(delegate.searchBooksByTitle(title));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return overlay(delegate.searchBooksByAuthor(authorName));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return overlay(delegate.searchBooksByGenre(genre));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        flush();
+        return overlay(delegate.searchBooksByRating(rating));
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return overlay(delegate.searchBooksByISBN(ISBN));
+    }
+
+    /**
+     * The delegate ranks with the stored ratings, so the books it returns are scored
+     * again with the buffered ones.
+     */
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        List<RankedSearch.ScoredBook> scored = new ArrayList<>();
+        for (Book book : overlay(delegate.searchBooksRanked(query, limit))) {
+            scored.add(new RankedSearch.ScoredBook(book, RankedSearch.score(book, query)));
+        }
+        return RankedSearch.best(scored, limit);
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        return overlay(delegate.searchBooksFuzzy(query, limit));
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return overlay(delegate.searchBooksByAuthorID(authorID));
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        if (rating != 0) {
+            flush();
+        }
+        return overlay(delegate.searchBooksByPublished(from, to, genre, rating));
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        Map<String, Book> found = new LinkedHashMap<>();
+        delegate.searchBooksByISBNs(isbns).forEach((isbn, book) -> found.put(isbn, overlay(book)));
+        return found;
+    }
+
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        if (mode == SearchMode.Rating) {
+            flush();
+        }
+        BookBatch batch = delegate.searchBooksBatch(mode, query);
+        Map<Integer, Integer> buffered;
+        synchronized (this) {
+            if (pending.isEmpty() && inFlight.isEmpty()) {
+                return batch;
+            }
+            buffered = new HashMap<>(inFlight);
+            buffered.putAll(pending);
+        }
+        return batch.withRatings(buffered);
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        delegate.deleteBook(bookID);
+        discard(List.of(bookID));
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        List<Integer> ids = new ArrayList<>(bookIDs.length);
+        for (int bookID : bookIDs) {
+            ids.add(bookID);
+        }
+        Map<Integer, Boolean> deleted = delegate.deleteBooks(bookIDs);
+        discard(ids);
+        return deleted;
+    }
+}
@@ -0,0 +1,257 @@
+package kth.decitong.librarydb.server;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import kth.decitong.librarydb.model.Author;
+import kth.decitong.librarydb.model.Book;
+import kth.decitong.librarydb.model.Genre;
+
+/**
+ * Converts books, authors and the other values of BooksDbInterface to and from the
+ * JSON used between CatalogServer and RemoteBooksDb.
+ */
+final class BookCodec {
+
+    private BookCodec() {}
+
+    static String books(Collection<Book> books) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Book book : books) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            appendBook(sb, book);
+        }
+        return sb.append(']').toString();
+    }
+
+    static String book(Book book) {
+        StringBuilder sb = new StringBuilder();
+        appendBook(sb, book);
+        return sb.toString();
+    }
+
+    static String booksByIsbn(Map<String, Book> books) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Book> entry : books.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(Json.quote(entry.getKey())).append(':');
+            appendBook(sb, entry.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    static String authors(Collection<Author> authors) {
+        StringBuilder sb = new StringBuilder("[");
+        for (Author author : authors) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            appendAuthor(sb, author);
+        }
+        return sb.append(']').toString();
+    }
+
+    static String authorLayers(List<List<Author>> layers) {
+        StringBuilder sb = new StringBuilder("[");
+        for (List<Author> layer : layers) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(authors(layer));
+        }
+        return sb.append(']').toString();
+    }
+
+    static String author(Author author) {
+        StringBuilder sb = new StringBuilder();
+        appendAuthor(sb, author);
+        return sb.toString();
+    }
+
+    static String outcomes(Map<Integer, Boolean> outcomes) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<Integer, Boolean> entry : outcomes.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    static String intMap(Map<Integer, Integer> values) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<Integer, Integer> entry : values.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    static String strings(Collection<String> values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (String value : values) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(Json.quote(value));
+        }
+        return sb.append(']').toString();
+    }
+
+    static String ints(int[] values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(values[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    private static void appendBook(StringBuilder sb, Book book) {
+        sb.append("{\"bookId\":").append(book.getBookId())
+                .append(",\"isbn\":").append(Json.quote(book.getIsbn()))
+                .append(",\"title\":").append(Json.quote(book.getTitle()))
+                .append(",\"published\":").append(Json.quote(dateString(book.getPublished())))
+                .append(",\"rating\":").append(book.getRating())
+                .append(",\"genre\":").append(Json.quote(String.valueOf(book.getGenre())))
+                .append(",\"authors\":[");
+        List<Author> authors = book.getAuthors();
+        for (int i = 0; i < authors.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendAuthor(sb, authors.get(i));
+        }
+        sb.append("]}");
+    }
+
+    private static void appendAuthor(StringBuilder sb, Author author) {
+        sb.append("{\"authorId\":").append(author.getAuthorID())
+                .append(",\"firstName\":").append(Json.quote(author.getFirstName()))
+                .append(",\"lastName\":").append(Json.quote(author.getLastName()))
+                .append(",\"birthDate\":").append(Json.quote(dateString(author.getBirthDate())))
+                .append('}');
+    }
+
+    private static String dateString(java.util.Date date) {
+        if (date == null) {
+            return null;
+        }
+        return date instanceof Date ? date.toString() : new Date(date.getTime()).toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Book> toBooks(Object json) {
+        List<Book> books = new ArrayList<>();
+        for (Object item : (List<Object>) json) {
+            books.add(toBook(item));
+        }
+        return books;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Book toBook(Object json) {
+        Map<String, Object> map = (Map<String, Object>) json;
+        Book book = new Book(toInt(map.get("bookId")), (String) map.get("isbn"), (String) map.get("title"),
+                toDate(map.get("published")), toInt(map.get("rating")),
+                Genre.valueOf(((String) map.get("genre")).toUpperCase()));
+        Object authors = map.get("authors");
+        if (authors != null) {
+            for (Object author : (List<Object>) authors) {
+                book.addAuthors(toAuthor(author));
+            }
+        }
+        return book;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Book> toBooksByIsbn(Object json) {
+        Map<String, Book> books = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) json).entrySet()) {
+            books.put(entry.getKey(), toBook(entry.getValue()));
+        }
+        return books;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Author> toAuthors(Object json) {
+        List<Author> authors = new ArrayList<>();
+        for (Object item : (List<Object>) json) {
+            authors.add(toAuthor(item));
+        }
+        return authors;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<List<Author>> toAuthorLayers(Object json) {
+        List<List<Author>> layers = new ArrayList<>();
+        for (Object item : (List<Object>) json) {
+            layers.add(toAuthors(item));
+        }
+        return layers;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Author toAuthor(Object json) {
+        Map<String, Object> map = (Map<String, Object>) json;
+        return new Author(toInt(map.get("authorId")), (String) map.get("firstName"),
+                (String) map.get("lastName"), toDate(map.get("birthDate")));
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<Integer, Boolean> toOutcomes(Object json) {
+        Map<Integer, Boolean> outcomes = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) json).entrySet()) {
+            outcomes.put(Integer.parseInt(entry.getKey()), (Boolean) entry.getValue());
+        }
+        return outcomes;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<Integer, Integer> toIntMap(Object json) {
+        Map<Integer, Integer> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) json).entrySet()) {
+            values.put(Integer.parseInt(entry.getKey()), toInt(entry.getValue()));
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> toStrings(Object json) {
+        List<String> values = new ArrayList<>();
+        for (Object item : (List<Object>) json) {
+            values.add((String) item);
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    static int[] toInts(Object json) {
+        List<Object> list = (List<Object>) json;
+        int[] values = new int[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toInt(list.get(i));
+        }
+        return values;
+    }
+
+    private static int toInt(Object value) {
+        return ((Number) value).intValue();
+    }
+
+    private static Date toDate(Object value) {
+        return value == null ? null : Date.valueOf((String) value);
+    }
+}
@@ -0,0 +1,264 @@
+package kth.decitong.librarydb.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import kth.decitong.librarydb.model.BooksDbException;
+import kth.decitong.librarydb.model.BooksDbImpl;
+import kth.decitong.librarydb.model.BooksDbInterface;
+import kth.decitong.librarydb.model.CachingBooksDb;
+import kth.decitong.librarydb.model.CatalogIndexes;
+import kth.decitong.librarydb.model.Genre;
+import kth.decitong.librarydb.model.PooledBooksDb;
+import kth.decitong.librarydb.model.QueryCache;
+import kth.decitong.librarydb.model.ResilientBooksDb;
+import kth.decitong.librarydb.model.SingleFlightBooksDb;
+
+/**
+ * Headless server that shares one BooksDbInterface, with a connection pool and a
+ * result cache, between many desks over HTTP/JSON. Identical searches from several
+ * desks that miss the cache at the same moment share one query. Requests are handled on virtual
+ * threads, so a request waiting for the database costs no platform thread.
+ * RemoteBooksDb is the matching client. The pooled connections share one ISBN lookup
+ * and fuzzy search dictionary; with --sole-writer, for when all writes to the database go
+ * through this server, the ISBN lookup also answers for ISBNs not in the catalog.
+ * <p>
+ * The server does not authenticate requests, and some of them write, so by default it
+ * only listens on the loopback interface; --bind=0.0.0.0 or another address exposes it.
+ * <p>
+ * Usage: CatalogServer [--port=8080] [--bind=127.0.0.1] [--database=DB_LIBRARY]
+ * [--address=localhost:3306] [--pool=8] [--cache-size=10000] [--cache-ttl=5000]
+ * [--sole-writer=true]
+ */
+public class CatalogServer {
+    private final BooksDbInterface booksDb;
+    private HttpServer server;
+
+    /**
+     * @param booksDb the connected database to serve
+     */
+    public CatalogServer(BooksDbInterface booksDb) {
+        this.booksDb = booksDb;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        String address = options.getOrDefault("address", "localhost:3306");
+        int colon = address.lastIndexOf(':');
+        String host = colon < 0 ? address : address.substring(0, colon);
+        int dbPort = colon < 0 ? 3306 : Integer.parseInt(address.substring(colon + 1));
+        int poolSize = Integer.parseInt(options.getOrDefault("pool", "8"));
+        QueryCache cache = new QueryCache(Integer.parseInt(options.getOrDefault("cache-size", "10000")),
+                Long.parseLong(options.getOrDefault("cache-ttl", "5000")));
+
+        CatalogIndexes indexes = new CatalogIndexes();
+        boolean soleWriter = Boolean.parseBoolean(options.getOrDefault("sole-writer", "false"));
+        SingleFlightBooksDb singleFlight = new SingleFlightBooksDb(new PooledBooksDb(
+                () -> new ResilientBooksDb(() -> {
+                    BooksDbImpl member = new BooksDbImpl(host, dbPort, indexes);
+                    member.setSoleWriter(soleWriter);
+                    return member;
+                }), poolSize));
+        BooksDbInterface booksDb = new CachingBooksDb(singleFlight, cache);
+        booksDb.connect(options.getOrDefault("database", "DB_LIBRARY"));
+
+        int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        InetAddress bind = options.containsKey("bind")
+                ? InetAddress.getByName(options.get("bind")) : InetAddress.getLoopbackAddress();
+        CatalogServer server = new CatalogServer(booksDb);
+        server.start(bind, port);
+        System.out.println("Catalog server listening on " + bind.getHostAddress() + " port " + port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            System.out.printf("%d cache misses, %d of them shared a running query (%.1f%%)%n",
+                    singleFlight.getCallCount(), singleFlight.getCoalescedCount(),
+                    100 * singleFlight.getCoalescingRate());
+            try {
+                booksDb.disconnect();
+            } catch (BooksDbException e) {
+                System.err.println("Error disconnecting: " + e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Listen on the loopback interface only.
+     */
+    public void start(int port) throws IOException {
+        start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * @param bind address of the interface to listen on, e.g. 0.0.0.0 for all of them
+     */
+    public void start(InetAddress bind, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String response = route(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                    query(exchange.getRequestURI().getRawQuery()), exchange.getRequestBody());
+            send(exchange, response == null ? 204 : 200, response);
+        } catch (BooksDbException e) {
+            int status = e.isConnectionFailure() ? 503 : 500;
+            send(exchange, status, "{\"error\":" + Json.quote(e.getMessage()) + "}");
+        } catch (NotFound e) {
+            send(exchange, 404, "{\"error\":" + Json.quote(e.getMessage()) + "}");
+        } catch (RuntimeException e) {
+            send(exchange, 400, "{\"error\":" + Json.quote(String.valueOf(e.getMessage())) + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static class NotFound extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NotFound(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * @return the JSON response, or null for an empty response
+     */
+    @SuppressWarnings("unchecked")
+    private String route(String method, String path, Map<String, String> query, InputStream body)
+            throws BooksDbException, IOException {
+        String[] parts = path.replaceAll("^/+|/+$", "").split("/");
+        String key = method + " " + parts[0] + (parts.length > 1 ? "/" + (isNumber(parts[1]) ? "{id}" : parts[1]) : "")
+                + (parts.length > 2 ? "/" + parts[2] : "");
+        switch (key) {
+            case "GET health":
+                return "{\"status\":\"ok\"}";
+            case "GET books/search":
+                return search(query);
+            case "GET books/published":
+                return BookCodec.books(booksDb.searchBooksByPublished(LocalDate.parse(query.get("from")),
+                        LocalDate.parse(query.get("to")),
+                        query.containsKey("genre") ? Genre.valueOf(query.get("genre")) : null,
+                        Integer.parseInt(query.getOrDefault("rating", "0"))));
+            case "POST books/isbns":
+                return BookCodec.booksByIsbn(booksDb.searchBooksByISBNs(BookCodec.toStrings(readJson(body))));
+            case "POST books":
+                booksDb.addBook(BookCodec.toBook(readJson(body)));
+                return null;
+            case "DELETE books/{id}":
+                booksDb.deleteBook(Integer.parseInt(parts[1]));
+                return null;
+            case "POST books/delete":
+                return BookCodec.outcomes(booksDb.deleteBooks(BookCodec.toInts(readJson(body))));
+            case "POST books/ratings":
+                return BookCodec.outcomes(booksDb.updateRatings(BookCodec.toIntMap(readJson(body))));
+            case "GET books/{id}/authors":
+                return BookCodec.authors(booksDb.getAuthorsForBook(Integer.parseInt(parts[1])));
+            case "POST books/{id}/authors": {
+                Map<String, Object> link = (Map<String, Object>) readJson(body);
+                booksDb.addAuthorToBook(BookCodec.toAuthor(link.get("author")), BookCodec.toBook(link.get("book")));
+                return null;
+            }
+            case "GET authors":
+                return BookCodec.authors(query.containsKey("after")
+                        ? booksDb.getAuthorsAfter(Integer.parseInt(query.get("after")))
+                        : booksDb.getAllAuthors());
+            case "POST authors":
+                booksDb.addAuthor(BookCodec.toAuthor(readJson(body)));
+                return null;
+            case "GET authors/{id}/books":
+                return BookCodec.books(booksDb.searchBooksByAuthorID(Integer.parseInt(parts[1])));
+            case "GET authors/{id}/coauthors":
+                return BookCodec.authorLayers(booksDb.getCoAuthors(Integer.parseInt(parts[1]),
+                        Integer.parseInt(query.getOrDefault("depth", "1"))));
+            default:
+                throw new NotFound("No such resource: " + method + " " + path);
+        }
+    }
+
+    private String search(Map<String, String> query) throws BooksDbException {
+        String by = query.getOrDefault("by", "");
+        String q = query.getOrDefault("q", "");
+        int limit = Integer.parseInt(query.getOrDefault("limit", "50"));
+        switch (by) {
+            case "title":
+                return BookCodec.books(booksDb.searchBooksByTitle(q));
+            case "author":
+                return BookCodec.books(booksDb.searchBooksByAuthor(q));
+            case "genre":
+                return BookCodec.books(booksDb.searchBooksByGenre(q));
+            case "rating":
+                return BookCodec.books(booksDb.searchBooksByRating(Integer.parseInt(q)));
+            case "isbn":
+                return BookCodec.books(booksDb.searchBooksByISBN(q));
+            case "ranked":
+                return BookCodec.books(booksDb.searchBooksRanked(q, limit));
+            case "fuzzy":
+                return BookCodec.books(booksDb.searchBooksFuzzy(q, limit));
+            default:
+                throw new IllegalArgumentException("Unknown search: " + by);
+        }
+    }
+
+    private static boolean isNumber(String s) {
+        return !s.isEmpty() && s.chars().allMatch(Character::isDigit);
+    }
+
+    private static Object readJson(InputStream body) throws IOException {
+        return Json.parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
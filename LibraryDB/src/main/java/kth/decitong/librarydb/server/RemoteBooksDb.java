@@ -0,0 +1,233 @@
+package kth.decitong.librarydb.server;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import kth.decitong.librarydb.model.Author;
+import kth.decitong.librarydb.model.Book;
+import kth.decitong.librarydb.model.BookBatch;
+import kth.decitong.librarydb.model.BooksDbException;
+import kth.decitong.librarydb.model.BooksDbInterface;
+import kth.decitong.librarydb.model.Genre;
+import kth.decitong.librarydb.model.SearchMode;
+
+/**
+ * BooksDbInterface implementation that talks to a CatalogServer over HTTP/JSON instead
+ * of to MySQL directly. The database name given to connect is ignored, the server
+ * decides which database it serves.
+ */
+public class RemoteBooksDb implements BooksDbInterface {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    private final String baseUrl;
+    private HttpClient client;
+
+    /**
+     * @param baseUrl server address, e.g. http://localhost:8080
+     */
+    public RemoteBooksDb(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    @Override
+    public void connect(String database) throws BooksDbException {
+        client = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+        send("GET", "/health", null);
+    }
+
+    @Override
+    public void disconnect() throws BooksDbException {
+        client = null;
+    }
+
+    /**
+     * @return the parsed JSON response, or null for an empty response
+     */
+    private Object send(String method, String path, String body) throws BooksDbException {
+        HttpClient httpClient = client;
+        if (httpClient == null) {
+            throw new BooksDbException("Not connected to server");
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(REQUEST_TIMEOUT);
+        if (body == null) {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            request.header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8));
+        }
+        HttpResponse<String> response;
+        try {
+            response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new BooksDbException("Error contacting server " + baseUrl, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BooksDbException("Interrupted contacting server", e);
+        }
+        String text = response.body();
+        if (response.statusCode() >= 300) {
+            String msg = "Server error " + response.statusCode();
+            try {
+                Object error = ((Map<?, ?>) Json.parse(text)).get("error");
+                if (error != null) {
+                    msg = error.toString();
+                }
+            } catch (RuntimeException e) {
+                // Not a JSON error body, keep the status code.
+            }
+            if (response.statusCode() == 503) {
+                throw new BooksDbException(msg, new SQLTransientConnectionException(msg, "08S01"));
+            }
+            throw new BooksDbException(msg);
+        }
+        try {
+            return text == null || text.isEmpty() ? null : Json.parse(text);
+        } catch (RuntimeException e) {
+            throw new BooksDbException("Invalid response from server", e);
+        }
+    }
+
+    private ArrayList<Book> search(String by, String query, int limit) throws BooksDbException {
+        String path = "/books/search?by=" + by + "&q=" + URLEncoder.encode(query, StandardCharsets.UTF_8)
+                + (limit > 0 ? "&limit=" + limit : "");
+        return new ArrayList<>(decode(() -> BookCodec.toBooks(send("GET", path, null))));
+    }
+
+    @FunctionalInterface
+    private interface Decoder<T> {
+        T decode() throws BooksDbException;
+    }
+
+    private static <T> T decode(Decoder<T> decoder) throws BooksDbException {
+        try {
+            return decoder.decode();
+        } catch (ClassCastException | IllegalArgumentException | NullPointerException e) {
+            throw new BooksDbException("Invalid response from server", e);
+        }
+    }
+
+    @Override
+    public List<Book> searchBooksByTitle(String title) throws BooksDbException {
+        return search("title", title, 0);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByAuthor(String authorName) throws BooksDbException {
+        return search("author", authorName, 0);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByGenre(String genre) throws BooksDbException {
+        return search("genre", genre, 0);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByRating(int rating) throws BooksDbException {
+        return search("rating", String.valueOf(rating), 0);
+    }
+
+    @Override
+    public ArrayList<Book> searchBooksByISBN(String ISBN) throws BooksDbException {
+        return search("isbn", ISBN, 0);
+    }
+
+    @Override
+    public List<Book> searchBooksRanked(String query, int limit) throws BooksDbException {
+        return search("ranked", query, limit);
+    }
+
+    @Override
+    public List<Book> searchBooksFuzzy(String query, int limit) throws BooksDbException {
+        return search("fuzzy", query, limit);
+    }
+
+    @Override
+    public List<Book> searchBooksByPublished(LocalDate from, LocalDate to, Genre genre, int rating)
+            throws BooksDbException {
+        String path = "/books/published?from=" + from + "&to=" + to
+                + (genre == null ? "" : "&genre=" + genre) + (rating == 0 ? "" : "&rating=" + rating);
+        return decode(() -> BookCodec.toBooks(send("GET", path, null)));
+    }
+
+    @Override
+    public Map<String, Book> searchBooksByISBNs(Collection<String> isbns) throws BooksDbException {
+        return decode(() -> BookCodec.toBooksByIsbn(send("POST", "/books/isbns", BookCodec.strings(isbns))));
+    }
+
+    /**
+     * The server sends books as JSON, so the result is packed after it arrives.
+     */
+    @Override
+    public BookBatch searchBooksBatch(SearchMode mode, String query) throws BooksDbException {
+        return BookBatch.search(this, mode, query);
+    }
+
+    @Override
+    public void deleteBook(int bookID) throws BooksDbException {
+        send("DELETE", "/books/" + bookID, null);
+    }
+
+    @Override
+    public Map<Integer, Boolean> deleteBooks(int[] bookIDs) throws BooksDbException {
+        return decode(() -> BookCodec.toOutcomes(send("POST", "/books/delete", BookCodec.ints(bookIDs))));
+    }
+
+    @Override
+    public Map<Integer, Boolean> updateRatings(Map<Integer, Integer> ratings) throws BooksDbException {
+        return decode(() -> BookCodec.toOutcomes(send("POST", "/books/ratings", BookCodec.intMap(ratings))));
+    }
+
+    @Override
+    public void addBook(Book book) throws BooksDbException {
+        send("POST", "/books", BookCodec.book(book));
+    }
+
+    @Override
+    public void addAuthor(Author author) throws BooksDbException {
+        send("POST", "/authors", BookCodec.author(author));
+    }
+
+    @Override
+    public void addAuthorToBook(Author author, Book book) throws BooksDbException {
+        send("POST", "/books/" + book.getBookId() + "/authors",
+                "{\"author\":" + BookCodec.author(author) + ",\"book\":" + BookCodec.book(book) + "}");
+    }
+
+    @Override
+    public List<Author> getAuthorsForBook(int bookID) throws BooksDbException {
+        return decode(() -> BookCodec.toAuthors(send("GET", "/books/" + bookID + "/authors", null)));
+    }
+
+    @Override
+    public List<Author> getAllAuthors() throws BooksDbException {
+        return decode(() -> BookCodec.toAuthors(send("GET", "/authors", null)));
+    }
+
+    @Override
+    public List<Author> getAuthorsAfter(int authorID) throws BooksDbException {
+        return decode(() -> BookCodec.toAuthors(send("GET", "/authors?after=" + authorID, null)));
+    }
+
+    @Override
+    public List<Book> searchBooksByAuthorID(int authorID) throws BooksDbException {
+        return decode(() -> BookCodec.toBooks(send("GET", "/authors/" + authorID + "/books", null)));
+    }
+
+    @Override
+    public List<List<Author>> getCoAuthors(int authorID, int depth) throws BooksDbException {
+        return decode(() -> BookCodec.toAuthorLayers(
+                send("GET", "/authors/" + authorID + "/coauthors?depth=" + depth, null)));
+    }
+}
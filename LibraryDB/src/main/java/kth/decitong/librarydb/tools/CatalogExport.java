@@ -0,0 +1,49 @@
+package kth.decitong.librarydb.tools;
+
+import java.nio.file.Path;
+import kth.decitong.librarydb.model.BooksDbImpl;
+import kth.decitong.librarydb.model.CatalogExporter;
+import kth.decitong.librarydb.model.ExportFormat;
+
+/**
+ * Command line entry point for the nightly catalog export.
+ * <p>
+ * Usage: CatalogExport &lt;output file&gt; [csv|jsonl] [--gzip] [--database=DB_LIBRARY]
+ */
+public class CatalogExport {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CatalogExport <output file> [csv|jsonl] [--gzip] [--database=NAME]");
+            System.exit(2);
+        }
+        Path target = Path.of(args[0]);
+        ExportFormat format = ExportFormat.CSV;
+        boolean gzip = false;
+        String database = "DB_LIBRARY";
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--gzip")) {
+                gzip = true;
+            } else if (arg.startsWith("--database=")) {
+                database = arg.substring("--database=".length());
+            } else if (arg.equalsIgnoreCase("jsonl")) {
+                format = ExportFormat.JSON_LINES;
+            } else if (arg.equalsIgnoreCase("csv")) {
+                format = ExportFormat.CSV;
+            } else {
+                System.err.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        BooksDbImpl booksDb = new BooksDbImpl();
+        booksDb.connect(database);
+        try {
+            CatalogExporter.ExportResult result = new CatalogExporter(booksDb).export(target, format, gzip);
+            System.out.println("Exported " + result + " to " + target);
+        } finally {
+            booksDb.disconnect();
+        }
+    }
+}
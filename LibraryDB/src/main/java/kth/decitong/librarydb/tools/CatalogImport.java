@@ -0,0 +1,48 @@
+package kth.decitong.librarydb.tools;
+
+import java.nio.file.Path;
+import kth.decitong.librarydb.model.BooksDbImpl;
+import kth.decitong.librarydb.model.CatalogImporter;
+
+/**
+ * Command line entry point for bulk ingest of a catalog CSV file, as written by
+ * CatalogExport, with a duplicate check of every row.
+ * <p>
+ * Usage: CatalogImport &lt;CSV file&gt; [--threshold=0.6] [--keep-duplicates] [--database=DB_LIBRARY]
+ */
+public class CatalogImport {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CatalogImport <CSV file> [--threshold=0.6] [--keep-duplicates] [--database=NAME]");
+            System.exit(2);
+        }
+        Path source = Path.of(args[0]);
+        double threshold = 0.6;
+        boolean keepDuplicates = false;
+        String database = "DB_LIBRARY";
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--keep-duplicates")) {
+                keepDuplicates = true;
+            } else if (arg.startsWith("--threshold=")) {
+                threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+            } else if (arg.startsWith("--database=")) {
+                database = arg.substring("--database=".length());
+            } else {
+                System.err.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        BooksDbImpl booksDb = new BooksDbImpl();
+        booksDb.connect(database);
+        try {
+            CatalogImporter.ImportResult result = new CatalogImporter(booksDb, threshold)
+                    .importCsv(source, keepDuplicates, System.out::println);
+            System.out.println("Imported " + source + ": " + result);
+        } finally {
+            booksDb.disconnect();
+        }
+    }
+}
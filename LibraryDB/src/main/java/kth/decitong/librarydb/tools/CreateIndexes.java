@@ -0,0 +1,45 @@
+package kth.decitong.librarydb.tools;
+
+import java.util.List;
+import kth.decitong.librarydb.model.BooksDbImpl;
+
+/**
+ * Command line entry point that creates the indexes the searches rely on. Run once
+ * per database, against the primary; clients only check which indexes exist.
+ * <p>
+ * Usage: CreateIndexes [--host=localhost] [--port=3306] [--database=DB_LIBRARY]
+ */
+public class CreateIndexes {
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = 3306;
+        String database = "DB_LIBRARY";
+        for (String arg : args) {
+            if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--database=")) {
+                database = arg.substring("--database=".length());
+            } else {
+                System.err.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        BooksDbImpl booksDb = new BooksDbImpl(host, port);
+        booksDb.connect(database);
+        try {
+            List<String> missing = booksDb.createIndexes();
+            if (missing.isEmpty()) {
+                System.out.println("All indexes present in " + database);
+            } else {
+                System.out.println("Could not create indexes: " + missing);
+                System.exit(1);
+            }
+        } finally {
+            booksDb.disconnect();
+        }
+    }
+}
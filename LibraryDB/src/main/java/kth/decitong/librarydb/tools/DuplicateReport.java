@@ -0,0 +1,50 @@
+package kth.decitong.librarydb.tools;
+
+import java.util.List;
+import kth.decitong.librarydb.model.BooksDbImpl;
+import kth.decitong.librarydb.model.DuplicateDetector;
+
+/**
+ * Command line entry point for the catalog-wide duplicate check. Streams the whole
+ * catalog into a DuplicateDetector and prints the likely duplicates with their
+ * similarity, same ISBN first and then most similar first.
+ * <p>
+ * Usage: DuplicateReport [--threshold=0.6] [--database=DB_LIBRARY]
+ */
+public class DuplicateReport {
+    public static void main(String[] args) throws Exception {
+        double threshold = 0.6;
+        String database = "DB_LIBRARY";
+        for (String arg : args) {
+            if (arg.startsWith("--threshold=")) {
+                threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+            } else if (arg.startsWith("--database=")) {
+                database = arg.substring("--database=".length());
+            } else {
+                System.err.println("Usage: DuplicateReport [--threshold=0.6] [--database=NAME]");
+                System.exit(2);
+            }
+        }
+
+        DuplicateDetector detector = new DuplicateDetector(threshold);
+        BooksDbImpl booksDb = new BooksDbImpl();
+        booksDb.connect(database);
+        long start = System.nanoTime();
+        try {
+            detector.addCatalog(booksDb);
+        } finally {
+            booksDb.disconnect();
+        }
+        long indexed = System.nanoTime();
+        List<DuplicateDetector.Match> matches = detector.findAll();
+        long done = System.nanoTime();
+
+        for (DuplicateDetector.Match match : matches) {
+            System.out.println(match);
+        }
+        System.out.printf("%d likely duplicates among %d books; %d candidate pairs compared%n",
+                matches.size(), detector.size(), detector.getLastCandidateCount());
+        System.out.printf("Read and indexed in %d ms, compared in %d ms%n",
+                (indexed - start) / 1_000_000, (done - indexed) / 1_000_000);
+    }
+}
@@ -0,0 +1,377 @@
+package kth.decitong.librarydb.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import kth.decitong.librarydb.model.BooksDbException;
+import kth.decitong.librarydb.model.BooksDbImpl;
+import kth.decitong.librarydb.model.BooksDbInterface;
+import kth.decitong.librarydb.model.Genre;
+import kth.decitong.librarydb.model.LogBooksDb;
+import kth.decitong.librarydb.model.ShardedBooksDb;
+import kth.decitong.librarydb.model.SingleFlightBooksDb;
+import kth.decitong.librarydb.server.RemoteBooksDb;
+
+/**
+ * Headless load generator that simulates library desks working against any
+ * BooksDbInterface implementation.
+ * <p>
+ * Each desk is a thread with its own database instance that runs a weighted mix of
+ * searches (one operation per search mode), adds and deletes. Without a target rate
+ * every desk issues its next operation as soon as the previous one returns; with a
+ * target rate operations are scheduled at fixed intervals and latency is measured
+ * from the scheduled time, so a stalled database is not hidden by desks waiting on it.
+ * Throughput, latency percentiles and errors per operation are written as JSON.
+ * <p>
+ * Deletes only remove books added during the run, so a seeded catalog stays intact;
+ * while there are none, a delete is replaced by an add. Fuzzy searches misspell the
+ * last name of an actual synthetic author.
+ * <p>
+ * The embedded log engine (--impl=log, with the address as its base directory) can
+ * only be opened once, so its desks always share one instance. A sharded catalog
+ * (--impl=sharded) takes a comma separated list of MySQL addresses, or of log
+ * directories with --shard-impl=log.
+ * <p>
+ * With --single-flight the shared instance is wrapped in a SingleFlightBooksDb, so
+ * that desks running the same search at the same time share one query, and the
+ * share of searches coalesced that way is reported.
+ * <p>
+ * Usage: LoadGenerator [--impl=mysql|remote|log|sharded|&lt;class name&gt;]
+ * [--address=host:port, server URL, log directory or list of shards] [--shard-impl=mysql|log]
+ * [--database=DB_LIBRARY] [--desks=50] [--duration=60] [--warmup=5] [--rate=0]
+ * [--books=10000] [--authors=1000] [--seed] [--shared] [--single-flight]
+ * [--mix=title=25,isbn=20,...]
+ * [--out=result.json]
+ */
+public class LoadGenerator {
+
+    enum Operation {
+        TITLE, AUTHOR, GENRE, RATING, ISBN, RANKED, FUZZY, ADD, DELETE
+    }
+
+    private static final int SYNTHETIC_BASE_ID = 1_000_000;
+    private static final int RESULT_LIMIT = 50;
+
+    private final Map<String, String> options;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private final SyntheticCatalog catalog;
+    private final int books;
+    private final AtomicInteger nextBook;
+    private final ConcurrentLinkedQueue<Integer> addedBooks = new ConcurrentLinkedQueue<>();
+    private SingleFlightBooksDb singleFlight;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.books = intOption("books", 10_000);
+        this.catalog = new SyntheticCatalog(SYNTHETIC_BASE_ID, intOption("authors", 1_000), 42);
+        this.nextBook = new AtomicInteger(books);
+        parseMix(options.getOrDefault("mix",
+                "title=25,author=15,genre=15,rating=10,isbn=20,ranked=5,fuzzy=5,add=3,delete=2"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                System.err.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        String json = generator.run();
+        String out = options.get("out");
+        if (out == null) {
+            System.out.println(json);
+        } else {
+            Files.writeString(Path.of(out), json, StandardCharsets.UTF_8);
+            System.out.println("Results written to " + out);
+        }
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    private void parseMix(String spec) {
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            mix.put(Operation.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(kv[1].trim()));
+        }
+    }
+
+    /**
+     * Create an unconnected database of the configured implementation.
+     */
+    BooksDbInterface createDb() throws ReflectiveOperationException {
+        String impl = options.getOrDefault("impl", "mysql");
+        if (impl.equals("sharded")) {
+            List<BooksDbInterface> shards = new ArrayList<>();
+            for (String address : options.getOrDefault("address", "localhost:3306").split(",")) {
+                shards.add(createDb(options.getOrDefault("shard-impl", "mysql"), address.trim()));
+            }
+            return new ShardedBooksDb(shards);
+        }
+        return createDb(impl, options.get("address"));
+    }
+
+    private static BooksDbInterface createDb(String impl, String address) throws ReflectiveOperationException {
+        if (impl.equals("mysql")) {
+            if (address == null) {
+                address = "localhost:3306";
+            }
+            int colon = address.lastIndexOf(':');
+            return colon < 0 ? new BooksDbImpl(address, 3306)
+                    : new BooksDbImpl(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        }
+        if (impl.equals("remote")) {
+            return new RemoteBooksDb(address == null ? "http://localhost:8080" : address);
+        }
+        if (impl.equals("log")) {
+            return address == null ? new LogBooksDb() : new LogBooksDb(Path.of(address));
+        }
+        return (BooksDbInterface) Class.forName(impl).getDeclaredConstructor().newInstance();
+    }
+
+    String run() throws Exception {
+        String database = options.getOrDefault("database", "DB_LIBRARY");
+        int desks = intOption("desks", 50);
+        long durationNanos = intOption("duration", 60) * 1_000_000_000L;
+        long warmupNanos = intOption("warmup", 5) * 1_000_000_000L;
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        boolean shared = options.containsKey("shared") || options.containsKey("single-flight")
+                || options.getOrDefault("impl", "mysql").equals("log")
+                || options.getOrDefault("impl", "mysql").equals("sharded")
+                && options.getOrDefault("shard-impl", "mysql").equals("log");
+
+        BooksDbInterface sharedDb = null;
+        if (shared || options.containsKey("seed")) {
+            sharedDb = createDb();
+            if (options.containsKey("single-flight")) {
+                singleFlight = new SingleFlightBooksDb(sharedDb);
+                sharedDb = singleFlight;
+            }
+            sharedDb.connect(database);
+        }
+        if (options.containsKey("seed")) {
+            long start = System.nanoTime();
+            catalog.seed(sharedDb, books);
+            System.err.printf("Seeded %d books in %d ms%n", books, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        List<Desk> deskList = new ArrayList<>();
+        for (int i = 0; i < desks; i++) {
+            BooksDbInterface db = shared ? sharedDb : createDb();
+            if (!shared) {
+                db.connect(database);
+            }
+            deskList.add(new Desk(i, db, rate / desks));
+        }
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        List<Thread> threads = new ArrayList<>();
+        for (Desk desk : deskList) {
+            Thread thread = new Thread(() -> desk.run(start, measureFrom, end), "desk-" + desk.id);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (Desk desk : deskList) {
+            if (desk.db != sharedDb) {
+                disconnectQuietly(desk.db);
+            }
+        }
+        if (sharedDb != null) {
+            disconnectQuietly(sharedDb);
+        }
+        return report(deskList, desks, rate, durationNanos);
+    }
+
+    private static void disconnectQuietly(BooksDbInterface db) {
+        try {
+            db.disconnect();
+        } catch (BooksDbException e) {
+            // Nothing more to measure.
+        }
+    }
+
+    /**
+     * One simulated desk: a thread running the operation mix on its own database.
+     */
+    private class Desk {
+        private final int id;
+        private final BooksDbInterface db;
+        private final long intervalNanos;
+        private final Random random;
+        private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+
+        Desk(int id, BooksDbInterface db, double ratePerSecond) {
+            this.id = id;
+            this.db = db;
+            this.intervalNanos = ratePerSecond > 0 ? (long) (1_000_000_000L / ratePerSecond) : 0;
+            this.random = new Random(id);
+            for (Operation op : Operation.values()) {
+                latencies.put(op, new LatencyHistogram());
+                errors.put(op, 0L);
+            }
+        }
+
+        void run(long start, long measureFrom, long end) {
+            long scheduled = start;
+            while (true) {
+                long begin;
+                if (intervalNanos > 0) {
+                    scheduled += intervalNanos;
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > 0) {
+                        try {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    begin = scheduled;
+                } else {
+                    begin = System.nanoTime();
+                }
+                if (begin >= end) {
+                    return;
+                }
+                Operation op = pick(random);
+                Integer deleteId = op == Operation.DELETE ? addedBooks.poll() : null;
+                if (op == Operation.DELETE && deleteId == null) {
+                    op = Operation.ADD;
+                }
+                boolean ok = execute(op, deleteId);
+                long done = System.nanoTime();
+                if (begin >= measureFrom) {
+                    latencies.get(op).record((done - begin) / 1_000);
+                    if (!ok) {
+                        errors.merge(op, 1L, Long::sum);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param deleteId the run-added book to delete, for a DELETE
+         */
+        private boolean execute(Operation op, Integer deleteId) {
+            try {
+                switch (op) {
+                    case TITLE -> db.searchBooksByTitle(catalog.randomTitleWord(random));
+                    case AUTHOR -> db.searchBooksByAuthor(catalog.randomLastName(random));
+                    case GENRE -> db.searchBooksByGenre(
+                            Genre.values()[random.nextInt(Genre.values().length)].name());
+                    case RATING -> db.searchBooksByRating(1 + random.nextInt(5));
+                    case ISBN -> db.searchBooksByISBN(random.nextInt(10) == 0
+                            ? catalog.isbn(books + 5_000_000 + random.nextInt(1_000_000))
+                            : catalog.isbn(random.nextInt(Math.max(1, books))));
+                    case RANKED -> db.searchBooksRanked(catalog.randomTitleWord(random), RESULT_LIMIT);
+                    case FUZZY -> db.searchBooksFuzzy(misspell(catalog.randomAuthorLastName(random)), RESULT_LIMIT);
+                    case ADD -> {
+                        int index = nextBook.getAndIncrement();
+                        SyntheticCatalog.add(db, catalog.book(index));
+                        addedBooks.add(SYNTHETIC_BASE_ID + index);
+                    }
+                    case DELETE -> db.deleteBooks(new int[]{deleteId});
+                }
+                return true;
+            } catch (BooksDbException | RuntimeException e) {
+                return false;
+            }
+        }
+
+        private String misspell(String word) {
+            int drop = random.nextInt(word.length());
+            return word.substring(0, drop) + word.substring(drop + 1);
+        }
+    }
+
+    private Operation pick(Random random) {
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        int r = random.nextInt(Math.max(1, total));
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            r -= entry.getValue();
+            if (r < 0) {
+                return entry.getKey();
+            }
+        }
+        return Operation.TITLE;
+    }
+
+    private String report(List<Desk> desks, int deskCount, double rate, long durationNanos) {
+        double seconds = durationNanos / 1e9;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"implementation\": \"").append(options.getOrDefault("impl", "mysql")).append("\",\n");
+        json.append("  \"desks\": ").append(deskCount).append(",\n");
+        json.append("  \"targetRate\": ").append(rate).append(",\n");
+        json.append("  \"durationSeconds\": ").append(seconds).append(",\n");
+        json.append("  \"catalogBooks\": ").append(books).append(",\n");
+        json.append("  \"operations\": {");
+
+        LatencyHistogram all = new LatencyHistogram();
+        long allErrors = 0;
+        boolean first = true;
+        for (Operation op : Operation.values()) {
+            LatencyHistogram merged = new LatencyHistogram();
+            long errors = 0;
+            for (Desk desk : desks) {
+                merged.merge(desk.latencies.get(op));
+                errors += desk.errors.get(op);
+            }
+            if (merged.getCount() == 0) {
+                continue;
+            }
+            all.merge(merged);
+            allErrors += errors;
+            json.append(first ? "\n" : ",\n");
+            first = false;
+            json.append("    \"").append(op.name().toLowerCase(Locale.ROOT)).append("\": ");
+            appendStats(json, merged, errors, seconds);
+        }
+        json.append("\n  },\n  \"total\": ");
+        appendStats(json, all, allErrors, seconds);
+        if (singleFlight != null) {
+            json.append(String.format(Locale.ROOT,
+                    ",\n  \"singleFlight\": {\"searches\": %d, \"coalesced\": %d, \"coalescingRate\": %.3f}",
+                    singleFlight.getCallCount(), singleFlight.getCoalescedCount(), singleFlight.getCoalescingRate()));
+        }
+        json.append("\n}\n");
+        return json.toString();
+    }
+
+    private static void appendStats(StringBuilder json, LatencyHistogram histogram, long errors, double seconds) {
+        json.append(String.format(Locale.ROOT,
+                "{\"count\": %d, \"errors\": %d, \"throughput\": %.1f, \"p50Micros\": %d, "
+                        + "\"p99Micros\": %d, \"p999Micros\": %d, \"maxMicros\": %d}",
+                histogram.getCount(), errors, histogram.getCount() / seconds, histogram.percentile(50),
+                histogram.percentile(99), histogram.percentile(99.9), histogram.getMax()));
+    }
+}
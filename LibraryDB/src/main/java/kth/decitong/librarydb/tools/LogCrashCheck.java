@@ -0,0 +1,189 @@
+package kth.decitong.librarydb.tools;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import kth.decitong.librarydb.model.Author;
+import kth.decitong.librarydb.model.Book;
+import kth.decitong.librarydb.model.BooksDbException;
+import kth.decitong.librarydb.model.LogBooksDb;
+
+/**
+ * Crash check for the embedded log engine. Each round starts a child JVM that adds
+ * and deletes books from several threads, compacts the log now and then, and prints
+ * every change once it has been acknowledged. The child is killed at a random moment,
+ * the log is reopened, and every acknowledged change must be there: acknowledged
+ * books with all their authors, and no acknowledged deletes undone. A book whose
+ * delete was in flight when the child died may be either present or gone.
+ * <p>
+ * Usage: LogCrashCheck [--dir=directory] [--rounds=20] [--threads=8]
+ */
+public class LogCrashCheck {
+    private static final String DATABASE = "crash-check";
+    private static final int AUTHORS = 20;
+    private static final int BOOKS_PER_ROUND = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(kv[0], kv.length > 1 ? kv[1] : "");
+        }
+        Path dir = options.containsKey("dir") ? Path.of(options.get("dir"))
+                : Files.createTempDirectory("log-crash-check");
+        Files.createDirectories(dir);
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        if (options.containsKey("child")) {
+            runChild(dir, Integer.parseInt(options.get("child")), threads);
+        } else {
+            System.exit(runParent(dir, Integer.parseInt(options.getOrDefault("rounds", "20")), threads) ? 0 : 1);
+        }
+    }
+
+    private static boolean runParent(Path dir, int rounds, int threads) throws Exception {
+        SyntheticCatalog catalog = new SyntheticCatalog(0, AUTHORS, 7);
+        Map<Integer, Boolean> expected = new HashMap<>();
+        Random random = new Random();
+        boolean ok = true;
+        for (int round = 0; round < rounds && ok; round++) {
+            // The child's output goes to a file so that nothing it printed is lost when it is killed.
+            Path acks = dir.resolve("acks.txt");
+            Process child = new ProcessBuilder(childCommand(dir, round * BOOKS_PER_ROUND, threads))
+                    .redirectOutput(acks.toFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            Thread.sleep(800 + random.nextInt(2000));
+            child.destroyForcibly().waitFor();
+
+            int acked = 0;
+            for (String line : Files.readAllLines(acks, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ");
+                if (parts.length != 2) {
+                    continue;
+                }
+                int index = Integer.parseInt(parts[1]);
+                switch (parts[0]) {
+                    case "add", "del" -> {
+                        expected.put(index, parts[0].equals("add"));
+                        acked++;
+                    }
+                    // A delete that was not acknowledged may or may not have happened.
+                    case "deleting" -> expected.remove(index);
+                    default -> { }
+                }
+            }
+            ok = verify(dir, catalog, expected);
+            System.out.printf("Round %d: %d acknowledged changes, %d books tracked, %s%n",
+                    round + 1, acked, expected.size(), ok ? "log consistent" : "LOST CHANGES");
+        }
+        System.out.println("Log directory: " + dir.resolve(DATABASE));
+        return ok;
+    }
+
+    private static List<String> childCommand(Path dir, int startIndex, int threads) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        String modulePath = System.getProperty("jdk.module.path");
+        if (modulePath != null) {
+            command.add("-p");
+            command.add(modulePath);
+            command.add("-m");
+            command.add(LogCrashCheck.class.getModule().getName() + "/" + LogCrashCheck.class.getName());
+        } else {
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(LogCrashCheck.class.getName());
+        }
+        command.add("--dir=" + dir);
+        command.add("--child=" + startIndex);
+        command.add("--threads=" + threads);
+        return command;
+    }
+
+    private static boolean verify(Path dir, SyntheticCatalog catalog, Map<Integer, Boolean> expected)
+            throws BooksDbException {
+        LogBooksDb db = new LogBooksDb(dir);
+        db.connect(DATABASE);
+        try {
+            boolean ok = true;
+            for (Map.Entry<Integer, Boolean> entry : expected.entrySet()) {
+                Book book = catalog.book(entry.getKey());
+                List<Book> found = db.searchBooksByISBN(book.getIsbn());
+                if (!entry.getValue()) {
+                    if (!found.isEmpty()) {
+                        System.out.println("Deleted book came back: " + book.getBookId());
+                        ok = false;
+                    }
+                } else if (found.isEmpty()) {
+                    System.out.println("Acknowledged book lost: " + book.getBookId());
+                    ok = false;
+                } else if (found.get(0).getAuthors().size() != book.getAuthors().size()) {
+                    System.out.println("Acknowledged author link lost: " + book.getBookId());
+                    ok = false;
+                }
+            }
+            return ok;
+        } finally {
+            db.disconnect();
+        }
+    }
+
+    /**
+     * Write until killed, printing each change once the engine has acknowledged it.
+     */
+    private static void runChild(Path dir, int startIndex, int threads) throws Exception {
+        SyntheticCatalog catalog = new SyntheticCatalog(0, AUTHORS, 7);
+        LogBooksDb db = new LogBooksDb(dir);
+        db.connect(DATABASE);
+        for (int i = 0; i < AUTHORS; i++) {
+            Author author = catalog.author(i);
+            if (db.getAllAuthors().stream().noneMatch(a -> a.getAuthorID() == author.getAuthorID())) {
+                db.addAuthor(author);
+            }
+        }
+        PrintStream out = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+        AtomicInteger next = new AtomicInteger(startIndex);
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                Random random = new Random();
+                List<Integer> added = new ArrayList<>();
+                try {
+                    while (true) {
+                        if (!added.isEmpty() && random.nextInt(5) == 0) {
+                            int index = added.remove(random.nextInt(added.size()));
+                            report(out, "deleting " + index);
+                            db.deleteBook(index);
+                            report(out, "del " + index);
+                        } else {
+                            int index = next.getAndIncrement();
+                            SyntheticCatalog.add(db, catalog.book(index));
+                            added.add(index);
+                            report(out, "add " + index);
+                        }
+                    }
+                } catch (BooksDbException e) {
+                    e.printStackTrace();
+                }
+            });
+            writer.start();
+        }
+        while (true) {
+            Thread.sleep(250);
+            db.compact();
+        }
+    }
+
+    private static void report(PrintStream out, String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+}
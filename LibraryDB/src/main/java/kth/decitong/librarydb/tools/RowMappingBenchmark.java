@@ -0,0 +1,167 @@
+package kth.decitong.librarydb.tools;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.util.Callback;
+import kth.decitong.librarydb.model.Book;
+import kth.decitong.librarydb.model.BookRowMapper;
+import kth.decitong.librarydb.model.Genre;
+import kth.decitong.librarydb.view.CellValues;
+
+/**
+ * Measures the cost per row of turning Book rows into books and of producing the
+ * table cell values for them, old way against new:
+ * <ul>
+ * <li>mapping: columns read by name with Genre.valueOf and a regex ISBN check on
+ * every row, against BookRowMapper</li>
+ * <li>rendering: PropertyValueFactory against CellValues, for the six plain book
+ * columns</li>
+ * </ul>
+ * Rows come from an in-memory result set that, like the MySQL driver, resolves a
+ * column name through a case-insensitive map, so no database is needed.
+ * <p>
+ * Usage: RowMappingBenchmark [--rows=100000] [--rounds=10]
+ */
+public class RowMappingBenchmark {
+    private static final String[] COLUMNS = {"bookID", "isbn", "title", "published", "rating", "genre"};
+    private static final String[] PROPERTIES = {"title", "bookId", "isbn", "published", "rating", "genre"};
+    /** Keeps the results alive so the JIT cannot drop the work. */
+    private static volatile long blackhole;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(kv[0], kv.length > 1 ? kv[1] : "");
+        }
+        int rowCount = Integer.parseInt(options.getOrDefault("rows", "100000"));
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "10"));
+
+        SyntheticCatalog catalog = new SyntheticCatalog(0, 1000, 7);
+        Object[][] rows = new Object[rowCount][];
+        for (int i = 0; i < rowCount; i++) {
+            Book book = catalog.book(i);
+            rows[i] = new Object[]{book.getBookId(), book.getIsbn(), book.getTitle(), book.getPublished(),
+                    book.getRating(), book.getGenre().name()};
+        }
+        List<Book> books = new BookRowMapper(resultSet(rows)).mapAll().values().stream().toList();
+
+        System.out.printf("%d rows, best of %d rounds, ns per row%n", rowCount, rounds);
+        report("mapping", rounds, rowCount,
+                () -> consume(mapByName(resultSet(rows))),
+                () -> consume(new BookRowMapper(resultSet(rows)).mapAll().values()));
+        List<Callback<TableColumn.CellDataFeatures<Book, Object>, ObservableValue<Object>>> reflective = new ArrayList<>();
+        for (String property : PROPERTIES) {
+            reflective.add(new PropertyValueFactory<>(property));
+        }
+        List<Callback<TableColumn.CellDataFeatures<Book, Object>, ObservableValue<Object>>> direct = List.of(
+                CellValues.of(Book::getTitle), CellValues.of(Book::getBookId), CellValues.of(Book::getIsbn),
+                CellValues.of(Book::getPublished), CellValues.of(Book::getRating), CellValues.of(Book::getGenre));
+        report("rendering", rounds, rowCount,
+                () -> render(books, reflective),
+                () -> render(books, direct));
+    }
+
+    private interface Task {
+        long run() throws Exception;
+    }
+
+    private static void report(String name, int rounds, int rowCount, Task before, Task after) throws Exception {
+        // The first round of each warms up the JIT and is not counted.
+        double oldNanos = best(before, rounds + 1) / rowCount;
+        double newNanos = best(after, rounds + 1) / rowCount;
+        System.out.printf("%-10s old %8.1f   new %8.1f   speedup %.1fx%n",
+                name, oldNanos, newNanos, oldNanos / newNanos);
+    }
+
+    private static double best(Task task, int rounds) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            blackhole += task.run();
+            long elapsed = System.nanoTime() - start;
+            if (round > 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The row mapping that each search in BooksDbImpl used to repeat.
+     */
+    private static List<Book> mapByName(ResultSet rs) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        while (rs.next()) {
+            String isbn = rs.getString("isbn");
+            if (!isbn.matches("\\d{10}|\\d{13}")) {
+                throw new IllegalArgumentException("Invalid ISBN");
+            }
+            books.add(new Book(rs.getInt("bookID"), isbn, rs.getString("title"), rs.getDate("published"),
+                    rs.getInt("rating"), Genre.valueOf(rs.getString("genre").toUpperCase())));
+        }
+        return books;
+    }
+
+    private static long consume(Collection<Book> books) {
+        long sum = 0;
+        for (Book book : books) {
+            sum += book.getBookId();
+        }
+        return sum;
+    }
+
+    private static long render(List<Book> books,
+            List<Callback<TableColumn.CellDataFeatures<Book, Object>, ObservableValue<Object>>> factories) {
+        long sum = 0;
+        for (Book book : books) {
+            TableColumn.CellDataFeatures<Book, Object> cell = new TableColumn.CellDataFeatures<>(null, null, book);
+            for (Callback<TableColumn.CellDataFeatures<Book, Object>, ObservableValue<Object>> factory : factories) {
+                sum += factory.call(cell).getValue().hashCode();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return a forward-only result set over rows with the columns of the Book table
+     */
+    private static ResultSet resultSet(Object[][] rows) {
+        Map<String, Integer> columns = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns.put(COLUMNS[i], i + 1);
+        }
+        int[] row = {-1};
+        ToIntFunction<Object> column = arg -> {
+            if (arg instanceof Integer index) {
+                return index;
+            }
+            Integer index = columns.get((String) arg);
+            if (index == null) {
+                throw new IllegalArgumentException("No column " + arg);
+            }
+            return index;
+        };
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "next" -> ++row[0] < rows.length;
+                    case "findColumn" -> column.applyAsInt(args[0]);
+                    case "getInt", "getString", "getDate" -> rows[row[0]][column.applyAsInt(args[0]) - 1];
+                    case "wasNull" -> false;
+                    case "close" -> null;
+                    case "isClosed" -> row[0] >= rows.length;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,170 @@
+package kth.decitong.librarydb.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import kth.decitong.librarydb.Main;
+
+/**
+ * Start up benchmark for the client. Each run starts the client in a fresh JVM with
+ * -Dlibrarydb.startupBenchmark, which makes it connect, search for a title and exit
+ * once the result is shown, and reads the start up times it prints: time to the first
+ * frame of the main window and time to the first search result, both from the launch
+ * of the process. Runs alternate between the modes, so that a change in the machine's
+ * load during the benchmark affects them alike, and the minimum, median and maximum
+ * per mode are printed.
+ * <p>
+ * In eager mode the client connects once its window is up, as when the user chooses
+ * Connect right away; in fast mode it runs with -Dlibrarydb.fastStartup=true. Any
+ * librarydb.* system properties given to the benchmark are passed on to the client,
+ * e.g. to point it at another server. The client needs a display and a database.
+ * <p>
+ * Usage: StartupBenchmark [--runs=10] [--modes=eager,fast] [--query=a] [--timeout=60]
+ * [--jvm="-Xshare:auto -XX:TieredStopAtLevel=1"]
+ */
+public class StartupBenchmark {
+    private static final Pattern REPORT = Pattern.compile(
+            "Startup: first frame (\\d+) ms, connected (\\d+) ms, first search (\\d+) ms");
+
+    private record Run(long firstFrame, long connected, long firstSearch) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(kv[0], kv.length > 1 ? kv[1] : "");
+        }
+        int runs = Integer.parseInt(options.getOrDefault("runs", "10"));
+        List<String> modes = Arrays.asList(options.getOrDefault("modes", "eager,fast").split(","));
+        String query = options.getOrDefault("query", "a");
+        long timeoutSeconds = Long.parseLong(options.getOrDefault("timeout", "60"));
+        List<String> jvmArgs = options.getOrDefault("jvm", "").isBlank() ? List.of()
+                : Arrays.asList(options.get("jvm").trim().split("\\s+"));
+
+        System.out.printf("Startup benchmark: %d runs per mode, query \"%s\", JVM options %s%n",
+                runs, query, jvmArgs);
+        Map<String, List<Run>> results = new HashMap<>();
+        boolean ok = true;
+        for (int i = 0; i < runs; i++) {
+            for (String mode : modes) {
+                Run run = runClient(mode, query, jvmArgs, timeoutSeconds);
+                if (run == null) {
+                    ok = false;
+                    continue;
+                }
+                results.computeIfAbsent(mode, m -> new ArrayList<>()).add(run);
+                System.out.printf("Run %d %-5s first frame %5d ms, connected %5d ms, first search %5d ms%n",
+                        i + 1, mode, run.firstFrame(), run.connected(), run.firstSearch());
+            }
+        }
+        for (String mode : modes) {
+            List<Run> done = results.getOrDefault(mode, List.of());
+            if (done.isEmpty()) {
+                System.out.printf("%-5s no successful runs%n", mode);
+                continue;
+            }
+            System.out.printf("%-5s first frame %s, first search %s (%d runs)%n", mode,
+                    summary(done.stream().mapToLong(Run::firstFrame).toArray()),
+                    summary(done.stream().mapToLong(Run::firstSearch).toArray()), done.size());
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * @return the times of one start of the client, or null if it failed
+     */
+    private static Run runClient(String mode, String query, List<String> jvmArgs, long timeoutSeconds)
+            throws Exception {
+        Process client = new ProcessBuilder(clientCommand(mode, query, jvmArgs, System.currentTimeMillis()))
+                .redirectErrorStream(true)
+                .start();
+        Run run = null;
+        try (BufferedReader out = new BufferedReader(
+                new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+            // Read on another thread, so that a client that hangs is stopped at the timeout.
+            List<String> lines = new ArrayList<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = out.readLine()) != null) {
+                        synchronized (lines) {
+                            lines.add(line);
+                        }
+                    }
+                } catch (IOException e) {
+                    // The client was stopped.
+                }
+            }, "client-output");
+            reader.start();
+            if (!client.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                client.destroyForcibly().waitFor();
+                System.out.println("Client (" + mode + ") did not finish within " + timeoutSeconds + " s");
+            }
+            reader.join(TimeUnit.SECONDS.toMillis(5));
+            synchronized (lines) {
+                for (String line : lines) {
+                    Matcher matcher = REPORT.matcher(line);
+                    if (matcher.find()) {
+                        run = new Run(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)),
+                                Long.parseLong(matcher.group(3)));
+                    }
+                }
+                if (run == null) {
+                    System.out.println("Client (" + mode + ") exited with " + client.exitValue()
+                            + " without a start up report:");
+                    lines.forEach(line -> System.out.println("  " + line));
+                }
+            }
+        }
+        return run;
+    }
+
+    /**
+     * @param launchedAt when the process is started, for the client to measure from
+     */
+    private static List<String> clientCommand(String mode, String query, List<String> jvmArgs, long launchedAt) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(jvmArgs);
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("librarydb.") && !name.equals("librarydb.fastStartup")
+                    && !name.equals("librarydb.launchedAtMillis")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-Dlibrarydb.fastStartup=" + mode.equals("fast"));
+        command.add("-Dlibrarydb.startupBenchmark=" + query);
+        command.add("-Dlibrarydb.launchedAtMillis=" + launchedAt);
+        String modulePath = System.getProperty("jdk.module.path");
+        if (modulePath != null) {
+            command.add("-p");
+            command.add(modulePath);
+            command.add("-m");
+            command.add(Main.class.getModule().getName() + "/" + Main.class.getName());
+        } else {
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(Main.class.getName());
+        }
+        return command;
+    }
+
+    /**
+     * @return e.g. "min 410 / median 432 / max 515 ms"
+     */
+    private static String summary(long[] millis) {
+        Arrays.sort(millis);
+        return String.format("min %d / median %d / max %d ms",
+                millis[0], millis[millis.length / 2], millis[millis.length - 1]);
+    }
+}
@@ -0,0 +1,121 @@
+package kth.decitong.librarydb.tools;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Random;
+import kth.decitong.librarydb.model.Author;
+import kth.decitong.librarydb.model.Book;
+import kth.decitong.librarydb.model.BooksDbException;
+import kth.decitong.librarydb.model.BooksDbInterface;
+import kth.decitong.librarydb.model.Genre;
+
+/**
+ * Generates a reproducible synthetic catalog for load tests. Books and authors get ids
+ * from a base id upwards, so a synthetic catalog can live next to real data and the
+ * same seed always produces the same books.
+ */
+class SyntheticCatalog {
+    private static final String[] WORDS = {
+            "shadow", "garden", "winter", "river", "secret", "night", "silver", "empire", "last",
+            "house", "city", "stars", "ocean", "fire", "glass", "storm", "road", "king", "dream",
+            "island", "murder", "letters", "forest", "machine", "summer", "mirror", "crown", "iron",
+            "hidden", "journey", "stone", "echo", "wolf", "library", "harbor", "light", "ashes"
+    };
+    private static final String[] FIRST_NAMES = {
+            "Astrid", "Selma", "Henning", "Stieg", "Camilla", "Jonas", "Karin", "Vilhelm", "Agatha",
+            "Ursula", "Isaac", "Toni", "Haruki", "Chimamanda", "Jorge", "Margaret", "Italo", "Ngozi"
+    };
+    private static final String[] LAST_NAMES = {
+            "Lindgren", "Lagerlöf", "Mankell", "Larsson", "Läckberg", "Hassen", "Boye", "Moberg",
+            "Christie", "LeGuin", "Asimov", "Morrison", "Murakami", "Adichie", "Borges", "Atwood",
+            "Calvino", "Okafor"
+    };
+
+    private final int baseId;
+    private final int authorCount;
+    private final long seed;
+
+    /**
+     * @param baseId      first book and author id
+     * @param authorCount number of synthetic authors
+     * @param seed        random seed
+     */
+    SyntheticCatalog(int baseId, int authorCount, long seed) {
+        this.baseId = baseId;
+        this.authorCount = authorCount;
+        this.seed = seed;
+    }
+
+    Author author(int index) {
+        Random random = new Random(seed * 31 + index);
+        LocalDate born = LocalDate.of(1900, 1, 1).plusDays(random.nextInt(36_500));
+        return new Author(baseId + index, FIRST_NAMES[random.nextInt(FIRST_NAMES.length)],
+                LAST_NAMES[random.nextInt(LAST_NAMES.length)] + index, Date.valueOf(born));
+    }
+
+    /**
+     * @return the book with the given index, with one to three synthetic authors
+     */
+    Book book(int index) {
+        Random random = new Random(seed * 17 + index);
+        StringBuilder title = new StringBuilder();
+        int words = 1 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (i > 0) {
+                title.append(' ');
+            }
+            title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+        LocalDate published = LocalDate.of(1950, 1, 1).plusDays(random.nextInt(27_000));
+        Genre genre = Genre.values()[random.nextInt(Genre.values().length)];
+        Book book = new Book(baseId + index, isbn(index), title.toString(), Date.valueOf(published),
+                1 + random.nextInt(5), genre);
+        int authors = 1 + random.nextInt(3);
+        for (int i = 0; i < authors; i++) {
+            book.addAuthors(author(random.nextInt(authorCount)));
+        }
+        return book;
+    }
+
+    /**
+     * @return a 13 digit ISBN unique to the book index
+     */
+    String isbn(int index) {
+        return String.format("979%010d", (baseId + (long) index) % 10_000_000_000L);
+    }
+
+    String randomTitleWord(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    String randomLastName(Random random) {
+        return LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    }
+
+    /**
+     * @return the last name of a random synthetic author as stored, e.g. "Lindgren42"
+     */
+    String randomAuthorLastName(Random random) {
+        return author(random.nextInt(authorCount)).getLastName();
+    }
+
+    /**
+     * Insert authors and books 0..bookCount-1 into the database.
+     */
+    void seed(BooksDbInterface db, int bookCount) throws BooksDbException {
+        for (int i = 0; i < authorCount; i++) {
+            db.addAuthor(author(i));
+        }
+        for (int i = 0; i < bookCount; i++) {
+            add(db, book(i));
+        }
+    }
+
+    static void add(BooksDbInterface db, Book book) throws BooksDbException {
+        db.addBook(book);
+        for (Author author : book.getAuthors()) {
+            db.addAuthorToBook(author, book);
+        }
+    }
+}
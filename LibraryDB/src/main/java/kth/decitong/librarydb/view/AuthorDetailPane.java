@@ -0,0 +1,124 @@
+package kth.decitong.librarydb.view;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import kth.decitong.librarydb.model.Author;
+import kth.decitong.librarydb.model.Book;
+import kth.decitong.librarydb.model.Genre;
+
+/**
+ * Shows one author's books and co-author network. Double-clicking a co-author shows
+ * that author instead, and Back returns to the authors shown before. The network
+ * can be widened to authors several steps away, i.e. co-authors of co-authors.
+ */
+class AuthorDetailPane extends VBox {
+    private static final int MAX_DEPTH = 4;
+
+    private final Label nameLabel = new Label();
+    private final Button backButton = new Button("Back");
+    private final Spinner<Integer> depthSpinner = new Spinner<>(1, MAX_DEPTH, 1);
+    private final TableView<Book> booksTable = new TableView<>();
+    private final TableView<CoAuthor> coAuthorTable = new TableView<>();
+    private final Deque<Author> previous = new ArrayDeque<>();
+    private Author current;
+    /** Bumped by every load, so that a slow answer to an old load is ignored. */
+    private int loads;
+
+    /**
+     * An author in the network, with the number of steps from the author shown.
+     */
+    private record CoAuthor(Author author, int steps) {
+    }
+
+    AuthorDetailPane(Author author) {
+        super(5);
+
+        backButton.setOnAction(e -> {
+            if (!previous.isEmpty()) {
+                show(previous.pop(), false);
+            }
+        });
+        depthSpinner.valueProperty().addListener((observable, oldDepth, newDepth) -> load());
+        depthSpinner.setPrefWidth(70);
+        HBox header = new HBox(10, backButton, nameLabel, new Label("Steps:"), depthSpinner);
+
+        TableColumn<Book, String> titleCol = new TableColumn<>("Title");
+        TableColumn<Book, Integer> bookIDCol = new TableColumn<>("Book ID");
+        TableColumn<Book, Date> publishedCol = new TableColumn<>("Published");
+        TableColumn<Book, String> authorCol = new TableColumn<>("Authors");
+        TableColumn<Book, Genre> genreCol = new TableColumn<>("Genre");
+        titleCol.setCellValueFactory(CellValues.of(Book::getTitle));
+        bookIDCol.setCellValueFactory(CellValues.of(Book::getBookId));
+        publishedCol.setCellValueFactory(CellValues.of(Book::getPublished));
+        authorCol.setCellValueFactory(CellValues.of(BooksPane::authorNames));
+        genreCol.setCellValueFactory(CellValues.of(Book::getGenre));
+        booksTable.getColumns().setAll(List.of(titleCol, bookIDCol, publishedCol, authorCol, genreCol));
+        booksTable.setEditable(false);
+
+        TableColumn<CoAuthor, Integer> idCol = new TableColumn<>("Author ID");
+        TableColumn<CoAuthor, String> firstNameCol = new TableColumn<>("First Name");
+        TableColumn<CoAuthor, String> lastNameCol = new TableColumn<>("Last Name");
+        TableColumn<CoAuthor, Integer> stepsCol = new TableColumn<>("Steps");
+        idCol.setCellValueFactory(CellValues.of(coAuthor -> coAuthor.author().getAuthorID()));
+        firstNameCol.setCellValueFactory(CellValues.of(coAuthor -> coAuthor.author().getFirstName()));
+        lastNameCol.setCellValueFactory(CellValues.of(coAuthor -> coAuthor.author().getLastName()));
+        stepsCol.setCellValueFactory(CellValues.of(CoAuthor::steps));
+        coAuthorTable.getColumns().setAll(List.of(idCol, firstNameCol, lastNameCol, stepsCol));
+        coAuthorTable.setEditable(false);
+        coAuthorTable.setRowFactory(table -> {
+            TableRow<CoAuthor> row = new TableRow<>();
+            row.setOnMouseClicked(e -> {
+                if (e.getClickCount() == 2 && !row.isEmpty()) {
+                    show(row.getItem().author(), true);
+                }
+            });
+            return row;
+        });
+
+        VBox.setVgrow(booksTable, Priority.ALWAYS);
+        VBox.setVgrow(coAuthorTable, Priority.ALWAYS);
+        getChildren().addAll(header, new Label("Books"), booksTable,
+                new Label("Co-authors (double-click to show)"), coAuthorTable);
+        show(author, false);
+    }
+
+    private void show(Author author, boolean remember) {
+        if (remember && current != null) {
+            previous.push(current);
+        }
+        current = author;
+        nameLabel.setText(author.getFirstName() + " " + author.getLastName() + " (" + author.getAuthorID() + ")");
+        backButton.setDisable(previous.isEmpty());
+        load();
+    }
+
+    private void load() {
+        int load = ++loads;
+        booksTable.getItems().clear();
+        coAuthorTable.getItems().clear();
+        booksTable.setPlaceholder(new Label("Loading books..."));
+        coAuthorTable.setPlaceholder(new Label("Loading co-authors..."));
+        Controller.loadAuthorDetails(current.getAuthorID(), depthSpinner.getValue(), (books, layers) -> {
+            if (load != loads) {
+                return;
+            }
+            List<CoAuthor> coAuthors = new ArrayList<>();
+            for (int i = 0; i < layers.size(); i++) {
+                for (Author author : layers.get(i)) {
+                    coAuthors.add(new CoAuthor(author, i + 1));
+                }
+            }
+            booksTable.setPlaceholder(new Label("No books"));
+            coAuthorTable.setPlaceholder(new Label("No co-authors"));
+            booksTable.getItems().setAll(books);
+            coAuthorTable.getItems().setAll(coAuthors);
+        });
+    }
+}
@@ -0,0 +1,155 @@
+package kth.decitong.librarydb.view;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javafx.collections.ListChangeListener;
+import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import kth.decitong.librarydb.model.Author;
+import kth.decitong.librarydb.model.AuthorDirectory;
+
+/**
+ * Filter-as-you-type author picker for the add book dialog. Authors come from the
+ * cached AuthorDirectory and are shown one page at a time, so opening the picker
+ * does not wait for the database. Authors picked on one page or under one filter
+ * stay picked when the page or filter changes.
+ */
+class AuthorPicker extends VBox {
+    private static final int PAGE_SIZE = 50;
+
+    private final AuthorDirectory directory;
+    private final TextField filterField = new TextField();
+    private final TableView<Author> table = new TableView<>();
+    private final Button previousButton = new Button("<");
+    private final Button nextButton = new Button(">");
+    private final Label pageLabel = new Label();
+    private final Label pickedLabel = new Label();
+    private final Map<Integer, Author> picked = new LinkedHashMap<>();
+    private int offset;
+    private boolean showingPage;
+
+    AuthorPicker(AuthorDirectory directory) {
+        super(5);
+        this.directory = directory;
+
+        filterField.setPromptText("Filter authors by name or ID");
+        filterField.textProperty().addListener((observable, oldText, newText) -> {
+            offset = 0;
+            showPage();
+        });
+
+        TableColumn<Author, Integer> idCol = new TableColumn<>("Author ID");
+        TableColumn<Author, String> firstNameCol = new TableColumn<>("First Name");
+        TableColumn<Author, String> lastNameCol = new TableColumn<>("Last Name");
+        TableColumn<Author, Date> birthDateCol = new TableColumn<>("Birth Date");
+        idCol.setCellValueFactory(CellValues.of(Author::getAuthorID));
+        firstNameCol.setCellValueFactory(CellValues.of(Author::getFirstName));
+        lastNameCol.setCellValueFactory(CellValues.of(Author::getLastName));
+        birthDateCol.setCellValueFactory(CellValues.of(Author::getBirthDate));
+        table.getColumns().setAll(List.of(idCol, firstNameCol, lastNameCol, birthDateCol));
+        table.setEditable(false);
+        table.setPrefHeight(250);
+        table.setPlaceholder(new Label(directory.isLoaded() ? "No matching authors" : "Loading authors..."));
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        table.getSelectionModel().getSelectedItems().addListener((ListChangeListener<Author>) change -> {
+            if (!showingPage) {
+                updatePicked();
+            }
+        });
+
+        previousButton.setOnAction(e -> {
+            offset = Math.max(0, offset - PAGE_SIZE);
+            showPage();
+        });
+        nextButton.setOnAction(e -> {
+            offset += PAGE_SIZE;
+            showPage();
+        });
+        HBox paging = new HBox(5, previousButton, pageLabel, nextButton);
+        pickedLabel.setWrapText(true);
+
+        getChildren().addAll(filterField, table, paging, pickedLabel);
+        showPage();
+    }
+
+    /**
+     * Show the current page again, e.g. after the directory has been refreshed.
+     */
+    void refresh() {
+        table.setPlaceholder(new Label("No matching authors"));
+        showPage();
+    }
+
+    /**
+     * Add a newly created author to the list and pick it.
+     */
+    void addAndPick(Author author) {
+        directory.added(author);
+        picked.put(author.getAuthorID(), author);
+        filterField.setText(String.valueOf(author.getAuthorID()));
+        showPage();
+    }
+
+    /**
+     * Unpick all authors and clear the filter, before the picker is shown again.
+     */
+    void clear() {
+        picked.clear();
+        offset = 0;
+        filterField.clear();
+        showPage();
+    }
+
+    List<Author> getPickedAuthors() {
+        return new ArrayList<>(picked.values());
+    }
+
+    private void showPage() {
+        AuthorDirectory.Page page = directory.find(filterField.getText(), offset, PAGE_SIZE);
+        offset = page.getOffset();
+        showingPage = true;
+        try {
+            table.getItems().setAll(page.getAuthors());
+            table.getSelectionModel().clearSelection();
+            for (int i = 0; i < page.getAuthors().size(); i++) {
+                if (picked.containsKey(page.getAuthors().get(i).getAuthorID())) {
+                    table.getSelectionModel().select(i);
+                }
+            }
+        } finally {
+            showingPage = false;
+        }
+        int total = page.getTotal();
+        pageLabel.setText(total == 0 ? "0 authors"
+                : (offset + 1) + "-" + (offset + page.getAuthors().size()) + " of " + total);
+        previousButton.setDisable(offset == 0);
+        nextButton.setDisable(offset + PAGE_SIZE >= total);
+        showPicked();
+    }
+
+    /**
+     * Make the picked authors on the current page match the table selection.
+     */
+    private void updatePicked() {
+        for (Author author : table.getItems()) {
+            picked.remove(author.getAuthorID());
+        }
+        for (Author author : table.getSelectionModel().getSelectedItems()) {
+            if (author != null) {
+                picked.put(author.getAuthorID(), author);
+            }
+        }
+        showPicked();
+    }
+
+    private void showPicked() {
+        pickedLabel.setText(picked.isEmpty() ? "No authors picked" : "Picked: " + picked.values().stream()
+                .map(author -> author.getFirstName() + " " + author.getLastName())
+                .collect(Collectors.joining(", ")));
+    }
+}
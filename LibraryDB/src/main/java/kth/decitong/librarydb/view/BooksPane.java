@@ -2,16 +2,20 @@ package kth.decitong.librarydb.view;
 
 import java.sql.Date;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import javafx.application.Platform;
-import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
+import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.input.ContextMenuEvent;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 import kth.decitong.librarydb.model.*;
@@ -19,6 +23,8 @@ import kth.decitong.librarydb.model.*;
 /**
  * The main pane for the view, extending VBox and including the menus. An
  * internal BorderPane holds the TableView for books and a search utility.
+ * The dialogs are built the first time they are shown and then reused, so the main
+ * window does not wait for them.
  *
  * @author anderslm@kth.se
  */
@@ -29,9 +35,29 @@ public class BooksPane extends VBox {
     private TextField searchField;
     private Button searchButton;
     private MenuBar menuBar;
-
-    public BooksPane(BooksDbImpl booksDb) {
-        final Controller controller = new Controller(booksDb, this);
+    private final Map<Integer, String> matchSources = new HashMap<>();
+
+    // Dialogs and their inputs, null until first shown.
+    private TextInputDialog removeBookDialog;
+    private Dialog<ButtonType> updateRatingDialog;
+    private TextField ratingBookIDField;
+    private TextField newRatingField;
+    private Dialog<Book> addBookDialog;
+    private AuthorPicker authorPicker;
+    private TextField bookIDField;
+    private TextField isbnField;
+    private TextField titleField;
+    private DatePicker publishedDateField;
+    private TextField ratingField;
+    private TextField genreField;
+    private Dialog<Author> addAuthorDialog;
+    private TextField authorIDField;
+    private TextField firstNameField;
+    private TextField lastNameField;
+    private DatePicker birthDateField;
+
+    public BooksPane(BooksDbInterface booksDb, UniversalSearch universalSearch, CacheWarmer cacheWarmer) {
+        final Controller controller = new Controller(booksDb, universalSearch, cacheWarmer, this);
         this.init(controller);
     }
 
@@ -42,8 +68,107 @@ public class BooksPane extends VBox {
      * @param books the books to display
      */
     public void displayBooks(List<Book> books) {
-        booksInTable.clear();
-        booksInTable.addAll(books);
+        matchSources.clear();
+        booksInTable = FXCollections.observableArrayList(books);
+        booksTable.setItems(booksInTable);
+        StartupProfile.firstSearch();
+    }
+
+    /**
+     * @return the names of the authors of a book, for the author column
+     */
+    static String authorNames(Book book) {
+        List<Author> authors = book.getAuthors();
+        if (authors.isEmpty()) {
+            return "No Authors";
+        }
+        StringBuilder names = new StringBuilder();
+        for (Author author : authors) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(author.getFirstName()).append(' ').append(author.getLastName());
+        }
+        return names.toString();
+    }
+
+    /**
+     * Display a columnar search result. The table reads it through a lazy list, so
+     * Book objects are only created for the rows that are shown.
+     *
+     * @param books the books to display
+     */
+    public void displayBatch(BookBatch books) {
+        matchSources.clear();
+        booksInTable = FXCollections.observableList(books.asList());
+        booksTable.setItems(booksInTable);
+        StartupProfile.firstSearch();
+    }
+
+    /**
+     * Display the result of a universal search, showing which searches found each book.
+     *
+     * @param books the books to display
+     */
+    public void displayTaggedBooks(List<TaggedBook> books) {
+        matchSources.clear();
+        List<Book> plain = new ArrayList<>();
+        for (TaggedBook tagged : books) {
+            plain.add(tagged.getBook());
+            matchSources.put(tagged.getBook().getBookId(), tagged.getSources().stream()
+                    .map(SearchMode::name).collect(Collectors.joining(", ")));
+        }
+        booksInTable = FXCollections.observableArrayList(plain);
+        booksTable.setItems(booksInTable);
+        StartupProfile.firstSearch();
+    }
+
+    /**
+     * Remove books, e.g. after a successful delete, from the booksTable.
+     *
+     * @param bookIds ids of the books to remove
+     */
+    public void removeBooks(Collection<Integer> bookIds) {
+        booksInTable.removeIf(book -> bookIds.contains(book.getBookId()));
+    }
+
+    /**
+     * Show a new rating for a book in the booksTable.
+     *
+     * @param bookId id of the rated book
+     * @param rating the new rating
+     */
+    public void updateRating(int bookId, int rating) {
+        // The books may be shared with the search cache, so they are replaced, not changed.
+        for (int i = 0; i < booksInTable.size(); i++) {
+            Book book = booksInTable.get(i);
+            if (book.getBookId() == bookId && book.getRating() != rating) {
+                Book rated = new Book(book.getBookId(), book.getIsbn(), book.getTitle(), book.getPublished(),
+                        rating, book.getGenre());
+                book.getAuthors().forEach(rated::addAuthors);
+                booksInTable.set(i, rated);
+            }
+        }
+    }
+
+    /**
+     * Disable searching while connecting; call on the FX thread.
+     *
+     * @param connecting whether a connect is in progress
+     */
+    void setConnecting(boolean connecting) {
+        searchButton.setDisable(connecting);
+        searchButton.setText(connecting ? "Connecting..." : "Search");
+    }
+
+    /**
+     * Run a search as if the user had typed it and pressed Search, e.g. to measure
+     * start up.
+     */
+    public void search(String searchFor, SearchMode mode) {
+        searchField.setText(searchFor);
+        searchModeBox.setValue(mode);
+        searchButton.fire();
     }
 
     /**
@@ -91,28 +216,57 @@ public class BooksPane extends VBox {
         TableColumn<Book, String> authorCol = new TableColumn<>("Author");
         TableColumn<Book, Integer> ratingCol = new TableColumn<>("Rating");
         TableColumn<Book, Genre> genreCol = new TableColumn<>("Genre");
+        TableColumn<Book, String> matchCol = new TableColumn<>("Found by");
+
+        titleCol.setCellValueFactory(CellValues.of(Book::getTitle));
+        bookIDCol.setCellValueFactory(CellValues.of(Book::getBookId));
+        isbnCol.setCellValueFactory(CellValues.of(Book::getIsbn));
+        publishedCol.setCellValueFactory(CellValues.of(Book::getPublished));
+        ratingCol.setCellValueFactory(CellValues.of(Book::getRating));
+        genreCol.setCellValueFactory(CellValues.of(Book::getGenre));
+        authorCol.setCellValueFactory(CellValues.of(BooksPane::authorNames));
+        matchCol.setCellValueFactory(CellValues.of(book -> matchSources.getOrDefault(book.getBookId(), "")));
+
+
+        booksTable.getColumns().setAll(List.of(titleCol, bookIDCol, isbnCol, publishedCol, authorCol, ratingCol, genreCol, matchCol));
+        booksTable.setItems(booksInTable);
 
-        titleCol.setCellValueFactory(new PropertyValueFactory<>("title"));
-        bookIDCol.setCellValueFactory(new PropertyValueFactory<>("bookId"));
-        isbnCol.setCellValueFactory(new PropertyValueFactory<>("isbn"));
-        publishedCol.setCellValueFactory(new PropertyValueFactory<>("published"));
-        ratingCol.setCellValueFactory(new PropertyValueFactory<>("rating"));
-        genreCol.setCellValueFactory(new PropertyValueFactory<>("genre"));
-
-        authorCol.setCellValueFactory(cellData -> {
-            List<Author> authors = cellData.getValue().getAuthors();
-            if (authors != null && !authors.isEmpty()) {
-                String authorNames = authors.stream()
-                        .map(author -> author.getFirstName() + " " + author.getLastName())
-                        .collect(Collectors.joining(", "));
-                return new ReadOnlyStringWrapper(authorNames);
+        // Right-clicking a book offers the details of each of its authors. The menu is
+        // built on the first right-click, from a filter, which runs before the table
+        // looks for its context menu.
+        booksTable.addEventFilter(ContextMenuEvent.CONTEXT_MENU_REQUESTED, e -> {
+            if (booksTable.getContextMenu() == null) {
+                booksTable.setContextMenu(createAuthorMenu());
             }
-            return new ReadOnlyStringWrapper("No Authors");
         });
+    }
 
+    private ContextMenu createAuthorMenu() {
+        ContextMenu authorMenu = new ContextMenu(new MenuItem("No authors"));
+        authorMenu.setOnShowing(e -> {
+            authorMenu.getItems().clear();
+            Book book = booksTable.getSelectionModel().getSelectedItem();
+            if (book == null || book.getAuthors().isEmpty()) {
+                MenuItem none = new MenuItem("No authors");
+                none.setDisable(true);
+                authorMenu.getItems().add(none);
+                return;
+            }
+            for (Author author : book.getAuthors()) {
+                MenuItem item = new MenuItem("Show " + author.getFirstName() + " " + author.getLastName());
+                item.setOnAction(event -> showAuthorDetails(author));
+                authorMenu.getItems().add(item);
+            }
+        });
+        return authorMenu;
+    }
 
-        booksTable.getColumns().addAll(titleCol, bookIDCol, isbnCol, publishedCol, authorCol, ratingCol, genreCol);
-        booksTable.setItems(booksInTable);
+    private void showAuthorDetails(Author author) {
+        Stage stage = new Stage();
+        stage.initOwner(getScene().getWindow());
+        stage.setTitle("Author");
+        stage.setScene(new Scene(new AuthorDetailPane(author), 700, 550));
+        stage.show();
     }
 
 
@@ -122,6 +276,9 @@ public class BooksPane extends VBox {
         searchModeBox = new ComboBox<>();
         searchModeBox.getItems().addAll(SearchMode.values());
         searchModeBox.setValue(SearchMode.Title);
+        searchModeBox.valueProperty().addListener((observable, oldMode, newMode) ->
+                searchField.setPromptText(newMode == SearchMode.Published
+                        ? "Year or range, e.g. 2010-2015 crime 4" : "Search for..."));
         searchButton = new Button("Search");
 
         searchButton.setOnAction(event -> {
@@ -149,6 +306,7 @@ public class BooksPane extends VBox {
         MenuItem removeItem = new MenuItem("Remove");
         removeItem.setOnAction(e -> showRemoveBookDialog());
         MenuItem updateItem = new MenuItem("Update");
+        updateItem.setOnAction(e -> showUpdateRatingDialog());
         manageMenu.getItems().addAll(addItem, removeItem, updateItem);
 
         menuBar = new MenuBar();
@@ -163,42 +321,109 @@ public class BooksPane extends VBox {
     }
 
     private void showRemoveBookDialog() {
-        TextInputDialog dialog = new TextInputDialog();
-        dialog.setTitle("Remove Book");
-        dialog.setHeaderText("Enter Book ID to Remove");
-        dialog.setContentText("Book ID:");
-
-        Optional<String> result = dialog.showAndWait();
+        if (removeBookDialog == null) {
+            removeBookDialog = new TextInputDialog();
+            removeBookDialog.setTitle("Remove Book");
+            removeBookDialog.setHeaderText("Enter Book ID(s) to Remove, separated by commas");
+            removeBookDialog.setContentText("Book ID:");
+        }
+        removeBookDialog.getEditor().clear();
+
+        Optional<String> result = removeBookDialog.showAndWait();
         result.ifPresent(bookIdString -> {
             try {
-                int bookId = Integer.parseInt(bookIdString);
-                Controller.deleteBook(bookId);
-                booksInTable.removeIf(book -> book.getBookId() == bookId);
+                int[] bookIds = Arrays.stream(bookIdString.split(","))
+                        .map(String::trim)
+                        .filter(s -> !s.isEmpty())
+                        .mapToInt(Integer::parseInt)
+                        .toArray();
+                if (bookIds.length == 0) {
+                    showAlertAndWait("Enter at least one Book ID", Alert.AlertType.WARNING);
+                    return;
+                }
+                Controller.deleteBooks(bookIds);
             } catch (NumberFormatException e) {
                 showAlertAndWait("Invalid Book ID: " + bookIdString, Alert.AlertType.ERROR);
-            } catch (Exception e) {
-                showAlertAndWait("Error removing book from database", Alert.AlertType.ERROR);
             }
         });
     }
 
+    private void showUpdateRatingDialog() {
+        if (updateRatingDialog == null) {
+            createUpdateRatingDialog();
+        }
+        ratingBookIDField.clear();
+        newRatingField.clear();
+
+        Optional<ButtonType> result = updateRatingDialog.showAndWait();
+        if (result.isPresent() && result.get() == ButtonType.OK) {
+            try {
+                int bookId = Integer.parseInt(ratingBookIDField.getText().trim());
+                int rating = Integer.parseInt(newRatingField.getText().trim());
+                if (rating < 1 || rating > 5) {
+                    showAlertAndWait("Rating must be between 1 and 5", Alert.AlertType.ERROR);
+                    return;
+                }
+                Controller.updateRating(bookId, rating);
+            } catch (NumberFormatException e) {
+                showAlertAndWait("Invalid input: " + e.getMessage(), Alert.AlertType.ERROR);
+            }
+        }
+    }
+
+    private void createUpdateRatingDialog() {
+        updateRatingDialog = new Dialog<>();
+        updateRatingDialog.setTitle("Update Rating");
+        updateRatingDialog.setHeaderText("Enter Book ID and new rating");
+        updateRatingDialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        ratingBookIDField = new TextField();
+        ratingBookIDField.setPromptText("Book ID");
+        newRatingField = new TextField();
+        newRatingField.setPromptText("Rating (1-5)");
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(20, 150, 10, 10));
+        grid.add(new Label("Book ID:"), 0, 0);
+        grid.add(ratingBookIDField, 1, 0);
+        grid.add(new Label("Rating:"), 0, 1);
+        grid.add(newRatingField, 1, 1);
+        updateRatingDialog.getDialogPane().setContent(grid);
+    }
+
     private void showAddBookDialog() {
-        Dialog<Book> dialog = new Dialog<>();
-        dialog.setTitle("Add New Book");
-        dialog.setHeaderText("Enter Book Details");
+        if (addBookDialog == null) {
+            createAddBookDialog();
+        }
+        bookIDField.clear();
+        isbnField.clear();
+        titleField.clear();
+        publishedDateField.setValue(null);
+        ratingField.clear();
+        genreField.clear();
+        authorPicker.clear();
+        Controller.refreshAuthors(authorPicker::refresh);
+
+        addBookDialog.showAndWait();
+    }
+
+    private void createAddBookDialog() {
+        addBookDialog = new Dialog<>();
+        addBookDialog.setTitle("Add New Book");
+        addBookDialog.setHeaderText("Enter Book Details");
 
         ButtonType addButton = new ButtonType("Add", ButtonBar.ButtonData.OK_DONE);
-        dialog.getDialogPane().getButtonTypes().addAll(addButton, ButtonType.CANCEL);
-        List<Author> selectedAuthors = new ArrayList<>();
+        addBookDialog.getDialogPane().getButtonTypes().addAll(addButton, ButtonType.CANCEL);
 
-        TableView<Author> authorTable = createAuthorSelectionTable();
-        authorTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        authorPicker = new AuthorPicker(Controller.getAuthorDirectory());
 
         Button addNewAuthorButton = new Button("Add New Author");
         addNewAuthorButton.setOnAction(e -> {
             Author author = showAddAuthorDialog();
             if (author != null) {
-                authorTable.getItems().add(author);
+                authorPicker.addAndPick(author);
             }
         });
 
@@ -207,16 +432,16 @@ public class BooksPane extends VBox {
         grid.setVgap(10);
         grid.setPadding(new Insets(20, 150, 10, 10));
 
-        TextField bookIDField = new TextField();
+        bookIDField = new TextField();
         bookIDField.setPromptText("Book ID");
-        TextField isbnField = new TextField();
+        isbnField = new TextField();
         isbnField.setPromptText("ISBN");
-        TextField titleField = new TextField();
+        titleField = new TextField();
         titleField.setPromptText("Title");
-        DatePicker publishedDateField = new DatePicker();
-        TextField ratingField = new TextField();
+        publishedDateField = new DatePicker();
+        ratingField = new TextField();
         ratingField.setPromptText("Rating (1-5)");
-        TextField genreField = new TextField();
+        genreField = new TextField();
         genreField.setPromptText("Genre");
 
         grid.add(new Label("Book ID:"), 0, 0);
@@ -231,12 +456,12 @@ public class BooksPane extends VBox {
         grid.add(ratingField, 1, 4);
         grid.add(new Label("Genre:"), 0, 5);
         grid.add(genreField, 1, 5);
-        grid.add(authorTable, 0, 6, 2, 1);
+        grid.add(authorPicker, 0, 6, 2, 1);
         grid.add(addNewAuthorButton, 0, 7);
 
-        dialog.getDialogPane().setContent(grid);
+        addBookDialog.getDialogPane().setContent(grid);
 
-        dialog.setResultConverter(dialogButton -> {
+        addBookDialog.setResultConverter(dialogButton -> {
             if (dialogButton == addButton) {
                 try {
                     int bookId = Integer.parseInt(bookIDField.getText());
@@ -248,8 +473,7 @@ public class BooksPane extends VBox {
 
                     Book book = new Book(bookId, isbn, title, publishedDate, rating, genre);
 
-                    selectedAuthors.addAll(authorTable.getSelectionModel().getSelectedItems());
-                    selectedAuthors.forEach(book::addAuthors);
+                    authorPicker.getPickedAuthors().forEach(book::addAuthors);
 
                     Controller.addBook(book);
                     booksInTable.add(book);
@@ -262,30 +486,44 @@ public class BooksPane extends VBox {
             }
             return null;
         });
-
-        dialog.showAndWait();
     }
 
     private Author showAddAuthorDialog() {
-        Dialog<Author> dialog = new Dialog<>();
-        dialog.setTitle("Add New Author");
-        dialog.setHeaderText("Enter Author Details");
+        if (addAuthorDialog == null) {
+            createAddAuthorDialog();
+        }
+        authorIDField.clear();
+        firstNameField.clear();
+        lastNameField.clear();
+        birthDateField.setValue(null);
+
+        Optional<Author> result = addAuthorDialog.showAndWait();
+        result.ifPresent(author -> {
+            Controller.addAuthor(author);
+        });
+        return result.orElse(null);
+    }
+
+    private void createAddAuthorDialog() {
+        addAuthorDialog = new Dialog<>();
+        addAuthorDialog.setTitle("Add New Author");
+        addAuthorDialog.setHeaderText("Enter Author Details");
 
         ButtonType addButton = new ButtonType("Add", ButtonBar.ButtonData.OK_DONE);
-        dialog.getDialogPane().getButtonTypes().addAll(addButton, ButtonType.CANCEL);
+        addAuthorDialog.getDialogPane().getButtonTypes().addAll(addButton, ButtonType.CANCEL);
 
         GridPane grid = new GridPane();
         grid.setHgap(10);
         grid.setVgap(10);
         grid.setPadding(new Insets(20, 150, 10, 10));
 
-        TextField authorIDField = new TextField();
+        authorIDField = new TextField();
         authorIDField.setPromptText("Author ID");
-        TextField firstNameField = new TextField();
+        firstNameField = new TextField();
         firstNameField.setPromptText("First Name");
-        TextField lastNameField = new TextField();
+        lastNameField = new TextField();
         lastNameField.setPromptText("Last Name");
-        DatePicker birthDateField = new DatePicker();
+        birthDateField = new DatePicker();
 
         grid.add(new Label("Author ID:"), 0, 0);
         grid.add(authorIDField, 1, 0);
@@ -296,9 +534,9 @@ public class BooksPane extends VBox {
         grid.add(new Label("Birth Date:"), 0, 3);
         grid.add(birthDateField, 1, 3);
 
-        dialog.getDialogPane().setContent(grid);
+        addAuthorDialog.getDialogPane().setContent(grid);
 
-        dialog.setResultConverter(dialogButton -> {
+        addAuthorDialog.setResultConverter(dialogButton -> {
             if (dialogButton == addButton) {
                 try {
                     int authorId = Integer.parseInt(authorIDField.getText());
@@ -313,32 +551,5 @@ public class BooksPane extends VBox {
             }
             return null;
         });
-
-        Optional<Author> result = dialog.showAndWait();
-        result.ifPresent(author -> {
-            Controller.addAuthor(author);
-        });
-        return result.orElse(null);
-    }
-
-    private TableView<Author> createAuthorSelectionTable() {
-        TableView<Author> authorTable = new TableView<>();
-        authorTable.setEditable(false);
-        authorTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
-
-        TableColumn<Author, Integer> idCol = new TableColumn<>("Author ID");
-        TableColumn<Author, String> firstNameCol = new TableColumn<>("First Name");
-        TableColumn<Author, String> lastNameCol = new TableColumn<>("Last Name");
-        TableColumn<Author, Date> birthDateCol = new TableColumn<>("Birth Date");
-
-        idCol.setCellValueFactory(new PropertyValueFactory<>("authorID"));
-        firstNameCol.setCellValueFactory(new PropertyValueFactory<>("firstName"));
-        lastNameCol.setCellValueFactory(new PropertyValueFactory<>("lastName"));
-        birthDateCol.setCellValueFactory(new PropertyValueFactory<>("birthDate"));
-
-        authorTable.getColumns().addAll(idCol, firstNameCol, lastNameCol, birthDateCol);
-        Controller.fetchAllAuthors(authorTable);
-
-        return authorTable;
     }
 }
\ No newline at end of file
@@ -0,0 +1,26 @@
+package kth.decitong.librarydb.view;
+
+import java.util.function.Function;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.control.TableColumn;
+import javafx.util.Callback;
+
+/**
+ * Cell value factories that read a cell through a getter, for table columns over
+ * objects without JavaFX properties. Unlike PropertyValueFactory they do not look
+ * the getter up by reflection, which it does again for each new row type and then
+ * invokes reflectively for every cell shown.
+ */
+public final class CellValues {
+
+    private CellValues() {
+    }
+
+    /**
+     * @param getter reads the value of the column from a row
+     */
+    public static <S, T> Callback<TableColumn.CellDataFeatures<S, T>, ObservableValue<T>> of(Function<S, T> getter) {
+        return cellData -> new ReadOnlyObjectWrapper<>(getter.apply(cellData.getValue()));
+    }
+}
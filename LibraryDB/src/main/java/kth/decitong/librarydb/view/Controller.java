@@ -1,11 +1,14 @@
 package kth.decitong.librarydb.view;
 
 import javafx.application.Platform;
-import javafx.collections.FXCollections;
 import javafx.scene.control.Alert;
-import javafx.scene.control.TableView;
 import kth.decitong.librarydb.model.*;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 import static javafx.scene.control.Alert.AlertType.*;
 
 /**
@@ -16,113 +19,266 @@ import static javafx.scene.control.Alert.AlertType.*;
  */
 public class Controller {
 
+    /** Number of books shown for a ranked or fuzzy search. */
+    private static final int RANKED_RESULT_LIMIT = 50;
+
     private static BooksPane booksView;
     private static BooksDbInterface booksDb;
+    private static UniversalSearch universalSearch;
+    private static AuthorDirectory authorDirectory;
+    private static CacheWarmer cacheWarmer;
 
-    public Controller(BooksDbInterface booksDb, BooksPane booksView) {
+    public Controller(BooksDbInterface booksDb, UniversalSearch universalSearch, CacheWarmer cacheWarmer,
+                      BooksPane booksView) {
         Controller.booksDb = booksDb;
+        Controller.universalSearch = universalSearch;
+        Controller.cacheWarmer = cacheWarmer;
         Controller.booksView = booksView;
+        Controller.authorDirectory = new AuthorDirectory(booksDb);
+    }
+
+    public static AuthorDirectory getAuthorDirectory() {
+        return authorDirectory;
+    }
+
+    /**
+     * Connect in the background and announce the outcome. The connect is done once the
+     * catalog can be searched; the universal search, the author directory and the cache
+     * warm-up are then set up in the background.
+     *
+     * @return completes with whether the connect succeeded
+     */
+    public static CompletableFuture<Boolean> connect() {
+        return connect(true);
+    }
+
+    /**
+     * Connect in the background right at start up. Searching is disabled until the
+     * connect is done, and only a failure is announced.
+     *
+     * @return completes with whether the connect succeeded
+     */
+    public static CompletableFuture<Boolean> connectOnStartup() {
+        return connect(false);
     }
 
-    public static void connect() {
-        new Thread(() -> {
+    private static CompletableFuture<Boolean> connect(boolean announceSuccess) {
+        CompletableFuture<Boolean> connected = new CompletableFuture<>();
+        booksView.setConnecting(true);
+        new Thread(ControllerTaskEvent.timed("connect", () -> {
             try {
                 booksDb.connect("DB_LIBRARY");
-                Platform.runLater(() ->
-                        booksView.showAlertAndWait("Connected to database successfully", Alert.AlertType.INFORMATION));
+                StartupProfile.connected();
+                Platform.runLater(() -> {
+                    booksView.setConnecting(false);
+                    if (announceSuccess) {
+                        booksView.showAlertAndWait("Connected to database successfully", Alert.AlertType.INFORMATION);
+                    }
+                });
+                connected.complete(true);
+                connectSecondary();
+                return true;
             } catch (Exception e) {
-                Platform.runLater(() ->
-                        booksView.showAlertAndWait("Failed to connect to database: " + e.getMessage(), Alert.AlertType.ERROR));
+                Platform.runLater(() -> {
+                    booksView.setConnecting(false);
+                    booksView.showAlertAndWait("Failed to connect to database: " + e.getMessage(), Alert.AlertType.ERROR);
+                });
+                connected.complete(false);
+                return false;
             }
-        }).start();
+        })).start();
+        return connected;
+    }
+
+    /**
+     * Set up what the first searches do not need, after the catalog is connected.
+     */
+    private static void connectSecondary() {
+        new Thread(ControllerTaskEvent.timed("connectSecondary", () -> {
+            cacheWarmer.start("DB_LIBRARY");
+            boolean ok = true;
+            try {
+                universalSearch.connect("DB_LIBRARY");
+            } catch (BooksDbException e) {
+                // Searching all then reports why it is unavailable.
+                ok = false;
+            }
+            try {
+                authorDirectory.refresh();
+            } catch (BooksDbException e) {
+                // Loaded again, with any error shown, when an author is picked.
+                ok = false;
+            }
+            return ok;
+        })).start();
     }
 
 
     public static void disconnect() {
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("disconnect", () -> {
             try {
+                cacheWarmer.stop();
+                try {
+                    cacheWarmer.getHistory().save();
+                } catch (IOException e) {
+                    // The session's searches are not remembered; nothing else depends on them.
+                }
+                universalSearch.disconnect();
                 booksDb.disconnect();
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Disconnected from database.", INFORMATION));
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error disconnecting from database: " + e.getMessage(), ERROR));
+                return false;
             }
-        }).start();
+        })).start();
     }
 
 
     public static void addBook(Book book) {
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("addBook", () -> {
             try {
                 booksDb.addBook(book);
                 for (Author author : book.getAuthors()) {
                     booksDb.addAuthorToBook(author, book);
                 }
-                List<Author> fetchedAuthors = booksDb.getAuthorsForBook(book.getBookId());
-                book.getAuthors().clear();
-                book.getAuthors().addAll(fetchedAuthors);
-
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Book and authors added successfully", INFORMATION));
+                return true;
             } catch (Exception e){
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error adding book and authors to database", ERROR));
+                return false;
             }
-        }).start();
+        })).start();
     }
 
     public static void addAuthor(Author author){
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("addAuthor", () -> {
             try {
                 booksDb.addAuthor(author);
+                authorDirectory.added(author);
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Author added successfully.", INFORMATION));
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error adding author to database", ERROR));
+                return false;
             }
-        }).start();
+        })).start();
     }
 
 
     public static void deleteBook(int bookId) {
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("deleteBook", () -> {
             try {
                 booksDb.deleteBook(bookId);
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Book removed successfully.", Alert.AlertType.INFORMATION));
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error removing book from database", Alert.AlertType.ERROR));
+                return false;
             }
-        }).start();
+        })).start();
     }
 
 
-    public static void fetchAllAuthors(TableView<Author> authorTable) {
-        new Thread(() -> {
+    public static void deleteBooks(int[] bookIds) {
+        new Thread(ControllerTaskEvent.timed("deleteBooks", () -> {
+            try {
+                Map<Integer, Boolean> outcome = booksDb.deleteBooks(bookIds);
+                List<Integer> deleted = outcome.entrySet().stream()
+                        .filter(Map.Entry::getValue).map(Map.Entry::getKey).collect(Collectors.toList());
+                List<Integer> missing = outcome.entrySet().stream()
+                        .filter(e -> !e.getValue()).map(Map.Entry::getKey).collect(Collectors.toList());
+                Platform.runLater(() -> {
+                    booksView.removeBooks(deleted);
+                    if (missing.isEmpty()) {
+                        booksView.showAlertAndWait("Removed " + deleted.size() + " book(s).", INFORMATION);
+                    } else {
+                        booksView.showAlertAndWait("Removed " + deleted.size() + " of " + outcome.size()
+                                + " book(s). No book found with ID: " + missing, WARNING);
+                    }
+                });
+                return true;
+            } catch (Exception e) {
+                Platform.runLater(() ->
+                        booksView.showAlertAndWait("Error removing books from database", ERROR));
+                return false;
+            }
+        })).start();
+    }
+
+    public static void updateRating(int bookId, int rating) {
+        new Thread(ControllerTaskEvent.timed("updateRating", () -> {
             try {
-                List<Author> authors = booksDb.getAllAuthors();
+                Map<Integer, Boolean> outcome = booksDb.updateRatings(Map.of(bookId, rating));
+                Platform.runLater(() -> {
+                    if (outcome.getOrDefault(bookId, false)) {
+                        booksView.updateRating(bookId, rating);
+                        booksView.showAlertAndWait("Rating updated successfully.", INFORMATION);
+                    } else {
+                        booksView.showAlertAndWait("No book found with ID: " + bookId, WARNING);
+                    }
+                });
+                return true;
+            } catch (Exception e) {
                 Platform.runLater(() ->
-                        authorTable.setItems(FXCollections.observableArrayList(authors)));
+                        booksView.showAlertAndWait("Error updating rating in database", ERROR));
+                return false;
+            }
+        })).start();
+    }
+
+
+    /**
+     * Fetch authors added since the author directory was last refreshed, then run
+     * onRefreshed on the FX thread.
+     */
+    public static void refreshAuthors(Runnable onRefreshed) {
+        new Thread(ControllerTaskEvent.timed("refreshAuthors", () -> {
+            try {
+                authorDirectory.refresh();
+                Platform.runLater(onRefreshed);
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error fetching authors from database", ERROR));
+                return false;
             }
-        }).start();
+        })).start();
+    }
+
+
+    /**
+     * Fetch an author's books and co-author network up to depth steps, then pass them
+     * to onLoaded on the FX thread.
+     */
+    public static void loadAuthorDetails(int authorId, int depth, BiConsumer<List<Book>, List<List<Author>>> onLoaded) {
+        new Thread(ControllerTaskEvent.timed("loadAuthorDetails", () -> {
+            try {
+                List<Book> books = booksDb.searchBooksByAuthorID(authorId);
+                List<List<Author>> coAuthors = booksDb.getCoAuthors(authorId, depth);
+                Platform.runLater(() -> onLoaded.accept(books, coAuthors));
+                return true;
+            } catch (Exception e) {
+                Platform.runLater(() ->
+                        booksView.showAlertAndWait("Error fetching author details from database", ERROR));
+                return false;
+            }
+        })).start();
     }
 
 
     protected void searchBooksByISBN(String isbn) {
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("searchBooksByISBN", () -> {
             try {
                 List<Book> result = booksDb.searchBooksByISBN(isbn);
-                for (Book book : result) {
-                    List<Author> authors = booksDb.getAuthorsForBook(book.getBookId());
-                    book.getAuthors().clear();
-                    book.getAuthors().addAll(authors);
-                }
                 Platform.runLater(() -> {
                     if (result.isEmpty()) {
                         booksView.showAlertAndWait("No books found with the given ISBN.", INFORMATION);
@@ -130,111 +286,193 @@ public class Controller {
                         booksView.displayBooks(result);
                     }
                 });
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error searching books by ISBN: " + e.getMessage(), ERROR));
+                return false;
             }
-        }).start();
+        })).start();
     }
 
 
     protected void searchBooksByAuthor(String authorName) {
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("searchBooksByAuthor", () -> {
             try {
-                List<Book> result = booksDb.searchBooksByAuthor(authorName);
-                for (Book book : result) {
-                    List<Author> authors = booksDb.getAuthorsForBook(book.getBookId());
-                    book.getAuthors().clear();
-                    book.getAuthors().addAll(authors);
-                }
+                BookBatch result = booksDb.searchBooksBatch(SearchMode.Author, authorName);
                 Platform.runLater(() -> {
                     if (result.isEmpty()) {
                         booksView.showAlertAndWait("No books found for the author: " + authorName, INFORMATION);
                     } else {
-                        booksView.displayBooks(result);
+                        booksView.displayBatch(result);
                     }
                 });
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error searching books by author: " + e.getMessage(), ERROR));
+                return false;
             }
-        }).start();
+        })).start();
     }
 
 
     protected void searchBooksByTitle(String title) {
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("searchBooksByTitle", () -> {
             try {
-                List<Book> result = booksDb.searchBooksByTitle(title);
-                for (Book book : result) {
-                    List<Author> authors = booksDb.getAuthorsForBook(book.getBookId());
-                    book.getAuthors().clear();
-                    book.getAuthors().addAll(authors);
-                }
+                BookBatch result = booksDb.searchBooksBatch(SearchMode.Title, title);
                 Platform.runLater(() -> {
                     if (result.isEmpty()) {
                         booksView.showAlertAndWait("No books found for the title: " + title, INFORMATION);
                     } else {
-                        booksView.displayBooks(result);
+                        booksView.displayBatch(result);
                     }
                 });
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error searching books by title: " + e.getMessage(), ERROR));
+                return false;
             }
-        }).start();
+        })).start();
     }
 
 
     protected void searchBooksByRating(int rating) {
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("searchBooksByRating", () -> {
             try {
-                List<Book> result = booksDb.searchBooksByRating(rating);
-                for (Book book : result) {
-                    List<Author> authors = booksDb.getAuthorsForBook(book.getBookId());
-                    book.getAuthors().clear();
-                    book.getAuthors().addAll(authors);
-                }
+                BookBatch result = booksDb.searchBooksBatch(SearchMode.Rating, String.valueOf(rating));
                 Platform.runLater(() -> {
                     if (result.isEmpty()) {
                         booksView.showAlertAndWait("No books found for the rating: " + rating, INFORMATION);
                     } else {
-                        booksView.displayBooks(result);
+                        booksView.displayBatch(result);
                     }
                 });
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error searching books by rating: " + e.getMessage(), ERROR));
+                return false;
             }
-        }).start();
+        })).start();
+    }
+
+    protected void searchBooksByPublished(PublishedRange range) {
+        new Thread(ControllerTaskEvent.timed("searchBooksByPublished", () -> {
+            try {
+                List<Book> result = booksDb.searchBooksByPublished(range.from(), range.to(), range.genre(),
+                        range.rating());
+                Platform.runLater(() -> {
+                    if (result.isEmpty()) {
+                        booksView.showAlertAndWait("No books found published " + range, INFORMATION);
+                    } else {
+                        booksView.displayBooks(result);
+                    }
+                });
+                return true;
+            } catch (Exception e) {
+                Platform.runLater(() ->
+                        booksView.showAlertAndWait("Error searching books by publication date: " + e.getMessage(), ERROR));
+                return false;
+            }
+        })).start();
     }
 
     protected void searchBooksByGenre(String genre) {
-        new Thread(() -> {
+        new Thread(ControllerTaskEvent.timed("searchBooksByGenre", () -> {
             try {
-                List<Book> result = booksDb.searchBooksByGenre(String.valueOf(genre));
-                for (Book book : result) {
-                    List<Author> authors = booksDb.getAuthorsForBook(book.getBookId());
-                    book.getAuthors().clear();
-                    book.getAuthors().addAll(authors);
-                }
+                BookBatch result = booksDb.searchBooksBatch(SearchMode.Genre, genre);
                 Platform.runLater(() -> {
                     if (result.isEmpty()) {
                         booksView.showAlertAndWait("No books found for the genre: " + genre, INFORMATION);
                     } else {
-                        booksView.displayBooks(result);
+                        booksView.displayBatch(result);
                     }
                 });
+                return true;
             } catch (Exception e) {
                 Platform.runLater(() ->
                         booksView.showAlertAndWait("Error searching books by genre: " + e.getMessage(), ERROR));
+                return false;
             }
-        }).start();
+        })).start();
+    }
+
+    protected void searchBooksRanked(String query) {
+        new Thread(ControllerTaskEvent.timed("searchBooksRanked", () -> {
+            try {
+                List<Book> result = booksDb.searchBooksRanked(query, RANKED_RESULT_LIMIT);
+                Platform.runLater(() -> {
+                    if (result.isEmpty()) {
+                        booksView.showAlertAndWait("No books found for: " + query, INFORMATION);
+                    } else {
+                        booksView.displayBooks(result);
+                    }
+                });
+                return true;
+            } catch (Exception e) {
+                Platform.runLater(() ->
+                        booksView.showAlertAndWait("Error searching books: " + e.getMessage(), ERROR));
+                return false;
+            }
+        })).start();
+    }
+
+    protected void searchBooksFuzzy(String query) {
+        new Thread(ControllerTaskEvent.timed("searchBooksFuzzy", () -> {
+            try {
+                List<Book> result = booksDb.searchBooksFuzzy(query, RANKED_RESULT_LIMIT);
+                Platform.runLater(() -> {
+                    if (result.isEmpty()) {
+                        booksView.showAlertAndWait("No books found resembling: " + query, INFORMATION);
+                    } else {
+                        booksView.displayBooks(result);
+                    }
+                });
+                return true;
+            } catch (Exception e) {
+                Platform.runLater(() ->
+                        booksView.showAlertAndWait("Error searching books: " + e.getMessage(), ERROR));
+                return false;
+            }
+        })).start();
+    }
+
+    protected void searchAll(String input) {
+        new Thread(ControllerTaskEvent.timed("searchAll", () -> {
+            try {
+                UniversalSearch.Result result = universalSearch.search(input);
+                String failed = result.getFailures().entrySet().stream()
+                        .map(failure -> failure.getKey() + " (" + failure.getValue() + ")")
+                        .collect(Collectors.joining(", "));
+                Platform.runLater(() -> {
+                    if (!result.getBooks().isEmpty()) {
+                        booksView.displayTaggedBooks(result.getBooks());
+                    }
+                    if (!failed.isEmpty()) {
+                        String found = result.getBooks().isEmpty() ? "No books found" : "Showing partial results";
+                        booksView.showAlertAndWait(found + " for: " + input + ". Searches that failed: " + failed,
+                                WARNING);
+                    } else if (result.getBooks().isEmpty()) {
+                        booksView.showAlertAndWait("No books found for: " + input, INFORMATION);
+                    }
+                });
+                return true;
+            } catch (Exception e) {
+                Platform.runLater(() ->
+                        booksView.showAlertAndWait("Error searching books: " + e.getMessage(), ERROR));
+                return false;
+            }
+        })).start();
     }
 
     protected void onSearchSelected(String searchFor, SearchMode mode) {
         try {
             if (searchFor != null && !searchFor.trim().isEmpty()) {
+                // Trimmed, so that the search hits the cache entry a warm-up made for it.
+                searchFor = searchFor.trim();
+                cacheWarmer.getHistory().record(mode, searchFor);
                 switch (mode) {
                     case Title:
                         searchBooksByTitle(searchFor);
@@ -257,6 +495,23 @@ public class Controller {
                     case Genre:
                         searchBooksByGenre(searchFor);
                         break;
+                    case Published:
+                        try {
+                            searchBooksByPublished(PublishedRange.parse(searchFor));
+                        } catch (IllegalArgumentException e) {
+                            Platform.runLater(() ->
+                                    booksView.showAlertAndWait(e.getMessage(), Alert.AlertType.ERROR));
+                        }
+                        break;
+                    case Ranked:
+                        searchBooksRanked(searchFor);
+                        break;
+                    case Fuzzy:
+                        searchBooksFuzzy(searchFor);
+                        break;
+                    case All:
+                        searchAll(searchFor);
+                        break;
                 }
             } else {
                 Platform.runLater(() ->
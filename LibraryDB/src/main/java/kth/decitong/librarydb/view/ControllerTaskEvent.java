@@ -0,0 +1,47 @@
+package kth.decitong.librarydb.view;
+
+import java.util.function.BooleanSupplier;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one background task started by the Controller, e.g. a search, from
+ * start until it has handed its result to the FX thread. Recorded only while a
+ * flight recording is running.
+ */
+@Name("kth.decitong.librarydb.ControllerTask")
+@Label("Controller Task")
+@Category({"LibraryDB", "UI"})
+@Description("A background task of the Controller")
+final class ControllerTaskEvent extends jdk.jfr.Event {
+    @Label("Task")
+    String task;
+
+    @Label("Failed")
+    boolean failed;
+
+    /**
+     * Wrap a task so that each run of it is recorded. Tasks handle their own errors,
+     * by telling the user, so each run says whether it succeeded.
+     *
+     * @param task name of the task, e.g. the Controller method
+     * @param body runs the task and returns false if it failed
+     */
+    static Runnable timed(String task, BooleanSupplier body) {
+        return () -> {
+            ControllerTaskEvent event = new ControllerTaskEvent();
+            event.task = task;
+            event.begin();
+            try {
+                event.failed = !body.getAsBoolean();
+            } catch (RuntimeException | Error e) {
+                event.failed = true;
+                throw e;
+            } finally {
+                event.commit();
+            }
+        };
+    }
+}
@@ -0,0 +1,221 @@
+package kth.decitong.librarydb.view;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Watches how responsive the FX application thread is.
+ * <p>
+ * A background thread posts a heartbeat with Platform.runLater at a fixed interval
+ * and measures how long it waits in the queue; a new heartbeat is only posted once
+ * the previous one has run. If a heartbeat has waited longer than the stall
+ * threshold, the FX thread is stuck in something, and its stack is taken right
+ * then, while it is still stuck. When the heartbeat finally runs, the stall is
+ * recorded as a UiStallEvent with that stack, and printed if asked for. Pre- and
+ * post-layout pulse listeners on the scene also time each layout pass; they only run
+ * on pulses the scene has anyway, so an idle window is not made to pulse.
+ * <p>
+ * While a flight recording is running, a UiResponsivenessEvent sums up latency and
+ * layout times every 10 seconds.
+ */
+public class FxResponsivenessMonitor {
+    private static final int STACK_DEPTH = 20;
+
+    private final long heartbeatMillis;
+    private final long stallNanos;
+    private final Consumer<Runnable> fxExecutor;
+    private final Scene scene;
+    private final boolean printStalls;
+    private final Runnable periodicEvent = this::emitResponsiveness;
+    private final Runnable beforeLayout = this::layoutStarted;
+    private final Runnable afterLayout = this::layoutDone;
+    private ScheduledExecutorService heartbeat;
+    private volatile Thread fxThread;
+    // Only used on the FX thread.
+    private long layoutStartedAt;
+
+    // Guarded by this.
+    private long pendingSince;
+    private String stallStack;
+    private long samples;
+    private long latencySumNanos;
+    private long maxLatencyNanos;
+    private long maxLayoutNanos;
+    private long periodStalls;
+    private long stalls;
+    private long worstStallNanos;
+
+    /**
+     * @param scene                the scene whose layout passes are timed
+     * @param stallThresholdMillis how long queued work may wait before it is a stall
+     * @param printStalls          whether to also print each stall
+     */
+    public FxResponsivenessMonitor(Scene scene, long stallThresholdMillis, boolean printStalls) {
+        this(100, stallThresholdMillis, Platform::runLater, scene, printStalls);
+    }
+
+    /**
+     * @param fxExecutor runs a task on the thread to watch
+     * @param scene      the scene whose layout passes are timed, or null to not time them
+     */
+    FxResponsivenessMonitor(long heartbeatMillis, long stallThresholdMillis, Consumer<Runnable> fxExecutor,
+                            Scene scene, boolean printStalls) {
+        this.heartbeatMillis = heartbeatMillis;
+        this.stallNanos = stallThresholdMillis * 1_000_000;
+        this.fxExecutor = fxExecutor;
+        this.scene = scene;
+        this.printStalls = printStalls;
+    }
+
+    /**
+     * Start watching. Call on the FX thread when timing layout passes.
+     */
+    public synchronized void start() {
+        if (heartbeat != null) {
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fx-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::beat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        if (scene != null) {
+            fxThread = Thread.currentThread();
+            scene.addPreLayoutPulseListener(beforeLayout);
+            scene.addPostLayoutPulseListener(afterLayout);
+        }
+        FlightRecorder.addPeriodicEvent(UiResponsivenessEvent.class, periodicEvent);
+    }
+
+    public synchronized void stop() {
+        if (heartbeat == null) {
+            return;
+        }
+        heartbeat.shutdownNow();
+        heartbeat = null;
+        if (scene != null) {
+            // Removed later, in case a pulse is calling the listeners right now.
+            Platform.runLater(() -> {
+                scene.removePreLayoutPulseListener(beforeLayout);
+                scene.removePostLayoutPulseListener(afterLayout);
+            });
+        }
+        FlightRecorder.removePeriodicEvent(periodicEvent);
+    }
+
+    /**
+     * @return number of stalls seen since start
+     */
+    public synchronized long getStallCount() {
+        return stalls;
+    }
+
+    /**
+     * @return the longest stall seen since start, in milliseconds
+     */
+    public synchronized long getWorstStallMillis() {
+        return worstStallNanos / 1_000_000;
+    }
+
+    /**
+     * Runs on the heartbeat thread.
+     */
+    private void beat() {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (pendingSince != 0) {
+                if (stallStack == null && now - pendingSince > stallNanos) {
+                    Thread thread = fxThread;
+                    stallStack = thread == null ? "" : format(thread.getStackTrace());
+                }
+                return;
+            }
+            pendingSince = now;
+        }
+        fxExecutor.accept(() -> answered(now));
+    }
+
+    /**
+     * Runs on the FX thread.
+     */
+    private void answered(long postedAt) {
+        fxThread = Thread.currentThread();
+        long latency = System.nanoTime() - postedAt;
+        String stack;
+        synchronized (this) {
+            pendingSince = 0;
+            samples++;
+            latencySumNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            stack = stallStack;
+            stallStack = null;
+            if (latency > stallNanos) {
+                stalls++;
+                periodStalls++;
+                worstStallNanos = Math.max(worstStallNanos, latency);
+            }
+        }
+        if (latency > stallNanos) {
+            reportStall(latency, stack == null ? "" : stack);
+        }
+    }
+
+    private void layoutStarted() {
+        layoutStartedAt = System.nanoTime();
+    }
+
+    private void layoutDone() {
+        if (layoutStartedAt != 0) {
+            long layoutNanos = System.nanoTime() - layoutStartedAt;
+            layoutStartedAt = 0;
+            synchronized (this) {
+                maxLayoutNanos = Math.max(maxLayoutNanos, layoutNanos);
+            }
+        }
+    }
+
+    private void reportStall(long latencyNanos, String stack) {
+        UiStallEvent event = new UiStallEvent();
+        event.stallMillis = latencyNanos / 1_000_000;
+        event.fxStack = stack;
+        event.commit();
+        if (printStalls) {
+            System.out.println("UI stalled for " + event.stallMillis + " ms"
+                    + (stack.isEmpty() ? "" : ", FX thread was at:" + System.lineSeparator() + stack));
+        }
+    }
+
+    private void emitResponsiveness() {
+        UiResponsivenessEvent event = new UiResponsivenessEvent();
+        synchronized (this) {
+            event.samples = samples;
+            event.meanLatencyMicros = samples == 0 ? 0 : latencySumNanos / samples / 1000;
+            event.maxLatencyMicros = maxLatencyNanos / 1000;
+            event.maxLayoutMicros = maxLayoutNanos / 1000;
+            event.stalls = periodStalls;
+            samples = 0;
+            latencySumNanos = 0;
+            maxLatencyNanos = 0;
+            maxLayoutNanos = 0;
+            periodStalls = 0;
+        }
+        event.commit();
+    }
+
+    private static String format(StackTraceElement[] stack) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(stack.length, STACK_DEPTH); i++) {
+            sb.append("\tat ").append(stack[i]).append(System.lineSeparator());
+        }
+        if (stack.length > STACK_DEPTH) {
+            sb.append("\t... ").append(stack.length - STACK_DEPTH).append(" more").append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
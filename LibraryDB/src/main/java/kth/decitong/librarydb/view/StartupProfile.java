@@ -0,0 +1,76 @@
+package kth.decitong.librarydb.view;
+
+/**
+ * Times the start up of the client from the launch: until the main window has had its
+ * first layout pulse (first frame), until the database is connected, and until the
+ * result of the first search is in the table.
+ * The times are reported in the form StartupBenchmark reads; Main prints the report
+ * once the first search result is shown when run with librarydb.startupBenchmark.
+ * <p>
+ * The launch is the time in milliseconds given as librarydb.launchedAtMillis, which
+ * StartupBenchmark sets just before it starts the process, or else the call to
+ * launched at the top of main, which leaves out the start of the JVM. The start time
+ * the OS reports for a process is not used, as Linux only has it to within a second.
+ */
+public final class StartupProfile {
+    // The launch on the System.nanoTime scale, and nanoseconds after it, 0 until
+    // reached; guarded by the class.
+    private static long launched;
+    private static long firstFrame;
+    private static long connected;
+    private static long firstSearch;
+    private static Runnable afterFirstSearch;
+
+    private StartupProfile() {
+    }
+
+    /**
+     * Mark the launch; call first thing in main.
+     */
+    public static synchronized void launched() {
+        long now = System.nanoTime();
+        Long launchedAt = Long.getLong("librarydb.launchedAtMillis");
+        launched = launchedAt == null ? now : now - (System.currentTimeMillis() - launchedAt) * 1_000_000;
+    }
+
+    public static synchronized void firstFrame() {
+        if (firstFrame == 0) {
+            firstFrame = System.nanoTime() - launched;
+        }
+    }
+
+    static synchronized void connected() {
+        if (connected == 0) {
+            connected = System.nanoTime() - launched;
+        }
+    }
+
+    static void firstSearch() {
+        Runnable then;
+        synchronized (StartupProfile.class) {
+            if (firstSearch != 0) {
+                return;
+            }
+            firstSearch = System.nanoTime() - launched;
+            then = afterFirstSearch;
+        }
+        if (then != null) {
+            then.run();
+        }
+    }
+
+    /**
+     * @param action run on the FX thread once the first search result is shown
+     */
+    public static synchronized void afterFirstSearch(Runnable action) {
+        afterFirstSearch = action;
+    }
+
+    /**
+     * @return e.g. "Startup: first frame 412 ms, connected 980 ms, first search 1130 ms after launch"
+     */
+    public static synchronized String report() {
+        return "Startup: first frame " + firstFrame / 1_000_000 + " ms, connected " + connected / 1_000_000
+                + " ms, first search " + firstSearch / 1_000_000 + " ms after launch";
+    }
+}
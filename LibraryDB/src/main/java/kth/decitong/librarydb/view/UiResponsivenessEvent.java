@@ -0,0 +1,37 @@
+package kth.decitong.librarydb.view;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+/**
+ * Periodic JFR event summing up how quickly the FX application thread ran queued
+ * work and laid out the scene since the previous one, see FxResponsivenessMonitor.
+ */
+@Name("kth.decitong.librarydb.UiResponsiveness")
+@Label("UI Responsiveness")
+@Category({"LibraryDB", "UI"})
+@Description("FX runLater latency and layout pass times over the last period")
+@Period("10 s")
+final class UiResponsivenessEvent extends jdk.jfr.Event {
+    @Label("Samples")
+    long samples;
+
+    @Label("Mean runLater Latency")
+    @Timespan(Timespan.MICROSECONDS)
+    long meanLatencyMicros;
+
+    @Label("Max runLater Latency")
+    @Timespan(Timespan.MICROSECONDS)
+    long maxLatencyMicros;
+
+    @Label("Max Layout Pass")
+    @Timespan(Timespan.MICROSECONDS)
+    long maxLayoutMicros;
+
+    @Label("Stalls")
+    long stalls;
+}
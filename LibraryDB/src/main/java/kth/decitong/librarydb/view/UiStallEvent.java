@@ -0,0 +1,25 @@
+package kth.decitong.librarydb.view;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a time the FX application thread did not run queued work for longer
+ * than the stall threshold, see FxResponsivenessMonitor.
+ */
+@Name("kth.decitong.librarydb.UiStall")
+@Label("UI Stall")
+@Category({"LibraryDB", "UI"})
+@Description("The FX application thread was busy for longer than the stall threshold")
+final class UiStallEvent extends jdk.jfr.Event {
+    @Label("Stall")
+    @Timespan(Timespan.MILLISECONDS)
+    long stallMillis;
+
+    @Label("FX Thread Stack")
+    @Description("Stack of the FX application thread once the threshold had passed")
+    String fxStack;
+}
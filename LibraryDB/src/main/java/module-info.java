@@ -3,6 +3,9 @@ module kth.decitong.librarydb {
     requires javafx.fxml;
     requires java.sql;
     requires javafx.base;
+    requires jdk.httpserver;
+    requires java.net.http;
+    requires jdk.jfr;
 
 
     opens kth.decitong.librarydb to javafx.fxml;
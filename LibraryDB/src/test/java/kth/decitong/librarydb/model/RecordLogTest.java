@@ -0,0 +1,174 @@
+package kth.decitong.librarydb.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests RecordLog's durability: every record whose append completed is still there
+ * after the writing process is killed with SIGKILL, whatever it was writing at the
+ * time, and a record too large to replay is never written.
+ */
+class RecordLogTest {
+    private static final int WRITERS = 4;
+    private static final int KILLS = 3;
+
+    @Test
+    void acknowledgedRecordsSurviveKill(@TempDir Path dir) throws Exception {
+        Path log = dir.resolve("records.log");
+        Random random = new Random();
+        for (int round = 0; round < KILLS; round++) {
+            Path acks = dir.resolve("acks-" + round + ".txt");
+            Process writer = new ProcessBuilder(writerCommand(log, round))
+                    .redirectOutput(acks.toFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            waitForAcks(writer, acks);
+            Thread.sleep(100 + random.nextInt(400));
+            writer.destroyForcibly().waitFor();
+
+            Map<String, Integer> logged = replay(log);
+            for (String ack : Files.readAllLines(acks, StandardCharsets.UTF_8)) {
+                String[] parts = ack.split(" ");
+                if (parts.length != 2) {
+                    continue; // the last line may be cut short by the kill
+                }
+                Integer last = logged.get(parts[0]);
+                assertTrue(last != null && last >= Integer.parseInt(parts[1]),
+                        "Acknowledged record " + ack + " lost after kill " + (round + 1));
+            }
+        }
+    }
+
+    @Test
+    void oversizedRecordIsRejected(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("records.log");
+        try (RecordLog log = RecordLog.open(file, payload -> { })) {
+            ExecutionException rejected = assertThrows(ExecutionException.class,
+                    () -> log.append(new byte[RecordLog.MAX_RECORD_SIZE + 1]).get());
+            assertTrue(rejected.getCause() instanceof IOException);
+            log.append(payload("after", 0, 10)).get();
+            log.append(new byte[RecordLog.MAX_RECORD_SIZE]).get();
+            log.append(payload("after", 1, 10)).get();
+        }
+        List<Integer> sizes = new ArrayList<>();
+        RecordLog.open(file, payload -> sizes.add(payload.remaining())).close();
+        assertEquals(List.of(payload("after", 0, 10).length, RecordLog.MAX_RECORD_SIZE,
+                payload("after", 1, 10).length), sizes);
+    }
+
+    /**
+     * Writer process: appends numbered records from several threads, each waiting for
+     * its last record to be durable before the next, and prints "thread number" for
+     * every completed append, until it is killed.
+     * <p>
+     * Usage: RecordLogTest log round
+     */
+    public static void main(String[] args) throws Exception {
+        RecordLog log = RecordLog.open(Path.of(args[0]), payload -> { });
+        PrintStream out = System.out;
+        for (int w = 0; w < WRITERS; w++) {
+            String name = args[1] + "." + w;
+            Random random = new Random();
+            new Thread(() -> {
+                try {
+                    for (int i = 0; ; i++) {
+                        // Up to 64 KiB, so that the kill often falls in the middle of a record.
+                        log.append(payload(name, i, random.nextInt(64 * 1024))).get();
+                        synchronized (out) {
+                            out.println(name + " " + i);
+                            out.flush();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            }).start();
+        }
+    }
+
+    private static List<String> writerCommand(Path log, int round) throws URISyntaxException {
+        Set<String> classPath = new LinkedHashSet<>();
+        classPath.add(Path.of(RecordLog.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toString());
+        classPath.add(Path.of(RecordLogTest.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toString());
+        classPath.addAll(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        return List.of(ProcessHandle.current().info().command().orElse("java"),
+                "-cp", String.join(File.pathSeparator, classPath),
+                RecordLogTest.class.getName(), log.toString(), Integer.toString(round));
+    }
+
+    private static void waitForAcks(Process writer, Path acks) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (Files.size(acks) == 0) {
+            if (!writer.isAlive()) {
+                fail("Writer exited with " + writer.exitValue() + " before acknowledging a record");
+            }
+            assertTrue(System.nanoTime() < deadline, "Writer acknowledged nothing within 30 s");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Reopen the log and check that each thread's records are intact and numbered
+     * without gaps.
+     *
+     * @return the last number logged per thread
+     */
+    private static Map<String, Integer> replay(Path file) throws IOException {
+        Map<String, Integer> last = new HashMap<>();
+        RecordLog.open(file, payload -> {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            String[] header = new String(bytes, 0, Math.min(bytes.length, 64), StandardCharsets.UTF_8)
+                    .split("\n", 2)[0].split(" ");
+            String name = header[0];
+            int number = Integer.parseInt(header[1]);
+            assertEquals(last.getOrDefault(name, -1) + 1, number, "Gap in the records of " + name);
+            assertArrayEquals(payload(name, number, bytes.length - headerLength(name, number)), bytes,
+                    "Record " + name + " " + number + " corrupted");
+            last.put(name, number);
+        }).close();
+        return last;
+    }
+
+    /**
+     * @return "name number\n" followed by filler bytes derived from the number
+     */
+    private static byte[] payload(String name, int number, int fill) {
+        byte[] header = (name + " " + number + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] payload = Arrays.copyOf(header, header.length + fill);
+        for (int i = header.length; i < payload.length; i++) {
+            payload[i] = (byte) (number * 31 + i);
+        }
+        return payload;
+    }
+
+    private static int headerLength(String name, int number) {
+        return (name + " " + number + "\n").getBytes(StandardCharsets.UTF_8).length;
+    }
+}